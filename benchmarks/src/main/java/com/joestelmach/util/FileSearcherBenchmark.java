@@ -0,0 +1,79 @@
+package com.joestelmach.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joestelmach.zipper.benchmark.Fixtures;
+
+/**
+ * Measures searching synthetic directory trees: the first search of a tree,
+ * which walks it, and later searches answered from the walked tree
+ *
+ * @author Joe Stelmach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileSearcherBenchmark {
+  private static final String[] PATTERNS = {"**/*.js", "**/*.css", "menu/**/*.js",
+    "grid/lib/*.css", "**/lib/**", "view/", "**/item*.html"};
+
+  @Param({"1000", "20000"})
+  public int files;
+
+  private File _root;
+  private String _basePath;
+  private FileSearcher _searcher;
+
+  @Setup
+  public void setUp() throws IOException {
+    _root = Fixtures.createTempDirectory("zipper-search");
+    new Fixtures(files).tree(_root, files);
+    _basePath = _root.getAbsolutePath();
+    _searcher = new FileSearcher();
+    _searcher.search(PATTERNS[0], _basePath);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Fixtures.delete(_root);
+  }
+
+  @Benchmark
+  public List<String> firstSearch() {
+    return new FileSearcher().search("**/*.js", _basePath);
+  }
+
+  @Benchmark
+  public List<String> indexedSearch() {
+    return _searcher.search("**/*.js", _basePath);
+  }
+
+  @Benchmark
+  public int buildSearches() {
+    FileSearcher searcher = new FileSearcher();
+    int matches = 0;
+    for(String pattern:PATTERNS) {
+      matches += searcher.search(pattern, _basePath).size();
+    }
+    return matches;
+  }
+}
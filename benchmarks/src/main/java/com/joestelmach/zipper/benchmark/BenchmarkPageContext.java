@@ -0,0 +1,179 @@
+package com.joestelmach.zipper.benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.el.ELContext;
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.el.ExpressionEvaluator;
+import javax.servlet.jsp.el.VariableResolver;
+
+/**
+ * Just enough of a JSP page for the asset tag to render into: a servlet
+ * context rooted at the given web root, a request without headers, and a
+ * writer that collects the page in memory
+ *
+ * @author Joe Stelmach
+ */
+@SuppressWarnings("deprecation")
+public class BenchmarkPageContext extends PageContext {
+  private StringWriter _page = new StringWriter();
+  private JspWriter _out = new PageWriter();
+  private ServletContext _servletContext;
+  private HttpServletRequest _request;
+  private Map<String, Object> _attributes = new HashMap<String, Object>();
+
+  /**
+   * @param webroot the absolute path to the web root
+   */
+  public BenchmarkPageContext(final String webroot) {
+    _servletContext = (ServletContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {ServletContext.class}, new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] arguments) {
+            return method.getName().equals("getRealPath") ? webroot : null;
+          }
+        });
+
+    _request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] arguments) {
+            if(method.getName().equals("getAttribute")) return _attributes.get(arguments[0]);
+            if(method.getName().equals("setAttribute")) _attributes.put((String) arguments[0], arguments[1]);
+            return null;
+          }
+        });
+  }
+
+  /**
+   * @return everything written to the page since it was last cleared
+   */
+  public String getContent() {
+    return _page.toString();
+  }
+
+  /**
+   * Empties the page
+   */
+  public void clearContent() {
+    _page.getBuffer().setLength(0);
+  }
+
+  public JspWriter getOut() {
+    return _out;
+  }
+
+  public ServletContext getServletContext() {
+    return _servletContext;
+  }
+
+  public ServletRequest getRequest() {
+    return _request;
+  }
+
+  public void setAttribute(String name, Object value) {
+    _attributes.put(name, value);
+  }
+
+  public void setAttribute(String name, Object value, int scope) {
+    _attributes.put(name, value);
+  }
+
+  public Object getAttribute(String name) {
+    return _attributes.get(name);
+  }
+
+  public Object getAttribute(String name, int scope) {
+    return _attributes.get(name);
+  }
+
+  public Object findAttribute(String name) {
+    return _attributes.get(name);
+  }
+
+  public void removeAttribute(String name) {
+    _attributes.remove(name);
+  }
+
+  public void removeAttribute(String name, int scope) {
+    _attributes.remove(name);
+  }
+
+  public int getAttributesScope(String name) {
+    return _attributes.containsKey(name) ? PAGE_SCOPE : 0;
+  }
+
+  public Enumeration<String> getAttributeNamesInScope(int scope) {
+    return Collections.enumeration(_attributes.keySet());
+  }
+
+  public void initialize(Servlet servlet, ServletRequest request, ServletResponse response,
+      String errorPageURL, boolean needsSession, int bufferSize, boolean autoFlush) {}
+  public void release() {}
+  public HttpSession getSession() { return null; }
+  public Object getPage() { return null; }
+  public ServletResponse getResponse() { return null; }
+  public Exception getException() { return null; }
+  public ServletConfig getServletConfig() { return null; }
+  public void forward(String relativeUrlPath) {}
+  public void include(String relativeUrlPath) {}
+  public void include(String relativeUrlPath, boolean flush) {}
+  public void handlePageException(Exception e) {}
+  public void handlePageException(Throwable t) {}
+  public ExpressionEvaluator getExpressionEvaluator() { return null; }
+  public VariableResolver getVariableResolver() { return null; }
+  public ELContext getELContext() { return null; }
+
+  /**
+   * Writes straight through to the in-memory page
+   */
+  private class PageWriter extends JspWriter {
+    PageWriter() {
+      super(0, true);
+    }
+
+    public void write(char[] buffer, int offset, int length) {
+      _page.write(buffer, offset, length);
+    }
+
+    public void newLine() { _page.write('\n'); }
+    public void print(boolean b) { _page.write(String.valueOf(b)); }
+    public void print(char c) { _page.write(c); }
+    public void print(int i) { _page.write(String.valueOf(i)); }
+    public void print(long l) { _page.write(String.valueOf(l)); }
+    public void print(float f) { _page.write(String.valueOf(f)); }
+    public void print(double d) { _page.write(String.valueOf(d)); }
+    public void print(char[] s) { _page.write(s, 0, s.length); }
+    public void print(String s) { _page.write(String.valueOf(s)); }
+    public void print(Object o) { _page.write(String.valueOf(o)); }
+    public void println() { newLine(); }
+    public void println(boolean x) { print(x); newLine(); }
+    public void println(char x) { print(x); newLine(); }
+    public void println(int x) { print(x); newLine(); }
+    public void println(long x) { print(x); newLine(); }
+    public void println(float x) { print(x); newLine(); }
+    public void println(double x) { print(x); newLine(); }
+    public void println(char[] x) { print(x); newLine(); }
+    public void println(String x) { print(x); newLine(); }
+    public void println(Object x) { print(x); newLine(); }
+    public void clear() throws IOException {}
+    public void clearBuffer() {}
+    public void flush() {}
+    public void close() {}
+    public int getRemaining() { return 0; }
+  }
+}
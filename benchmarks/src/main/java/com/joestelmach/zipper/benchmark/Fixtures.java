@@ -0,0 +1,216 @@
+package com.joestelmach.zipper.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the javascript, css and directory trees the benchmarks run
+ * against.  The content is made to look like real application code: named
+ * functions with comments, string and object literals, loops and closures
+ * for javascript, and selectors with url references to existing images for
+ * css.  Every generator is seeded, so a benchmark sees the same fixtures on
+ * every run.
+ *
+ * @author Joe Stelmach
+ */
+public class Fixtures {
+  private static final String[] WORDS = {"account", "button", "cart", "dialog", "element",
+    "form", "grid", "header", "item", "list", "menu", "node", "order", "panel", "query",
+    "row", "search", "table", "user", "view", "widget"};
+  private static final String[] PROPERTIES = {"color: #333", "margin: 0 auto", "padding: 4px 8px",
+    "font-size: 12px", "line-height: 1.5", "border: 1px solid #ccc", "display: block",
+    "float: left", "width: 100%", "text-align: center"};
+
+  private Random _random;
+
+  /**
+   * @param seed
+   */
+  public Fixtures(long seed) {
+    _random = new Random(seed);
+  }
+
+  /**
+   * @param functions the number of functions to generate
+   * @return javascript with the given number of functions, roughly 300 bytes each
+   */
+  public String javascript(int functions) {
+    StringBuilder js = new StringBuilder();
+    String module = word() + "Module";
+    js.append("/**\n * The ").append(module).append(" module\n */\n");
+    js.append("var ").append(module).append(" = (function() {\n");
+    js.append("  var settings = {name: '").append(word()).append("', limit: ")
+      .append(_random.nextInt(100)).append(", enabled: true};\n\n");
+
+    List<String> names = new ArrayList<String>();
+    for(int i = 0; i < functions; i++) {
+      String name = word() + capitalize(word()) + i;
+      names.add(name);
+      js.append("  // finds the ").append(word()).append(" of each ").append(word()).append("\n");
+      js.append("  function ").append(name).append("(items, options) {\n");
+      js.append("    var result = [];\n");
+      js.append("    for (var i = 0; i < items.length; i++) {\n");
+      js.append("      if (items[i].").append(word()).append(" > settings.limit) {\n");
+      js.append("        result.push({id: items[i].id, label: '").append(word()).append(" ' + items[i].name});\n");
+      js.append("      }\n    }\n");
+      js.append("    return options && options.sorted ? result.sort(function(a, b) { return a.id - b.id; }) : result;\n");
+      js.append("  }\n\n");
+    }
+
+    js.append("  return {\n");
+    for(int i = 0; i < names.size(); i++) {
+      js.append("    ").append(names.get(i)).append(": ").append(names.get(i))
+        .append(i < names.size() - 1 ? ",\n" : "\n");
+    }
+    js.append("  };\n}());\n");
+    return js.toString();
+  }
+
+  /**
+   * @param rules the number of rules to generate
+   * @param images the images the rules may refer to, relative to the stylesheet
+   * @return css with the given number of rules, about a third of which refer
+   *         to one of the given images
+   */
+  public String css(int rules, List<String> images) {
+    StringBuilder css = new StringBuilder();
+    for(int i = 0; i < rules; i++) {
+      css.append("/* ").append(word()).append(" styles */\n");
+      css.append('.').append(word()).append('-').append(word()).append(" .").append(word())
+        .append(", #").append(word()).append(i).append(" {\n");
+      int properties = 2 + _random.nextInt(4);
+      for(int j = 0; j < properties; j++) {
+        css.append("  ").append(PROPERTIES[_random.nextInt(PROPERTIES.length)]).append(";\n");
+      }
+      if(!images.isEmpty() && _random.nextInt(3) == 0) {
+        css.append("  background: url(").append(images.get(_random.nextInt(images.size())))
+          .append(") no-repeat;\n");
+      }
+      css.append("}\n\n");
+    }
+    return css.toString();
+  }
+
+  /**
+   * Creates a web root with the given number of javascript and css files,
+   * spread across nested directories, along with the images the css refers to
+   *
+   * @param webroot
+   * @param jsFiles
+   * @param cssFiles
+   * @param functionsPerFile the number of functions in each javascript file
+   * @throws IOException
+   */
+  public void webroot(File webroot, int jsFiles, int cssFiles, int functionsPerFile) throws IOException {
+    List<String> images = new ArrayList<String>();
+    for(int i = 0; i < 10; i++) {
+      String image = "images/" + word() + i + ".png";
+      write(new File(webroot, image), bytes(512 + _random.nextInt(4096)));
+      images.add("../" + image);
+    }
+
+    for(int i = 0; i < jsFiles; i++) {
+      write(new File(webroot, "js/" + directory(i) + word() + i + ".js"), javascript(functionsPerFile).getBytes());
+    }
+    for(int i = 0; i < cssFiles; i++) {
+      write(new File(webroot, "css/" + word() + i + ".css"), css(functionsPerFile, images).getBytes());
+    }
+  }
+
+  /**
+   * Creates a directory tree with the given number of files, a quarter of
+   * them javascript, a quarter css and the rest other resources, spread
+   * evenly over directories nested a few levels deep
+   *
+   * @param root
+   * @param files
+   * @throws IOException
+   */
+  public void tree(File root, int files) throws IOException {
+    String[] extensions = {".js", ".css", ".png", ".html"};
+    for(int i = 0; i < files; i++) {
+      File file = new File(root, directory(i) + directory(i / 7) + word() + i + extensions[i % extensions.length]);
+      write(file, new byte[0]);
+    }
+  }
+
+  /**
+   * Deletes the given file, along with everything below it
+   *
+   * @param file
+   */
+  public static void delete(File file) {
+    File[] children = file.listFiles();
+    if(children != null) {
+      for(File child:children) delete(child);
+    }
+    file.delete();
+  }
+
+  /**
+   * @param prefix
+   * @return a new, empty temporary directory
+   * @throws IOException
+   */
+  public static File createTempDirectory(String prefix) throws IOException {
+    File directory = File.createTempFile(prefix, "");
+    if(!directory.delete() || !directory.mkdirs()) {
+      throw new IOException("Could not create temporary directory " + directory);
+    }
+    return directory;
+  }
+
+  /**
+   * @param file
+   * @param content
+   * @throws IOException
+   */
+  public static void write(File file, byte[] content) throws IOException {
+    file.getParentFile().mkdirs();
+    OutputStream output = new FileOutputStream(file);
+    try {
+      output.write(content);
+
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * @param index
+   * @return one of a handful of nested directories, relative, with a trailing slash
+   */
+  private String directory(int index) {
+    return WORDS[index % WORDS.length] + "/" + (index % 3 == 0 ? "lib/" : "");
+  }
+
+  /**
+   * @return a random word
+   */
+  private String word() {
+    return WORDS[_random.nextInt(WORDS.length)];
+  }
+
+  /**
+   * @param length
+   * @return random bytes
+   */
+  private byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    _random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * @param word
+   * @return
+   */
+  private static String capitalize(String word) {
+    return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+  }
+}
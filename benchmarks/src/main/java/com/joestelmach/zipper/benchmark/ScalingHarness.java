@@ -0,0 +1,328 @@
+package com.joestelmach.zipper.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+
+import com.joestelmach.zipper.plugin.ZipperMojo;
+
+/**
+ * Runs the full zipper goal in-process against synthetic webapps of
+ * increasing size, recording the wall time, peak heap and garbage collection
+ * time of each build.  Each webapp is built twice: once from scratch, then
+ * again with nothing changed, which measures the cost of deciding that
+ * nothing needs to be done.
+ *
+ * The results are written as csv, one line per build, so runs against
+ * different versions can be compared.  Between each pair of sizes, the
+ * growth in time is reported as an exponent of the growth in files: about 1
+ * for a build that scales linearly, and about 2 for one that scales with the
+ * square of the number of files.
+ *
+ * Usage: ScalingHarness [--sizes 100,1000,10000,50000] [--layouts single,directory,page]
+ *        [--level WHITESPACE_ONLY] [--lint] [--work directory] [--output scaling.csv]
+ *        [--label name] [--compare previous.csv]
+ *
+ * @author Joe Stelmach
+ */
+public class ScalingHarness {
+  private static final String HEADER = "label,layout,files,groups,build,wallMillis,peakHeapBytes,gcMillis";
+  private static final String[] BUILDS = {"full", "noop"};
+  private static final double SUPERLINEAR_EXPONENT = 1.5;
+  private static final double SLOWER_RATIO = 1.2;
+  private static final int WARM_UP_FILES = 100;
+
+  private String _label;
+  private List<Result> _results = new ArrayList<Result>();
+
+  /**
+   * A single build of a single webapp
+   */
+  private static class Result {
+    String _label;
+    String _layout;
+    int _files;
+    int _groups;
+    String _build;
+    double _wallMillis;
+    long _peakHeapBytes;
+    long _gcMillis;
+
+    String getKey() {
+      return _layout + "," + _files + "," + _build;
+    }
+
+    String toCsv() {
+      return String.format(Locale.US, "%s,%s,%d,%d,%s,%.1f,%d,%d", _label, _layout, _files, _groups,
+          _build, _wallMillis, _peakHeapBytes, _gcMillis);
+    }
+
+    static Result fromCsv(String line) {
+      String[] values = line.split(",");
+      Result result = new Result();
+      result._label = values[0];
+      result._layout = values[1];
+      result._files = Integer.parseInt(values[2]);
+      result._groups = Integer.parseInt(values[3]);
+      result._build = values[4];
+      result._wallMillis = Double.parseDouble(values[5]);
+      result._peakHeapBytes = Long.parseLong(values[6]);
+      result._gcMillis = Long.parseLong(values[7]);
+      return result;
+    }
+  }
+
+  /**
+   * @param label a name for the version being measured
+   */
+  public ScalingHarness(String label) {
+    _label = label;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    for(int i = 0; i < args.length; i++) {
+      if(!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+      String name = args[i].substring(2);
+      boolean flag = i + 1 >= args.length || args[i + 1].startsWith("--");
+      options.put(name, flag ? "true" : args[++i]);
+    }
+
+    String label = options.containsKey("label") ? options.get("label") : getZipperVersion();
+    File work = new File(options.containsKey("work") ? options.get("work") :
+      System.getProperty("java.io.tmpdir") + "/zipper-scaling");
+    File output = new File(options.containsKey("output") ? options.get("output") : "scaling-" + label + ".csv");
+
+    Properties settings = new Properties();
+    settings.setProperty("js.optimize.level",
+        options.containsKey("level") ? options.get("level") : "WHITESPACE_ONLY");
+    settings.setProperty("lint.skip", String.valueOf(!options.containsKey("lint")));
+    settings.setProperty("report", "false");
+
+    ScalingHarness harness = new ScalingHarness(label);
+    harness.warmUp(new File(work, "warm-up"), settings);
+    String layouts = options.containsKey("layouts") ? options.get("layouts") : "single,directory,page";
+    String sizes = options.containsKey("sizes") ? options.get("sizes") : "100,1000,10000,50000";
+    for(String layout:layouts.split(",")) {
+      for(String size:sizes.split(",")) {
+        harness.run(new SyntheticWebapp(new File(work, layout + "-" + size),
+            Integer.parseInt(size.trim()), layout.trim()), settings);
+      }
+    }
+
+    harness.save(output);
+    System.out.println("results written to " + output);
+    harness.printScaling();
+    if(options.containsKey("compare")) harness.printComparison(load(new File(options.get("compare"))));
+  }
+
+  /**
+   * Generates the given webapp, then builds it from scratch and again with
+   * nothing changed
+   *
+   * @param webapp
+   * @param settings
+   * @throws Exception
+   */
+  public void run(SyntheticWebapp webapp, Properties settings) throws Exception {
+    webapp.generate(settings);
+    for(String build:BUILDS) {
+      Result result = measure(webapp.getBaseDir());
+      result._label = _label;
+      result._layout = webapp.getLayout();
+      result._files = webapp.getFiles();
+      result._groups = webapp.getGroups();
+      result._build = build;
+      _results.add(result);
+      System.out.println(result.toCsv());
+    }
+    Fixtures.delete(webapp.getBaseDir());
+  }
+
+  /**
+   * Builds a small webapp without recording anything, so the first measured
+   * build doesn't pay for class loading and an unwarmed JIT
+   *
+   * @param baseDir
+   * @param settings
+   * @throws Exception
+   */
+  public void warmUp(File baseDir, Properties settings) throws Exception {
+    SyntheticWebapp webapp = new SyntheticWebapp(baseDir, WARM_UP_FILES, SyntheticWebapp.LAYOUTS[0]);
+    webapp.generate(settings);
+    measure(baseDir);
+    Fixtures.delete(baseDir);
+  }
+
+  /**
+   * Runs the zipper goal against the project in the given directory
+   *
+   * @param baseDir
+   * @return the build's measurements
+   * @throws Exception if the build fails
+   */
+  private Result measure(File baseDir) throws Exception {
+    Model model = new Model();
+    Build build = new Build();
+    build.setDirectory(baseDir + "/target");
+    build.setOutputDirectory(baseDir + "/target/classes");
+    model.setBuild(build);
+    MavenProject project = new MavenProject(model);
+    project.setFile(new File(baseDir, "pom.xml"));
+
+    // maven injects the project into the mojo's private field
+    ZipperMojo mojo = new ZipperMojo();
+    mojo.setLog(new SilentLog());
+    Field field = ZipperMojo.class.getDeclaredField("_project");
+    field.setAccessible(true);
+    field.set(mojo, project);
+
+    System.gc();
+    List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+    for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+      if(pool.getType() != MemoryType.HEAP) continue;
+      pool.resetPeakUsage();
+      heapPools.add(pool);
+    }
+    long gcStart = getGcMillis();
+    long start = System.nanoTime();
+
+    mojo.execute();
+
+    Result result = new Result();
+    result._wallMillis = (System.nanoTime() - start) / 1000000.0;
+    result._gcMillis = getGcMillis() - gcStart;
+    for(MemoryPoolMXBean pool:heapPools) result._peakHeapBytes += pool.getPeakUsage().getUsed();
+    return result;
+  }
+
+  /**
+   * Writes the results to the given file as csv
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void save(File file) throws IOException {
+    PrintWriter writer = new PrintWriter(new FileWriter(file));
+    try {
+      writer.println(HEADER);
+      for(Result result:_results) writer.println(result.toCsv());
+
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Prints how the time of each layout and build grows with its number of
+   * files, flagging growth well beyond linear
+   */
+  public void printScaling() {
+    System.out.println("scaling exponents (1 is linear, 2 is quadratic):");
+    for(int i = 0; i < _results.size(); i++) {
+      Result current = _results.get(i);
+      Result previous = null;
+      for(int j = i - 1; j >= 0 && previous == null; j--) {
+        Result candidate = _results.get(j);
+        if(candidate._layout.equals(current._layout) && candidate._build.equals(current._build) &&
+            candidate._files < current._files) previous = candidate;
+      }
+      if(previous == null) continue;
+
+      double exponent = Math.log(current._wallMillis / previous._wallMillis) /
+        Math.log((double) current._files / previous._files);
+      System.out.println(String.format(Locale.US, "  %-10s %-5s %6d -> %6d files: %.2f%s",
+          current._layout, current._build, previous._files, current._files, exponent,
+          exponent > SUPERLINEAR_EXPONENT ? "  <-- superlinear" : ""));
+    }
+  }
+
+  /**
+   * Prints how the time of each build compares to the same build in the
+   * given previous results, flagging builds that got noticeably slower
+   *
+   * @param previousResults
+   */
+  private void printComparison(List<Result> previousResults) {
+    Map<String, Result> previous = new HashMap<String, Result>();
+    for(Result result:previousResults) previous.put(result.getKey(), result);
+
+    System.out.println("compared to " + (previousResults.isEmpty() ? "nothing" : previousResults.get(0)._label) + ":");
+    for(Result result:_results) {
+      Result before = previous.get(result.getKey());
+      if(before == null) continue;
+      double ratio = result._wallMillis / before._wallMillis;
+      System.out.println(String.format(Locale.US, "  %-10s %-5s %6d files: %.2fx time, %.2fx peak heap%s",
+          result._layout, result._build, result._files, ratio,
+          (double) result._peakHeapBytes / before._peakHeapBytes,
+          ratio > SLOWER_RATIO ? "  <-- slower" : ""));
+    }
+  }
+
+  /**
+   * @param file
+   * @return the results saved to the given file
+   * @throws IOException
+   */
+  private static List<Result> load(File file) throws IOException {
+    List<Result> results = new ArrayList<Result>();
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while((line = reader.readLine()) != null) {
+        if(line.length() > 0 && !line.equals(HEADER)) results.add(Result.fromCsv(line));
+      }
+
+    } finally {
+      reader.close();
+    }
+    return results;
+  }
+
+  /**
+   * @return the total time spent collecting garbage, in milliseconds
+   */
+  private static long getGcMillis() {
+    long millis = 0;
+    for(GarbageCollectorMXBean collector:ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0, collector.getCollectionTime());
+    }
+    return millis;
+  }
+
+  /**
+   * @return the version of the zipper plugin on the classpath
+   * @throws IOException
+   */
+  private static String getZipperVersion() throws IOException {
+    InputStream input = ZipperMojo.class.getResourceAsStream("/META-INF/maven/com.joestelmach/zipper/pom.properties");
+    if(input == null) return "dev";
+    try {
+      Properties properties = new Properties();
+      properties.load(input);
+      return properties.getProperty("version", "dev");
+
+    } finally {
+      input.close();
+    }
+  }
+}
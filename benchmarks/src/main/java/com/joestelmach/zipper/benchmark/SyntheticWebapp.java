@@ -0,0 +1,159 @@
+package com.joestelmach.zipper.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Generates a maven project with a web root of the given size, along with a
+ * zipper.properties grouping its files in one of a few layouts:
+ * <ul>
+ *   <li>single: one javascript and one css group, each including every file
+ *       through a single wildcard pattern</li>
+ *   <li>directory: a group for each top level directory</li>
+ *   <li>page: a group for every ten javascript files, each naming its files
+ *       one by one along with a shared library directory, the way a page
+ *       lists its scripts</li>
+ * </ul>
+ *
+ * @author Joe Stelmach
+ */
+public class SyntheticWebapp {
+  public static final String[] LAYOUTS = {"single", "directory", "page"};
+  private static final String WEBROOT = "src/main/webapp";
+  private static final int FUNCTIONS_PER_FILE = 3;
+  private static final int JS_FILES_PER_CSS_FILE = 10;
+  private static final int FILES_PER_PAGE = 10;
+
+  private File _baseDir;
+  private String _layout;
+  private int _files;
+  private int _groups;
+
+  /**
+   * @param baseDir the directory to generate the project in, which is
+   *        emptied first
+   * @param files the total number of javascript and css files to generate
+   * @param layout one of {@link #LAYOUTS}
+   */
+  public SyntheticWebapp(File baseDir, int files, String layout) {
+    _baseDir = baseDir;
+    _files = files;
+    _layout = layout;
+  }
+
+  /**
+   * Writes the project's web root and configuration
+   *
+   * @param settings extra zipper.properties settings, added to the groups
+   * @throws IOException
+   */
+  public void generate(Properties settings) throws IOException {
+    Fixtures.delete(_baseDir);
+    File webroot = new File(_baseDir, WEBROOT);
+    int cssFiles = Math.max(1, _files / (JS_FILES_PER_CSS_FILE + 1));
+    new Fixtures(_files).webroot(webroot, _files - cssFiles, cssFiles, FUNCTIONS_PER_FILE);
+
+    Properties properties = new Properties();
+    properties.putAll(settings);
+    if(_layout.equals("single")) {
+      properties.setProperty("js.asset.all", "**/*.js");
+      properties.setProperty("css.asset.all", "**/*.css");
+    }
+    else if(_layout.equals("directory")) {
+      for(String directory:list(new File(webroot, "js"), true)) {
+        properties.setProperty("js.asset." + directory, "js/" + directory + "/**/*.js");
+      }
+      properties.setProperty("css.asset.all", "css/*.css");
+    }
+    else if(_layout.equals("page")) {
+      List<String> scripts = new ArrayList<String>();
+      listFiles(new File(webroot, "js"), "js/", scripts);
+      Collections.sort(scripts);
+      for(int i = 0; i < scripts.size(); i += FILES_PER_PAGE) {
+        StringBuilder includes = new StringBuilder("js/account/lib/*.js");
+        for(String script:scripts.subList(i, Math.min(scripts.size(), i + FILES_PER_PAGE))) {
+          includes.append(", ").append(script);
+        }
+        properties.setProperty("js.asset.page" + i / FILES_PER_PAGE, includes.toString());
+      }
+      properties.setProperty("css.asset.all", "css/*.css");
+    }
+    else {
+      throw new IllegalArgumentException("Unknown layout: " + _layout);
+    }
+
+    _groups = 0;
+    for(Object key:properties.keySet()) {
+      if(((String) key).startsWith("js.asset.") || ((String) key).startsWith("css.asset.")) _groups++;
+    }
+
+    File configuration = new File(_baseDir, "zipper.properties");
+    OutputStream output = new FileOutputStream(configuration);
+    try {
+      properties.store(output, "synthetic " + _layout + " webapp of " + _files + " files");
+
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * @return the directory the project was generated in
+   */
+  public File getBaseDir() {
+    return _baseDir;
+  }
+
+  /**
+   * @return one of {@link #LAYOUTS}
+   */
+  public String getLayout() {
+    return _layout;
+  }
+
+  /**
+   * @return the total number of javascript and css files
+   */
+  public int getFiles() {
+    return _files;
+  }
+
+  /**
+   * @return the number of groups configured by the last generation
+   */
+  public int getGroups() {
+    return _groups;
+  }
+
+  /**
+   * @param directory
+   * @param directories true to list directories, false to list files
+   * @return the names of the given directory's children, sorted
+   */
+  private static List<String> list(File directory, boolean directories) {
+    List<String> names = new ArrayList<String>();
+    File[] children = directory.listFiles();
+    if(children == null) return names;
+    for(File child:children) {
+      if(child.isDirectory() == directories) names.add(child.getName());
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  /**
+   * @param directory
+   * @param path the directory's path relative to the web root
+   * @param files the list to add the path of every file below the directory to
+   */
+  private static void listFiles(File directory, String path, List<String> files) {
+    for(String name:list(directory, false)) files.add(path + name);
+    for(String name:list(directory, true)) listFiles(new File(directory, name), path + name + "/", files);
+  }
+}
@@ -0,0 +1,93 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joestelmach.zipper.benchmark.Fixtures;
+import com.joestelmach.zipper.benchmark.SilentLog;
+
+/**
+ * Measures combining a group's assets into its output file, both from
+ * content already in memory and streamed from the outputs of a previous
+ * build, with each gzip profile
+ *
+ * @author Joe Stelmach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AssetCombinerBenchmark {
+  @Param({"10", "100"})
+  public int files;
+
+  @Param({"NONE", "FAST", "DEFAULT", "EXHAUSTIVE"})
+  public String gzip;
+
+  private File _directory;
+  private AssetCombiner _combiner;
+  private AssetGroup _group;
+  private List<Asset> _loadedAssets;
+  private List<Asset> _savedAssets;
+  private String _outputFileName;
+
+  @Setup
+  public void setUp() throws IOException {
+    _directory = Fixtures.createTempDirectory("zipper-combine");
+    Fixtures fixtures = new Fixtures(files);
+    _loadedAssets = new ArrayList<Asset>();
+    _savedAssets = new ArrayList<Asset>();
+    for(int i = 0; i < files; i++) {
+      String sourcePath = _directory + "/src/file" + i + ".js";
+      String outputPath = _directory + "/out/file" + i + ".js";
+      Fixtures.write(new File(sourcePath), fixtures.javascript(20).getBytes());
+
+      Asset loaded = new Asset(sourcePath, outputPath);
+      loaded.read();
+      loaded.write();
+      _loadedAssets.add(loaded);
+      _savedAssets.add(new Asset(sourcePath, outputPath));
+    }
+
+    _combiner = new AssetCombiner(new SilentLog());
+    _group = new AssetGroup();
+    _group.setName("all");
+    _group.setGzip(!gzip.equals("NONE"));
+    if(_group.getGzip()) _group.setGzipProfile(GzipProfile.valueOf(gzip));
+    _outputFileName = _directory + "/all.js";
+  }
+
+  @TearDown
+  public void tearDown() {
+    Fixtures.delete(_directory);
+  }
+
+  @Benchmark
+  public boolean combineInMemory() throws MojoExecutionException {
+    return _combiner.combine(_loadedAssets, _outputFileName, _group);
+  }
+
+  @Benchmark
+  public boolean combineFromOutput() throws MojoExecutionException {
+    return _combiner.combine(_savedAssets, _outputFileName, _group);
+  }
+}
@@ -0,0 +1,85 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joestelmach.zipper.benchmark.Fixtures;
+import com.joestelmach.zipper.benchmark.SilentLog;
+
+/**
+ * Measures busting the url references of a stylesheet, in memory and in
+ * place on disk, along with reading the stylesheet in
+ *
+ * @author Joe Stelmach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CSSCacheBusterBenchmark {
+  @Param({"20", "500"})
+  public int rules;
+
+  private File _webroot;
+  private File _source;
+  private File _output;
+  private byte[] _css;
+  private String _content;
+  private CSSCacheBuster _buster;
+
+  @Setup
+  public void setUp() throws IOException {
+    _webroot = Fixtures.createTempDirectory("zipper-css");
+    new Fixtures(rules).webroot(_webroot, 0, 1, rules);
+    _source = new File(_webroot, "css").listFiles()[0];
+    _output = new File(_webroot, "busted.css");
+    _buster = new CSSCacheBuster(new SilentLog(), _webroot.getAbsolutePath());
+    _content = _buster.readCss(_source);
+    _css = _content.getBytes();
+  }
+
+  /**
+   * bustIt over-writes its file, so each call starts from the original
+   */
+  @Setup(Level.Invocation)
+  public void restoreOutput() throws IOException {
+    Fixtures.write(_output, _css);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Fixtures.delete(_webroot);
+  }
+
+  @Benchmark
+  public String bust() {
+    return _buster.bust(_content, _source.getAbsolutePath());
+  }
+
+  @Benchmark
+  public void bustIt() {
+    _buster.bustIt(_output.getAbsolutePath(), _source.getAbsolutePath());
+  }
+
+  @Benchmark
+  public String readCss() {
+    return _buster.readCss(_source);
+  }
+}
@@ -0,0 +1,73 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.joestelmach.zipper.benchmark.Fixtures;
+
+/**
+ * Measures optimizing a single javascript file with the closure compiler at
+ * each compilation level, from a string and from a file
+ *
+ * @author Joe Stelmach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JSOptimizerClosureBenchmark {
+  @Param({"WHITESPACE_ONLY", "SIMPLE_OPTIMIZATIONS", "ADVANCED_OPTIMIZATIONS"})
+  public CompilationLevel level;
+
+  @Param({"10", "100"})
+  public int functions;
+
+  private File _directory;
+  private String _source;
+  private String _inputFileName;
+  private String _outputFileName;
+  private JSOptimizerClosure _optimizer;
+
+  @Setup
+  public void setUp() throws IOException {
+    _directory = Fixtures.createTempDirectory("zipper-closure");
+    _source = new Fixtures(functions).javascript(functions);
+    File input = new File(_directory, "script.js");
+    Fixtures.write(input, _source.getBytes());
+    _inputFileName = input.getAbsolutePath();
+    _outputFileName = new File(_directory, "script.min.js").getAbsolutePath();
+    _optimizer = new JSOptimizerClosure(level, new ClosureContext());
+  }
+
+  @TearDown
+  public void tearDown() {
+    Fixtures.delete(_directory);
+  }
+
+  @Benchmark
+  public String optimizeSource() throws IOException {
+    return _optimizer.optimizeSource(_source, _inputFileName, level);
+  }
+
+  @Benchmark
+  public void optimize() throws IOException, InterruptedException {
+    _optimizer.optimize(_inputFileName, _outputFileName, level);
+  }
+}
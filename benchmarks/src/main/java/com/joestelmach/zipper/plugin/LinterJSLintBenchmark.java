@@ -0,0 +1,73 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.apache.maven.plugin.MojoFailureException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joestelmach.zipper.benchmark.Fixtures;
+import com.joestelmach.zipper.benchmark.SilentLog;
+
+/**
+ * Measures lint checking a single javascript file with a warm JSLint engine
+ *
+ * @author Joe Stelmach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LinterJSLintBenchmark {
+  @Param({"10", "100"})
+  public int functions;
+
+  private File _directory;
+  private String _fileName;
+  private LinterJSLint _linter;
+
+  @Setup
+  public void setUp() throws IOException {
+    _directory = Fixtures.createTempDirectory("zipper-lint");
+    File file = new File(_directory, "script.js");
+    Fixtures.write(file, new Fixtures(functions).javascript(functions).getBytes());
+    _fileName = file.getAbsolutePath();
+
+    Configuration configuration = new BaseConfiguration();
+    configuration.setProperty(ConfigKey.LINT_FAIL_ON_WARNING.getKey(), false);
+    _linter = new LinterJSLint(configuration, new SilentLog(), new HashMap<String, String>());
+  }
+
+  @TearDown
+  public void tearDown() {
+    Fixtures.delete(_directory);
+  }
+
+  @Benchmark
+  public void check() throws MojoFailureException {
+    _linter.check(_fileName);
+  }
+
+  @Benchmark
+  public List<String> lint() throws IOException {
+    return _linter.lint(_fileName);
+  }
+}
@@ -0,0 +1,95 @@
+package com.joestelmach.zipper.tag;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.jsp.JspException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joestelmach.zipper.benchmark.BenchmarkPageContext;
+import com.joestelmach.zipper.benchmark.Fixtures;
+import com.joestelmach.zipper.plugin.AssetManifest;
+import com.joestelmach.zipper.plugin.ConfigKey;
+
+/**
+ * Measures rendering a page's javascript and css includes with the asset tag.
+ * The groups are configured by the zipper.properties bundled with the
+ * benchmarks.  Since the tag keeps its settings for the life of the JVM,
+ * each environment runs in a fork of its own.
+ *
+ * @author Joe Stelmach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AssetTagBenchmark {
+  @Param({"development", "production"})
+  public String environment;
+
+  private File _webroot;
+  private BenchmarkPageContext _page;
+
+  @Setup
+  public void setUp() throws IOException {
+    System.setProperty(ConfigKey.ENVIRONMENT.getKey(), environment);
+    _webroot = Fixtures.createTempDirectory("zipper-tag");
+    new Fixtures(1).webroot(_webroot, 100, 10, 5);
+
+    // production renders the groups as a build would have described them.  
+    // Development searches the assets directory instead of the web root 
+    // when it exists, so it's only created for production.
+    if(environment.equals("production")) {
+      List<AssetManifest.Entry> entries = new ArrayList<AssetManifest.Entry>();
+      entries.add(new AssetManifest.Entry("js", "app", "app.js", "0123456789", 100000));
+      entries.add(new AssetManifest.Entry("css", "site", "site.css", "9876543210", 10000));
+      AssetManifest.save(new File(_webroot, "assets/" + AssetManifest.FILE_NAME), entries);
+    }
+
+    _page = new BenchmarkPageContext(_webroot.getAbsolutePath());
+  }
+
+  @TearDown
+  public void tearDown() {
+    Fixtures.delete(_webroot);
+  }
+
+  @Benchmark
+  public String doTag() throws JspException, IOException {
+    _page.clearContent();
+    render("js", "app");
+    render("css", "site");
+    return _page.getContent();
+  }
+
+  /**
+   * @param type
+   * @param name
+   * @throws JspException
+   * @throws IOException
+   */
+  private void render(String type, String name) throws JspException, IOException {
+    AssetTag tag = new AssetTag();
+    tag.setJspContext(_page);
+    tag.setType(type);
+    tag.setName(name);
+    tag.doTag();
+  }
+}
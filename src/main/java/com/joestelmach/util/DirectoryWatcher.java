@@ -0,0 +1,150 @@
+package com.joestelmach.util;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Watches a directory tree for files being added, removed or renamed, and
+ * optionally changed, notifying a listener each time it happens.
+ * Directories created inside the tree are watched as soon as they appear.
+ * The watching is done by a daemon thread, so the listener must be safe to
+ * call from a thread of its own.
+ *
+ * @author Joe Stelmach
+ */
+public class DirectoryWatcher {
+  private Path _root;
+  private Runnable _listener;
+  private WatchEvent.Kind<?>[] _kinds;
+  private WatchService _watchService;
+  private Map<WatchKey, Path> _directories = new HashMap<WatchKey, Path>();
+  private Thread _thread;
+
+  /**
+   * @param root the directory to watch, along with everything below it
+   * @param listener called each time files are added, removed or renamed
+   */
+  public DirectoryWatcher(String root, Runnable listener) {
+    this(root, false, listener);
+  }
+
+  /**
+   * @param root the directory to watch, along with everything below it
+   * @param watchModifications true if changes to the content of existing
+   *        files should be reported as well
+   * @param listener called each time files are added, removed or renamed,
+   *        or modified if asked for
+   */
+  public DirectoryWatcher(String root, boolean watchModifications, Runnable listener) {
+    _root = FileSystems.getDefault().getPath(root);
+    _listener = listener;
+    _kinds = watchModifications ?
+      new WatchEvent.Kind<?>[] {ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY, OVERFLOW} :
+      new WatchEvent.Kind<?>[] {ENTRY_CREATE, ENTRY_DELETE, OVERFLOW};
+  }
+
+  /**
+   * Starts watching the directory tree
+   *
+   * @throws IOException if the tree can't be watched
+   */
+  public synchronized void start() throws IOException {
+    _watchService = _root.getFileSystem().newWatchService();
+    register(_root);
+
+    _thread = new Thread(new Runnable() {
+      public void run() {
+        watch();
+      }
+    }, "zipper-directory-watcher");
+    _thread.setDaemon(true);
+    _thread.start();
+  }
+
+  /**
+   * Stops watching the directory tree
+   */
+  public synchronized void stop() {
+    try {
+      if(_watchService != null) _watchService.close();
+
+    } catch(IOException e) {
+      // nothing left to do with it
+    }
+  }
+
+  /**
+   * Waits for changes to the tree, notifying the listener once for each
+   * batch of changes, until the watcher is stopped
+   */
+  private void watch() {
+    while(true) {
+      WatchKey key;
+      try {
+        key = _watchService.take();
+
+      } catch(InterruptedException e) {
+        return;
+
+      } catch(ClosedWatchServiceException e) {
+        return;
+      }
+
+      Path directory = _directories.get(key);
+      boolean changed = false;
+      for(WatchEvent<?> event:key.pollEvents()) {
+        changed = true;
+        if(event.kind() == ENTRY_CREATE && directory != null) {
+          Path path = directory.resolve((Path) event.context());
+          if(Files.isDirectory(path)) {
+            try {
+              register(path);
+
+            } catch(IOException e) {
+              // the directory is gone again, or can't be read
+              
+            } catch(ClosedWatchServiceException e) {
+              return;
+            }
+          }
+        }
+      }
+
+      if(!key.reset()) _directories.remove(key);
+      if(changed) _listener.run();
+    }
+  }
+
+  /**
+   * Watches the given directory and every directory below it
+   *
+   * @param start
+   * @throws IOException
+   */
+  private void register(Path start) throws IOException {
+    Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+      public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+          throws IOException {
+
+        _directories.put(directory.register(_watchService, _kinds), directory);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
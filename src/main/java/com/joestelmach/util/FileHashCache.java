@@ -0,0 +1,57 @@
+package com.joestelmach.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the content hash of each file it's asked about, along with the
+ * size and modification time the hash was computed at.  A file is only
+ * read again once either of those changes.  Instances may be used by several
+ * threads at once.
+ *
+ * @author Joe Stelmach
+ */
+public class FileHashCache {
+  private Map<String, FileHash> _hashes = new ConcurrentHashMap<String, FileHash>();
+
+  /**
+   * @param file
+   * @return the hex digest of the given file's content
+   * @throws IOException
+   */
+  public String hash(File file) throws IOException {
+    String key = file.getAbsolutePath();
+    FileHash hash = _hashes.get(key);
+    if(hash == null || !hash.isCurrent(file)) {
+      hash = new FileHash(file);
+      _hashes.put(key, hash);
+    }
+    return hash.getHash();
+  }
+
+  /**
+   * The content hash of a file, remembered along with the size and
+   * modification time it was computed at
+   */
+  private static class FileHash {
+    private String _hash;
+    private long _lastModified;
+    private long _length;
+
+    FileHash(File file) throws IOException {
+      _lastModified = file.lastModified();
+      _length = file.length();
+      _hash = Hasher.hash(file);
+    }
+
+    boolean isCurrent(File file) {
+      return file.lastModified() == _lastModified && file.length() == _length;
+    }
+
+    String getHash() {
+      return _hash;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package com.joestelmach.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.codehaus.plexus.util.AbstractScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * The path of every file below a directory, gathered in a single walk of the
+ * tree so that any number of ant patterns can be matched against it without
+ * touching the filesystem again.  Sub-directories are walked in parallel, and
+ * the default excludes (version control directories, editor backups and the
+ * like) are left out just as a DirectoryScanner would leave them out.
+ *
+ * Paths are kept sorted, so searches return their matches in the same order
+ * every time.  An index describes the tree as it was when it was built, and
+ * can't be changed, so it may be shared between threads.
+ *
+ * @author Joe Stelmach
+ */
+public class FileIndex {
+  private static final char SEPARATOR = File.separatorChar;
+  private static final List<String> EXCLUDED_DIRECTORIES = new ArrayList<String>();
+  private static final List<String> EXCLUDED_FILES = new ArrayList<String>();
+  private static ForkJoinPool _pool;
+
+  private File _root;
+  private String[] _paths;
+
+  /**
+   * Splits the default excludes into the names of directories that can be
+   * skipped entirely, and the names of files to be left out
+   */
+  static {
+    for(String exclude:AbstractScanner.DEFAULTEXCLUDES) {
+      if(!exclude.startsWith("**/")) continue;
+      String name = exclude.substring(3);
+      if(name.endsWith("/**")) {
+        EXCLUDED_DIRECTORIES.add(name.substring(0, name.length() - 3));
+      }
+      else if(name.indexOf('/') < 0) {
+        EXCLUDED_FILES.add(name);
+      }
+    }
+  }
+
+  /**
+   * Walks the given directory, indexing every file below it
+   *
+   * @param root
+   */
+  public FileIndex(File root) {
+    _root = root;
+    List<String> paths = root.isDirectory() ?
+        getPool().invoke(new DirectoryWalk(root, "")) : new ArrayList<String>();
+    _paths = paths.toArray(new String[paths.size()]);
+    Arrays.sort(_paths);
+  }
+
+  /**
+   * @return the directory this index was built from
+   */
+  public File getRoot() {
+    return _root;
+  }
+
+  /**
+   * @return the number of files in the index
+   */
+  public int size() {
+    return _paths.length;
+  }
+
+  /**
+   * Finds the files matching the given pattern, relative to the given
+   * directory inside the index
+   *
+   * @param pattern an ant pattern, relative to the given directory
+   * @param directory the path of a directory inside the index, relative to
+   *        the index's root, or the empty string for the root itself
+   * @return the path of each matching file relative to the given directory,
+   *         in sorted order
+   */
+  public List<String> search(String pattern, String directory) {
+    pattern = pattern.replace('/', SEPARATOR).replace('\\', SEPARATOR);
+    if(pattern.length() > 0 && pattern.charAt(0) == SEPARATOR) pattern = pattern.substring(1);
+    if(pattern.length() > 0 && pattern.charAt(pattern.length() - 1) == SEPARATOR) pattern += "**";
+
+    // the directories leading up to the pattern's first wildcard narrow the
+    // search down to a single run of the sorted paths
+    String prefix = directory.length() > 0 ? directory.replace('/', SEPARATOR) + SEPARATOR : "";
+    int wildcard = indexOfWildcard(pattern);
+    int literalEnd = pattern.lastIndexOf(SEPARATOR, wildcard < 0 ? pattern.length() : wildcard);
+    String searchPrefix = prefix + (literalEnd >= 0 ? pattern.substring(0, literalEnd + 1) : "");
+
+    List<String> matches = new ArrayList<String>();
+    for(int i = lowerBound(searchPrefix); i < _paths.length && _paths[i].startsWith(searchPrefix); i++) {
+      String path = _paths[i].substring(prefix.length());
+      if(SelectorUtils.matchPath(pattern, path, true)) matches.add(path);
+    }
+    return matches;
+  }
+
+  /**
+   * @param prefix
+   * @return the index of the first path that sorts at or after the given prefix
+   */
+  private int lowerBound(String prefix) {
+    int index = Arrays.binarySearch(_paths, prefix);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  /**
+   * @param pattern
+   * @return the index of the pattern's first wildcard, or -1 if it has none
+   */
+  private static int indexOfWildcard(String pattern) {
+    for(int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if(c == '*' || c == '?') return i;
+    }
+    return -1;
+  }
+
+  /**
+   * @param name
+   * @param patterns
+   * @return true if the given file name matches any of the given patterns
+   */
+  private static boolean matchesAny(String name, List<String> patterns) {
+    for(String pattern:patterns) {
+      if(SelectorUtils.match(pattern, name, true)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the pool walking directories, created the first time it's needed
+   */
+  private static synchronized ForkJoinPool getPool() {
+    if(_pool == null) _pool = new ForkJoinPool();
+    return _pool;
+  }
+
+  /**
+   * Lists a single directory, walking each of its sub-directories as a
+   * task of its own
+   */
+  private static class DirectoryWalk extends RecursiveTask<List<String>> {
+    private static final long serialVersionUID = 1L;
+    private File _directory;
+    private String _path;
+
+    /**
+     * @param directory
+     * @param path the directory's path relative to the index's root
+     */
+    DirectoryWalk(File directory, String path) {
+      _directory = directory;
+      _path = path;
+    }
+
+    protected List<String> compute() {
+      List<String> paths = new ArrayList<String>();
+      File[] files = _directory.listFiles();
+      if(files == null) return paths;
+
+      List<DirectoryWalk> walks = new ArrayList<DirectoryWalk>();
+      for(File file:files) {
+        String name = file.getName();
+        if(file.isDirectory()) {
+          if(!matchesAny(name, EXCLUDED_DIRECTORIES)) {
+            walks.add(new DirectoryWalk(file, _path + name + SEPARATOR));
+          }
+        }
+        else if(!matchesAny(name, EXCLUDED_FILES)) {
+          paths.add(_path + name);
+        }
+      }
+
+      invokeAll(walks);
+      for(DirectoryWalk walk:walks) paths.addAll(walk.join());
+      return paths;
+    }
+  }
+}
@@ -1,42 +1,81 @@
 package com.joestelmach.util;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
-import org.codehaus.plexus.util.DirectoryScanner;
+import java.util.Map;
 
 /**
  * Locates files using standard ant patterns
  * http://ant.apache.org/manual/dirtasks.html#patterns
- * 
+ *
+ * Each directory tree is walked once, the first time it's searched, and
+ * later searches of the same tree, or of any directory inside it, are matched
+ * against the resulting index.  Searches see the tree as it was when it was
+ * first walked, until the searcher is cleared.
+ *
  * @author Joe Stelmach
  */
 public class FileSearcher {
-  
+  private Map<Path, FileIndex> _indexes = new HashMap<Path, FileIndex>();
+
   /**
    * Searches for files with the given pattern, starting in the given base directory,
-   * and returns a list of absolute paths to matching files.
-   *  
+   * and returns a list of absolute paths to matching files, in sorted order.
+   *
    * @param pattern
    * @param basePath
    * @return
    */
   public List<String> search(String pattern, String basePath) {
     File baseDir = new File(basePath);
-    
+
+    pattern = pattern.replace('\\', '/');
     if(pattern.startsWith("/")) pattern = pattern.substring(1);
-    
-    DirectoryScanner scanner = new DirectoryScanner();
-    scanner.setBasedir(baseDir);
-    scanner.setIncludes(new String[]{pattern});
-    scanner.addDefaultExcludes();
-    scanner.scan();
-    
+    if(pattern.endsWith("/")) pattern += "**";
+
+    // only the directory named by the pattern's leading literal segments
+    // needs to be walked, so a pattern like externs/*.js doesn't index the
+    // whole base directory
+    int wildcard = pattern.length();
+    for(int i = 0; i < pattern.length() && wildcard == pattern.length(); i++) {
+      if(pattern.charAt(i) == '*' || pattern.charAt(i) == '?') wildcard = i;
+    }
+    String literalDir = pattern.substring(0, pattern.lastIndexOf('/', wildcard) + 1);
+
+    Path searchDir = new File(baseDir, literalDir).toPath().toAbsolutePath().normalize();
+    FileIndex index = getIndex(searchDir);
+    String directory = index.getRoot().toPath().relativize(searchDir).toString();
+
     List<String> fileNames = new ArrayList<String>();
-    for(String fileName:scanner.getIncludedFiles() ) {
-      fileNames.add(baseDir + "/" + fileName);
+    for(String fileName:index.search(pattern.substring(literalDir.length()), directory)) {
+      fileNames.add(baseDir + "/" + literalDir + fileName);
     }
     return fileNames;
   }
+
+  /**
+   * Forgets every tree walked so far, so the next search of each walks it again
+   */
+  public synchronized void clear() {
+    _indexes.clear();
+  }
+
+  /**
+   * @param directory an absolute, normalized directory path
+   * @return an index covering the given directory, walking the directory
+   *         if no tree walked so far contains it
+   */
+  private synchronized FileIndex getIndex(Path directory) {
+    for(Path path = directory; path != null; path = path.getParent()) {
+      FileIndex index = _indexes.get(path);
+      if(index != null) return index;
+    }
+
+    FileIndex index = new FileIndex(directory.toFile());
+    _indexes.put(directory, index);
+    return index;
+  }
 }
@@ -0,0 +1,215 @@
+package com.joestelmach.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+
+/**
+ * Computes hex-encoded SHA-1 digests of files, strings and byte arrays.
+ *
+ * @author Joe Stelmach
+ */
+public class Hasher {
+  private static final String ALGORITHM = "SHA-1";
+  private static final String ENCODING = "UTF-8";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final int BUFFER_SIZE = 8192;
+  private static final Pattern POM_PROPERTIES = Pattern.compile("META-INF/maven/[^/]+/[^/]+/pom\\.properties");
+
+  private static ConcurrentMap<String, String> _versions = new ConcurrentHashMap<String, String>();
+
+  /**
+   * @param file
+   * @return the hex digest of the given file's content
+   * @throws IOException
+   */
+  public static String hash(File file) throws IOException {
+    MessageDigest digest = newDigest();
+    InputStream input = null;
+    try {
+      input = new BufferedInputStream(new FileInputStream(file));
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while((read = input.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+
+    } finally {
+      if(input != null) input.close();
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * @param bytes
+   * @return the hex digest of the given bytes
+   */
+  public static String hash(byte[] bytes) {
+    return toHex(newDigest().digest(bytes));
+  }
+
+  /**
+   * @param value
+   * @return the hex digest of the given string's UTF-8 encoding
+   */
+  public static String hash(String value) {
+    try {
+      return hash(value.getBytes(ENCODING));
+
+    } catch(UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Creates a version token for the library containing the given class.
+   * Most of the libraries we depend on don't publish an implementation
+   * version in their jar manifest, so we fall back to the maven coordinates
+   * recorded in the jar, and for a jar without any, to a hash of the name,
+   * size and checksum of each of the jar's entries, which stands in for a
+   * hash of its content without reading it all.  Classes outside a jar are identified by a hash of their own
+   * class file.  The token never depends on where the library is, so it can
+   * be used in keys shared between machines.  Each library's token is only
+   * worked out once.
+   *
+   * @param type
+   * @return
+   */
+  public static String version(Class<?> type) {
+    Package pkg = type.getPackage();
+    if(pkg != null && pkg.getImplementationVersion() != null) {
+      return pkg.getImplementationVersion();
+    }
+    CodeSource source = type.getProtectionDomain().getCodeSource();
+    URL location = source != null ? source.getLocation() : null;
+    if(location == null) return type.getName();
+
+    String key = location + "!" + type.getName();
+    String version = _versions.get(key);
+    if(version == null) {
+      version = findVersion(type, location);
+      _versions.putIfAbsent(key, version);
+    }
+    return version;
+  }
+
+  /**
+   * @param type
+   * @param location the location the given class was loaded from
+   * @return the coordinates of every maven artifact in the jar at the given
+   *         location, or a hash of the jar's entries or the class file if 
+   *         there are none
+   */
+  private static String findVersion(Class<?> type, URL location) {
+    try {
+      File file = new File(location.toURI());
+      if(!file.isFile()) {
+        InputStream input = type.getResourceAsStream(type.getSimpleName() + ".class");
+        if(input == null) return type.getName();
+        try {
+          return type.getName() + "@" + hash(readAll(input));
+
+        } finally {
+          input.close();
+        }
+      }
+
+      List<String> coordinates = new ArrayList<String>();
+      StringBuilder contents = new StringBuilder();
+      JarFile jar = new JarFile(file);
+      try {
+        Enumeration<JarEntry> entries = jar.entries();
+        while(entries.hasMoreElements()) {
+          JarEntry entry = entries.nextElement();
+          contents.append(entry.getName()).append(':').append(entry.getSize()).append(':')
+            .append(entry.getCrc()).append(';');
+          if(!POM_PROPERTIES.matcher(entry.getName()).matches()) continue;
+
+          Properties properties = new Properties();
+          InputStream input = jar.getInputStream(entry);
+          try {
+            properties.load(input);
+
+          } finally {
+            input.close();
+          }
+          coordinates.add(properties.getProperty("groupId") + ":" + properties.getProperty("artifactId") +
+            ":" + properties.getProperty("version"));
+        }
+
+      } finally {
+        jar.close();
+      }
+
+      if(coordinates.isEmpty()) return hash(contents.toString());
+      Collections.sort(coordinates);
+      StringBuilder version = new StringBuilder();
+      for(String coordinate:coordinates) {
+        if(version.length() > 0) version.append(',');
+        version.append(coordinate);
+      }
+      return version.toString();
+
+    } catch(Exception e) {
+      return type.getName();
+    }
+  }
+
+  /**
+   * @param input
+   * @return everything left in the given stream
+   * @throws IOException
+   */
+  private static byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while((read = input.read(buffer)) != -1) {
+      output.write(buffer, 0, read);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * @return a new message digest
+   */
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+
+    } catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param bytes
+   * @return
+   */
+  private static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for(int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,713 @@
+package com.joestelmach.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+
+/**
+ * A slow, thorough deflate encoder in the spirit of zopfli.  Rather than
+ * choosing matches greedily like zlib, it finds the cheapest sequence of
+ * literals and matches for each block using a cost model, then refines the
+ * cost model from the symbol statistics of the previous pass and parses
+ * again, keeping the smallest result.  The output is a standard deflate
+ * stream (or gzip file) that any decoder can read, typically a few percent
+ * smaller than zlib's best compression, at many times the cost.
+ *
+ * @author Joe Stelmach
+ */
+public class OptimalDeflater {
+  private static final int WINDOW_SIZE = 32768;
+  private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+  private static final int MAX_DISTANCE = WINDOW_SIZE - 1;
+  private static final int MIN_MATCH = 3;
+  private static final int MAX_MATCH = 258;
+  private static final int HASH_BITS = 15;
+  private static final int HASH_MASK = (1 << HASH_BITS) - 1;
+  private static final int MAX_CHAIN = 4096;
+  private static final int MAX_MATCHES_PER_POSITION = 8;
+  private static final int BLOCK_SIZE = 1 << 20;
+  private static final int MAX_STORED_SIZE = 65535;
+
+  private static final int END_OF_BLOCK = 256;
+  private static final int LITERAL_LENGTH_CODES = 286;
+  private static final int DISTANCE_CODES = 30;
+  private static final int CODE_LENGTH_CODES = 19;
+  private static final int MAX_BITS = 15;
+  private static final int MAX_CODE_LENGTH_BITS = 7;
+
+  private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27,
+    31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+  private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+    3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+  private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97,
+    129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+  private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+    7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+  private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12,
+    3, 13, 2, 14, 1, 15};
+
+  // the length code (0-28) for each match length
+  private static final int[] LENGTH_SYMBOL = new int[MAX_MATCH + 1];
+
+  private static final int[] FIXED_LITERAL_LENGTHS = new int[288];
+  private static final int[] FIXED_DISTANCE_LENGTHS = new int[32];
+
+  static {
+    for(int symbol = 0; symbol < LENGTH_BASE.length; symbol++) {
+      for(int length = LENGTH_BASE[symbol];
+          length < LENGTH_BASE[symbol] + (1 << LENGTH_EXTRA[symbol]) && length <= MAX_MATCH; length++) {
+        LENGTH_SYMBOL[length] = symbol;
+      }
+    }
+    LENGTH_SYMBOL[MAX_MATCH] = LENGTH_BASE.length - 1;
+
+    for(int i = 0; i < 288; i++) {
+      FIXED_LITERAL_LENGTHS[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+    }
+    for(int i = 0; i < 32; i++) {
+      FIXED_DISTANCE_LENGTHS[i] = 5;
+    }
+  }
+
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 2, 0};
+
+  private int _iterations;
+
+  /**
+   * @param iterations the number of times each block is parsed with a
+   *        refined cost model.  More iterations give (slightly) smaller
+   *        output and take proportionally longer.
+   */
+  public OptimalDeflater(int iterations) {
+    _iterations = Math.max(1, iterations);
+  }
+
+  /**
+   * Writes the given data to the given stream as a gzip file
+   *
+   * @param data
+   * @param output
+   * @throws IOException
+   */
+  public void gzip(byte[] data, OutputStream output) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+
+    output.write(GZIP_HEADER);
+    output.write(deflate(data));
+    writeInt(output, (int) crc.getValue());
+    writeInt(output, data.length);
+  }
+
+  /**
+   * @param data
+   * @return the given data as a raw deflate stream
+   */
+  public byte[] deflate(byte[] data) {
+    BitWriter writer = new BitWriter();
+    int[] head = new int[HASH_MASK + 1];
+    int[] prev = new int[WINDOW_SIZE];
+    for(int i = 0; i < head.length; i++) head[i] = -1;
+
+    int start = 0;
+    do {
+      int end = Math.min(data.length, start + BLOCK_SIZE);
+      Block block = new Block(data, start, end);
+      block.findMatches(head, prev);
+      block.parse(_iterations);
+      block.write(writer, end == data.length);
+      start = end;
+    } while(start < data.length);
+
+    return writer.finish();
+  }
+
+  /**
+   * @param output
+   * @param value
+   * @throws IOException
+   */
+  private static void writeInt(OutputStream output, int value) throws IOException {
+    output.write(value & 0xff);
+    output.write((value >>> 8) & 0xff);
+    output.write((value >>> 16) & 0xff);
+    output.write((value >>> 24) & 0xff);
+  }
+
+  /**
+   * A contiguous piece of the input that is parsed and written as a single
+   * deflate block.  Matches may refer back into earlier blocks.
+   */
+  private static class Block {
+    private byte[] _data;
+    private int _start;
+    private int _length;
+
+    // the candidate matches at each position, as pairs of increasing length
+    // and the shortest distance that reaches that length
+    private int[] _matchStart;
+    private int[] _matchLengths;
+    private int[] _matchDistances;
+
+    // the chosen parse: a length of 1 with a distance of 0 is a literal
+    private int[] _lengths;
+    private int[] _distances;
+    private int _symbols;
+
+    Block(byte[] data, int start, int end) {
+      _data = data;
+      _start = start;
+      _length = end - start;
+    }
+
+    /**
+     * Walks the hash chains to find every useful match at each position in
+     * the block, updating the given chains as it goes
+     */
+    void findMatches(int[] head, int[] prev) {
+      _matchStart = new int[_length + 1];
+      int[] lengths = new int[_length];
+      int[] distances = new int[_length];
+      int count = 0;
+
+      int[] foundLengths = new int[MAX_MATCH + 1];
+      int[] foundDistances = new int[MAX_MATCH + 1];
+
+      for(int i = 0; i < _length; i++) {
+        int position = _start + i;
+        _matchStart[i] = count;
+        if(position + MIN_MATCH > _start + _length) continue;
+
+        int hash = hash(position);
+        int maxLength = Math.min(MAX_MATCH, _length - i);
+        int bestLength = MIN_MATCH - 1;
+        int found = 0;
+        int candidate = head[hash];
+        for(int chain = 0; candidate >= 0 && chain < MAX_CHAIN; chain++) {
+          int distance = position - candidate;
+          if(distance > MAX_DISTANCE || distance <= 0) break;
+
+          if(_data[candidate + bestLength] == _data[position + bestLength]) {
+            int length = 0;
+            while(length < maxLength && _data[candidate + length] == _data[position + length]) {
+              length++;
+            }
+            if(length > bestLength) {
+              foundLengths[found] = length;
+              foundDistances[found] = distance;
+              found++;
+              bestLength = length;
+              if(length == maxLength) break;
+            }
+          }
+
+          int next = prev[candidate & WINDOW_MASK];
+          if(next >= candidate) break;
+          candidate = next;
+        }
+        prev[position & WINDOW_MASK] = head[hash];
+        head[hash] = position;
+
+        // a longer match also covers every shorter length, so dropping the
+        // shortest matches is always safe
+        int first = Math.max(0, found - MAX_MATCHES_PER_POSITION);
+        if(count + found - first > lengths.length) {
+          lengths = grow(lengths, count + found);
+          distances = grow(distances, count + found);
+        }
+        for(int k = first; k < found; k++) {
+          lengths[count] = foundLengths[k];
+          distances[count] = foundDistances[k];
+          count++;
+        }
+      }
+      _matchStart[_length] = count;
+      _matchLengths = lengths;
+      _matchDistances = distances;
+
+      // positions too close to the end of the block to start a match are
+      // still inserted into the chains so the next block can refer to them
+      for(int position = Math.max(_start, _start + _length - MIN_MATCH + 1);
+          position < _start + _length; position++) {
+        if(position + MIN_MATCH > _data.length) break;
+        int hash = hash(position);
+        prev[position & WINDOW_MASK] = head[hash];
+        head[hash] = position;
+      }
+    }
+
+    /**
+     * Chooses the cheapest parse of the block, refining the cost model over
+     * the given number of iterations
+     */
+    void parse(int iterations) {
+      float[] literalLengthCosts = new float[LITERAL_LENGTH_CODES];
+      float[] distanceCosts = new float[DISTANCE_CODES];
+
+      // start from the costs of the fixed huffman codes
+      for(int i = 0; i < LITERAL_LENGTH_CODES; i++) literalLengthCosts[i] = FIXED_LITERAL_LENGTHS[i];
+      for(int i = 0; i < DISTANCE_CODES; i++) distanceCosts[i] = FIXED_DISTANCE_LENGTHS[i];
+
+      long bestSize = Long.MAX_VALUE;
+      for(int iteration = 0; iteration < iterations; iteration++) {
+        Parse parse = shortestPath(literalLengthCosts, distanceCosts);
+        int[] literalLengthCounts = new int[LITERAL_LENGTH_CODES];
+        int[] distanceCounts = new int[DISTANCE_CODES];
+        count(parse, literalLengthCounts, distanceCounts);
+
+        long size = dataSize(literalLengthCounts, distanceCounts,
+          huffmanLengths(literalLengthCounts, MAX_BITS), huffmanLengths(distanceCounts, MAX_BITS));
+        if(size < bestSize) {
+          bestSize = size;
+          _lengths = parse.lengths;
+          _distances = parse.distances;
+          _symbols = parse.symbols;
+        }
+
+        statisticalCosts(literalLengthCounts, literalLengthCosts);
+        statisticalCosts(distanceCounts, distanceCosts);
+      }
+    }
+
+    /**
+     * Writes the chosen parse as whichever kind of deflate block is smallest
+     */
+    void write(BitWriter writer, boolean last) {
+      int[] literalLengthCounts = new int[LITERAL_LENGTH_CODES];
+      int[] distanceCounts = new int[DISTANCE_CODES];
+      count(new Parse(_lengths, _distances, _symbols), literalLengthCounts, distanceCounts);
+      int[] literalLengths = huffmanLengths(literalLengthCounts, MAX_BITS);
+      int[] distanceLengths = huffmanLengths(distanceCounts, MAX_BITS);
+
+      BitWriter header = new BitWriter();
+      writeDynamicHeader(header, literalLengths, distanceLengths);
+      long dynamicSize = header.bits() + dataSize(literalLengthCounts, distanceCounts, literalLengths, distanceLengths);
+      long fixedSize = dataSize(literalLengthCounts, distanceCounts, FIXED_LITERAL_LENGTHS, FIXED_DISTANCE_LENGTHS);
+      long storedSize = (_length / MAX_STORED_SIZE + 1) * 40L + _length * 8L;
+
+      if(storedSize < dynamicSize && storedSize < fixedSize) {
+        writeStored(writer, last);
+      }
+      else if(fixedSize <= dynamicSize) {
+        writer.writeBits(last ? 1 : 0, 1);
+        writer.writeBits(1, 2);
+        writeData(writer, FIXED_LITERAL_LENGTHS, FIXED_DISTANCE_LENGTHS);
+      }
+      else {
+        writer.writeBits(last ? 1 : 0, 1);
+        writer.writeBits(2, 2);
+        writeDynamicHeader(writer, literalLengths, distanceLengths);
+        writeData(writer, literalLengths, distanceLengths);
+      }
+    }
+
+    /**
+     * Counts the literal/length and distance symbols of the given parse
+     */
+    private void count(Parse parse, int[] literalLengthCounts, int[] distanceCounts) {
+      literalLengthCounts[END_OF_BLOCK]++;
+      int position = _start;
+      for(int i = 0; i < parse.symbols; i++) {
+        if(parse.distances[i] == 0) {
+          literalLengthCounts[_data[position] & 0xff]++;
+        }
+        else {
+          literalLengthCounts[257 + LENGTH_SYMBOL[parse.lengths[i]]]++;
+          distanceCounts[distanceSymbol(parse.distances[i])]++;
+        }
+        position += parse.lengths[i];
+      }
+    }
+    
+    /**
+     * Finds the cheapest parse of the block under the given costs
+     */
+    private Parse shortestPath(float[] literalLengthCosts, float[] distanceCosts) {
+      float[] costs = new float[_length + 1];
+      int[] lengthTo = new int[_length + 1];
+      int[] distanceTo = new int[_length + 1];
+      for(int i = 1; i <= _length; i++) costs[i] = Float.MAX_VALUE;
+
+      float[] matchLengthCosts = new float[MAX_MATCH + 1];
+      for(int length = MIN_MATCH; length <= MAX_MATCH; length++) {
+        int symbol = LENGTH_SYMBOL[length];
+        matchLengthCosts[length] = literalLengthCosts[257 + symbol] + LENGTH_EXTRA[symbol];
+      }
+
+      for(int i = 0; i < _length; i++) {
+        float cost = costs[i];
+        float literalCost = cost + literalLengthCosts[_data[_start + i] & 0xff];
+        if(literalCost < costs[i + 1]) {
+          costs[i + 1] = literalCost;
+          lengthTo[i + 1] = 1;
+          distanceTo[i + 1] = 0;
+        }
+
+        int shorterLength = MIN_MATCH - 1;
+        for(int k = _matchStart[i]; k < _matchStart[i + 1]; k++) {
+          int distance = _matchDistances[k];
+          int distanceSymbol = distanceSymbol(distance);
+          float matchCost = cost + distanceCosts[distanceSymbol] + DISTANCE_EXTRA[distanceSymbol];
+          for(int length = shorterLength + 1; length <= _matchLengths[k]; length++) {
+            float lengthCost = matchCost + matchLengthCosts[length];
+            if(lengthCost < costs[i + length]) {
+              costs[i + length] = lengthCost;
+              lengthTo[i + length] = length;
+              distanceTo[i + length] = distance;
+            }
+          }
+          shorterLength = _matchLengths[k];
+        }
+      }
+
+      // walk back from the end to recover the chosen symbols
+      int symbols = 0;
+      for(int i = _length; i > 0; i -= lengthTo[i]) symbols++;
+      int[] lengths = new int[symbols];
+      int[] distances = new int[symbols];
+      int index = symbols;
+      for(int i = _length; i > 0; i -= lengthTo[i]) {
+        index--;
+        lengths[index] = lengthTo[i];
+        distances[index] = distanceTo[i];
+      }
+      return new Parse(lengths, distances, symbols);
+    }
+
+    /**
+     * Sets each symbol's cost to the number of bits an ideal entropy coder
+     * would spend on it, given the symbol counts of the previous parse
+     */
+    private void statisticalCosts(int[] counts, float[] costs) {
+      long total = 0;
+      for(int count:counts) total += count;
+      double log2Total = total > 0 ? Math.log(total) / Math.log(2) : 0;
+      for(int i = 0; i < counts.length; i++) {
+        costs[i] = (float) (counts[i] == 0 ? log2Total + 1 :
+          log2Total - Math.log(counts[i]) / Math.log(2));
+      }
+    }
+
+    /**
+     * @return the number of bits the block's symbols take under the given code lengths
+     */
+    private long dataSize(int[] literalLengthCounts, int[] distanceCounts,
+        int[] literalLengths, int[] distanceLengths) {
+
+      long bits = 0;
+      for(int i = 0; i < LITERAL_LENGTH_CODES; i++) {
+        bits += (long) literalLengthCounts[i] * literalLengths[i];
+        if(i > END_OF_BLOCK) bits += (long) literalLengthCounts[i] * LENGTH_EXTRA[i - 257];
+      }
+      for(int i = 0; i < DISTANCE_CODES; i++) {
+        bits += (long) distanceCounts[i] * (distanceLengths[i] + DISTANCE_EXTRA[i]);
+      }
+      return bits;
+    }
+
+    /**
+     * Writes the block's symbols, followed by the end of block marker
+     */
+    private void writeData(BitWriter writer, int[] literalLengths, int[] distanceLengths) {
+      int[] literalCodes = huffmanCodes(literalLengths);
+      int[] distanceCodes = huffmanCodes(distanceLengths);
+      int position = _start;
+      for(int i = 0; i < _symbols; i++) {
+        int length = _lengths[i];
+        int distance = _distances[i];
+        if(distance == 0) {
+          int literal = _data[position] & 0xff;
+          writer.writeBits(literalCodes[literal], literalLengths[literal]);
+        }
+        else {
+          int lengthSymbol = LENGTH_SYMBOL[length];
+          writer.writeBits(literalCodes[257 + lengthSymbol], literalLengths[257 + lengthSymbol]);
+          writer.writeBits(length - LENGTH_BASE[lengthSymbol], LENGTH_EXTRA[lengthSymbol]);
+          int distanceSymbol = distanceSymbol(distance);
+          writer.writeBits(distanceCodes[distanceSymbol], distanceLengths[distanceSymbol]);
+          writer.writeBits(distance - DISTANCE_BASE[distanceSymbol], DISTANCE_EXTRA[distanceSymbol]);
+        }
+        position += length;
+      }
+      writer.writeBits(literalCodes[END_OF_BLOCK], literalLengths[END_OF_BLOCK]);
+    }
+
+    /**
+     * Writes the block uncompressed, split into as many stored blocks as needed
+     */
+    private void writeStored(BitWriter writer, boolean last) {
+      int offset = 0;
+      do {
+        int size = Math.min(MAX_STORED_SIZE, _length - offset);
+        boolean lastStored = last && offset + size == _length;
+        writer.writeBits(lastStored ? 1 : 0, 1);
+        writer.writeBits(0, 2);
+        writer.alignToByte();
+        writer.writeBits(size, 16);
+        writer.writeBits(~size & 0xffff, 16);
+        for(int i = 0; i < size; i++) {
+          writer.writeBits(_data[_start + offset + i] & 0xff, 8);
+        }
+        offset += size;
+      } while(offset < _length);
+    }
+
+    /**
+     * Writes the code lengths of a dynamic block, run length encoded and
+     * themselves huffman coded
+     */
+    private void writeDynamicHeader(BitWriter writer, int[] literalLengths, int[] distanceLengths) {
+      int literalCount = LITERAL_LENGTH_CODES;
+      while(literalCount > 257 && literalLengths[literalCount - 1] == 0) literalCount--;
+      int distanceCount = DISTANCE_CODES;
+      while(distanceCount > 1 && distanceLengths[distanceCount - 1] == 0) distanceCount--;
+
+      int[] lengths = new int[literalCount + distanceCount];
+      System.arraycopy(literalLengths, 0, lengths, 0, literalCount);
+      System.arraycopy(distanceLengths, 0, lengths, literalCount, distanceCount);
+
+      // run length encode the lengths into code length symbols and their extra bits
+      int[] symbols = new int[lengths.length];
+      int[] extras = new int[lengths.length];
+      int count = 0;
+      int i = 0;
+      while(i < lengths.length) {
+        int value = lengths[i];
+        int run = 1;
+        while(i + run < lengths.length && lengths[i + run] == value) run++;
+        i += run;
+
+        if(value == 0) {
+          while(run >= 11) {
+            int repeat = Math.min(run, 138);
+            symbols[count] = 18; extras[count++] = repeat - 11;
+            run -= repeat;
+          }
+          if(run >= 3) {
+            symbols[count] = 17; extras[count++] = run - 3;
+            run = 0;
+          }
+        }
+        else {
+          symbols[count++] = value;
+          run--;
+          while(run >= 3) {
+            int repeat = Math.min(run, 6);
+            symbols[count] = 16; extras[count++] = repeat - 3;
+            run -= repeat;
+          }
+        }
+        while(run > 0) {
+          symbols[count++] = value;
+          run--;
+        }
+      }
+
+      int[] codeLengthCounts = new int[CODE_LENGTH_CODES];
+      for(int k = 0; k < count; k++) codeLengthCounts[symbols[k]]++;
+      int[] codeLengthLengths = huffmanLengths(codeLengthCounts, MAX_CODE_LENGTH_BITS);
+      int[] codeLengthCodes = huffmanCodes(codeLengthLengths);
+
+      int codeLengthCount = CODE_LENGTH_CODES;
+      while(codeLengthCount > 4 && codeLengthLengths[CODE_LENGTH_ORDER[codeLengthCount - 1]] == 0) {
+        codeLengthCount--;
+      }
+
+      writer.writeBits(literalCount - 257, 5);
+      writer.writeBits(distanceCount - 1, 5);
+      writer.writeBits(codeLengthCount - 4, 4);
+      for(int k = 0; k < codeLengthCount; k++) {
+        writer.writeBits(codeLengthLengths[CODE_LENGTH_ORDER[k]], 3);
+      }
+      for(int k = 0; k < count; k++) {
+        int symbol = symbols[k];
+        writer.writeBits(codeLengthCodes[symbol], codeLengthLengths[symbol]);
+        if(symbol == 16) writer.writeBits(extras[k], 2);
+        else if(symbol == 17) writer.writeBits(extras[k], 3);
+        else if(symbol == 18) writer.writeBits(extras[k], 7);
+      }
+    }
+
+    private int hash(int position) {
+      return ((_data[position] & 0xff) << 10 ^ (_data[position + 1] & 0xff) << 5 ^
+        (_data[position + 2] & 0xff)) & HASH_MASK;
+    }
+  }
+
+  /**
+   * A sequence of literals and matches covering a block
+   */
+  private static class Parse {
+    int[] lengths;
+    int[] distances;
+    int symbols;
+
+    Parse(int[] lengths, int[] distances, int symbols) {
+      this.lengths = lengths;
+      this.distances = distances;
+      this.symbols = symbols;
+    }
+  }
+
+  /**
+   * @param distance
+   * @return the distance code (0-29) for the given match distance
+   */
+  private static int distanceSymbol(int distance) {
+    int low = 0;
+    int high = DISTANCE_BASE.length - 1;
+    while(low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if(DISTANCE_BASE[middle] <= distance) low = middle;
+      else high = middle - 1;
+    }
+    return low;
+  }
+
+  /**
+   * Builds huffman code lengths for the given symbol counts, no longer than
+   * the given number of bits.  When the optimal code is too deep, the counts
+   * are flattened and the code rebuilt until it fits.  The resulting code is
+   * always complete, as some decoders reject incomplete codes.
+   *
+   * @param counts
+   * @param maxBits
+   * @return
+   */
+  static int[] huffmanLengths(int[] counts, int maxBits) {
+    int[] lengths = new int[counts.length];
+    int used = 0;
+    int lastUsed = -1;
+    for(int i = 0; i < counts.length; i++) {
+      if(counts[i] > 0) {
+        used++;
+        lastUsed = i;
+      }
+    }
+
+    // a complete code needs at least two symbols
+    if(used < 2) {
+      int other = lastUsed == 0 ? 1 : 0;
+      if(lastUsed >= 0) lengths[lastUsed] = 1;
+      else lengths[1] = 1;
+      lengths[other] = 1;
+      return lengths;
+    }
+
+    long[] weights = new long[counts.length];
+    for(int i = 0; i < counts.length; i++) weights[i] = counts[i];
+
+    while(true) {
+      int nodes = counts.length;
+      int[] parent = new int[counts.length * 2];
+      PriorityQueue<long[]> queue = new PriorityQueue<long[]>(counts.length, new Comparator<long[]>() {
+        public int compare(long[] first, long[] second) {
+          if(first[0] != second[0]) return first[0] < second[0] ? -1 : 1;
+          return first[1] < second[1] ? -1 : first[1] > second[1] ? 1 : 0;
+        }
+      });
+      for(int i = 0; i < counts.length; i++) {
+        if(weights[i] > 0) queue.add(new long[]{weights[i], i});
+      }
+      while(queue.size() > 1) {
+        long[] first = queue.poll();
+        long[] second = queue.poll();
+        parent[(int) first[1]] = nodes;
+        parent[(int) second[1]] = nodes;
+        queue.add(new long[]{first[0] + second[0], nodes});
+        nodes++;
+      }
+      int root = nodes - 1;
+
+      // internal nodes are created after their children, so we can find
+      // depths by walking down from the root
+      int[] depth = new int[nodes];
+      for(int node = root - 1; node >= counts.length; node--) {
+        depth[node] = depth[parent[node]] + 1;
+      }
+      int maxDepth = 0;
+      for(int i = 0; i < counts.length; i++) {
+        lengths[i] = weights[i] > 0 ? depth[parent[i]] + 1 : 0;
+        maxDepth = Math.max(maxDepth, lengths[i]);
+      }
+      if(maxDepth <= maxBits) return lengths;
+
+      for(int i = 0; i < counts.length; i++) {
+        if(weights[i] > 0) weights[i] = (weights[i] >> 1) + 1;
+      }
+    }
+  }
+
+  /**
+   * @param lengths
+   * @return the canonical huffman code for each symbol with the given code
+   *         lengths, bit reversed for writing least significant bit first
+   */
+  static int[] huffmanCodes(int[] lengths) {
+    int[] lengthCounts = new int[MAX_BITS + 1];
+    for(int length:lengths) if(length > 0) lengthCounts[length]++;
+
+    int[] nextCode = new int[MAX_BITS + 1];
+    int code = 0;
+    for(int bits = 1; bits <= MAX_BITS; bits++) {
+      code = (code + lengthCounts[bits - 1]) << 1;
+      nextCode[bits] = code;
+    }
+
+    int[] codes = new int[lengths.length];
+    for(int i = 0; i < lengths.length; i++) {
+      if(lengths[i] > 0) codes[i] = reverse(nextCode[lengths[i]]++, lengths[i]);
+    }
+    return codes;
+  }
+
+  private static int reverse(int code, int length) {
+    int reversed = 0;
+    for(int i = 0; i < length; i++) {
+      reversed = (reversed << 1) | (code & 1);
+      code >>>= 1;
+    }
+    return reversed;
+  }
+
+  private static int[] grow(int[] array, int minimum) {
+    int[] grown = new int[Math.max(minimum, array.length * 2)];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+
+  /**
+   * Writes bits least significant bit first, as deflate expects
+   */
+  private static class BitWriter {
+    private ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+    private int _buffer;
+    private int _count;
+
+    void writeBits(int value, int bits) {
+      _buffer |= (value & ((1 << bits) - 1)) << _count;
+      _count += bits;
+      while(_count >= 8) {
+        _bytes.write(_buffer & 0xff);
+        _buffer >>>= 8;
+        _count -= 8;
+      }
+    }
+
+    void alignToByte() {
+      if(_count > 0) writeBits(0, 8 - _count);
+    }
+
+    long bits() {
+      return _bytes.size() * 8L + _count;
+    }
+
+    byte[] finish() {
+      alignToByte();
+      return _bytes.toByteArray();
+    }
+  }
+}
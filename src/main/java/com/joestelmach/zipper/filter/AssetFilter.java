@@ -0,0 +1,368 @@
+package com.joestelmach.zipper.filter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import com.joestelmach.util.Hasher;
+import com.joestelmach.zipper.plugin.ConfigKey;
+
+/**
+ * Serves the files written by the plugin, preferring the gzipped copy
+ * written alongside a file when the client accepts gzip, so the container
+ * doesn't compress the same bytes again for every request.  Responses carry
+ * a strong ETag taken from the content, and conditional requests that still
+ * match are answered with 304.  Requests for anything that isn't a file
+ * under the web root are passed along the chain.
+ *
+ * The open channel and metadata of each file are kept between requests, and
+ * the file is only checked for changes once every CHECK_INTERVAL
+ * milliseconds, so serving a hot asset doesn't touch the filesystem beyond
+ * reading its bytes.  Bodies are handed to the container's sendfile support
+ * when it has any, and are otherwise transferred straight from the channel.
+ *
+ * Map it to the output directory in web.xml:
+ * <pre>
+ * &lt;filter&gt;
+ *   &lt;filter-name&gt;zipper&lt;/filter-name&gt;
+ *   &lt;filter-class&gt;com.joestelmach.zipper.filter.AssetFilter&lt;/filter-class&gt;
+ * &lt;/filter&gt;
+ * &lt;filter-mapping&gt;
+ *   &lt;filter-name&gt;zipper&lt;/filter-name&gt;
+ *   &lt;url-pattern&gt;/assets/*&lt;/url-pattern&gt;
+ * &lt;/filter-mapping&gt;
+ * </pre>
+ *
+ * @author Joe Stelmach
+ */
+public class AssetFilter implements Filter {
+  private static final long CHECK_INTERVAL = 1000;
+  private static final String GZIP_EXTENSION = ".gz";
+  private static final String DEFAULT_CACHE_CONTROL = "public, max-age=31536000";
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+  private ServletContext _servletContext;
+  private String _webrootDir;
+  private String _cacheControl;
+  private ConcurrentMap<String, Resource> _resources = new ConcurrentHashMap<String, Resource>();
+
+  /**
+   * A file as it was when last checked.  The cache holds one reference to
+   * each resource, and each request serving it holds another, so the
+   * channel of a replaced file stays open until the last request using it
+   * is done.
+   */
+  private static class Resource {
+    private ServletContext _servletContext;
+    private File _file;
+    private FileChannel _channel;
+    private long _length;
+    private long _lastModified;
+    private String _etag;
+    private volatile long _nextCheck;
+    private int _references = 1;
+
+    /**
+     * Opens the given file, if it exists
+     *
+     * @param file
+     * @param servletContext the context to log failures to
+     * @throws IOException
+     */
+    Resource(File file, ServletContext servletContext) throws IOException {
+      _servletContext = servletContext;
+      _file = file;
+      _lastModified = file.lastModified();
+      _length = file.length();
+      _nextCheck = System.currentTimeMillis() + CHECK_INTERVAL;
+      if(!file.isFile()) return;
+
+      _channel = new FileInputStream(file).getChannel();
+      _etag = "\"" + Hasher.hash(file) + "\"";
+    }
+
+    boolean exists() {
+      return _channel != null;
+    }
+
+    /**
+     * @return true if the file has been changed, added or removed since
+     *         it was opened.  The file is checked at most once every
+     *         CHECK_INTERVAL milliseconds.
+     */
+    boolean isStale() {
+      long now = System.currentTimeMillis();
+      if(now < _nextCheck) return false;
+      _nextCheck = now + CHECK_INTERVAL;
+      return _file.lastModified() != _lastModified || _file.length() != _length ||
+        _file.isFile() != exists();
+    }
+
+    /**
+     * Makes the next {@link #isStale()} check the file, however recently it
+     * was last checked
+     */
+    void invalidate() {
+      _nextCheck = 0;
+    }
+
+    /**
+     * @return false if the resource has already been closed
+     */
+    synchronized boolean acquire() {
+      if(_references == 0) return false;
+      _references++;
+      return true;
+    }
+
+    /**
+     * Gives up a reference, closing the channel when it was the last
+     */
+    synchronized void release() {
+      if(--_references > 0 || _channel == null) return;
+      try {
+        _channel.close();
+
+      } catch(IOException e) {
+        _servletContext.log("Couldn't close " + _file, e);
+      }
+    }
+  }
+
+  public void init(FilterConfig filterConfig) throws ServletException {
+    _servletContext = filterConfig.getServletContext();
+    _webrootDir = _servletContext.getRealPath("/");
+
+    Configuration configuration = new BaseConfiguration();
+    try {
+      configuration = new PropertiesConfiguration("zipper.properties");
+
+    } catch(ConfigurationException e) {
+      // no configuration, so the defaults apply
+    }
+    _cacheControl = configuration.getString(ConfigKey.FILTER_CACHE_CONTROL.getKey(), DEFAULT_CACHE_CONTROL);
+  }
+
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+      throws IOException, ServletException {
+
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+    String method = request.getMethod();
+    String path = request.getServletPath() + (request.getPathInfo() != null ? request.getPathInfo() : "");
+    if(_webrootDir == null || (!method.equals("GET") && !method.equals("HEAD")) ||
+        path.contains("..") || path.endsWith(GZIP_EXTENSION)) {
+
+      chain.doFilter(request, response);
+      return;
+    }
+
+    String fileName = new File(_webrootDir, path).getPath();
+    Resource plain = acquire(fileName, false);
+    if(plain == null) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    Resource gzip = null;
+    try {
+      gzip = acquire(fileName + GZIP_EXTENSION, true);
+      boolean gzipped = gzip != null && acceptsGzip(request);
+      serve(request, response, path, gzipped ? gzip : plain, gzipped, gzip != null);
+
+    } finally {
+      plain.release();
+      if(gzip != null) gzip.release();
+    }
+  }
+
+  public void destroy() {
+    for(Resource resource:_resources.values()) resource.release();
+    _resources.clear();
+  }
+
+  /**
+   * Writes the given resource out as the response
+   *
+   * @param request
+   * @param response
+   * @param path the requested path
+   * @param resource
+   * @param gzipped true if the resource is the gzipped copy of the requested file
+   * @param negotiated true if a gzipped copy exists, so the response
+   *        depends on the request's accepted encodings
+   * @throws IOException if the body can't be written, or the file was
+   *         cut short while being written, once the response is committed
+   */
+  private void serve(HttpServletRequest request, HttpServletResponse response, String path,
+      Resource resource, boolean gzipped, boolean negotiated) throws IOException {
+
+    response.setHeader("ETag", resource._etag);
+    response.setDateHeader("Last-Modified", resource._lastModified);
+    response.setHeader("Cache-Control", _cacheControl);
+    if(negotiated) response.setHeader("Vary", "Accept-Encoding");
+
+    if(isNotModified(request, resource)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    String contentType = _servletContext.getMimeType(path);
+    if(contentType != null) response.setContentType(contentType);
+    if(gzipped) response.setHeader("Content-Encoding", "gzip");
+    if(resource._length <= Integer.MAX_VALUE) response.setContentLength((int) resource._length);
+    else response.setHeader("Content-Length", String.valueOf(resource._length));
+    if(request.getMethod().equals("HEAD")) return;
+
+    // containers with sendfile support write the file themselves, once the
+    // request is done
+    if(Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+      request.setAttribute(SENDFILE_FILENAME, resource._file.getAbsolutePath());
+      request.setAttribute(SENDFILE_START, Long.valueOf(0));
+      request.setAttribute(SENDFILE_END, Long.valueOf(resource._length));
+      return;
+    }
+
+    // positional transfers leave the shared channel's position alone, so
+    // any number of requests may read from it at once
+    WritableByteChannel output = Channels.newChannel(response.getOutputStream());
+    long position = 0;
+    while(position < resource._length) {
+      long transferred = resource._channel.transferTo(position, resource._length - position, output);
+      if(transferred <= 0) break;
+      position += transferred;
+    }
+
+    // the file was rewritten in place since it was opened, so the body
+    // can't be completed.  It's failed rather than left silently short, and
+    // the next request re-opens the file.
+    if(position < resource._length) {
+      resource.invalidate();
+      String message = resource._file + " was cut short while being served, after " + position +
+        " of " + resource._length + " bytes";
+      if(response.isCommitted()) throw new IOException(message);
+
+      _servletContext.log(message);
+      response.reset();
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+  }
+
+  /**
+   * @param request
+   * @param resource
+   * @return true if the client's cached copy of the resource is still current
+   */
+  private boolean isNotModified(HttpServletRequest request, Resource resource) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if(ifNoneMatch != null) {
+      for(String etag:ifNoneMatch.split(",")) {
+        etag = etag.trim();
+        if(etag.startsWith("W/")) etag = etag.substring(2);
+        if(etag.equals("*") || etag.equals(resource._etag)) return true;
+      }
+      return false;
+    }
+
+    try {
+      long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+      return ifModifiedSince != -1 && resource._lastModified / 1000 <= ifModifiedSince / 1000;
+
+    } catch(IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param request
+   * @return true if the request accepts a gzipped response
+   */
+  private boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if(acceptEncoding == null) return false;
+
+    for(String encoding:acceptEncoding.split(",")) {
+      String[] parameters = encoding.split(";");
+      String name = parameters[0].trim();
+      if(!name.equalsIgnoreCase("gzip") && !name.equals("*")) continue;
+
+      // an encoding with a quality of zero is one the client refuses
+      for(int i = 1; i < parameters.length; i++) {
+        String parameter = parameters[i].trim();
+        if(!parameter.startsWith("q=")) continue;
+        try {
+          if(Double.parseDouble(parameter.substring(2)) == 0) return false;
+
+        } catch(NumberFormatException e) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Finds the given file's resource, opening it the first time it's asked
+   * for, and again whenever it changes
+   *
+   * @param fileName
+   * @param rememberMissing true if the file's absence should be remembered
+   *        like any other resource.  Gzipped copies are looked for on every
+   *        request, but other missing files are only ever asked for by
+   *        mistake, and aren't worth keeping track of.
+   * @return the file's resource, with a reference held for the caller, or
+   *         null if the file doesn't exist
+   * @throws IOException if the file can't be read
+   */
+  private Resource acquire(String fileName, boolean rememberMissing) throws IOException {
+    while(true) {
+      Resource resource = _resources.get(fileName);
+      if(resource == null || resource.isStale()) {
+        Resource replacement = new Resource(new File(fileName), _servletContext);
+        if(!replacement.exists() && !rememberMissing) {
+          if(resource != null && _resources.remove(fileName, resource)) resource.release();
+          return null;
+        }
+
+        boolean replaced = resource == null ?
+          _resources.putIfAbsent(fileName, replacement) == null :
+          _resources.replace(fileName, resource, replacement);
+
+        if(!replaced) {
+          // another request got there first
+          replacement.release();
+          continue;
+        }
+        if(resource != null) resource.release();
+        resource = replacement;
+      }
+
+      if(!resource.exists()) return null;
+      if(resource.acquire()) return resource;
+    }
+  }
+}
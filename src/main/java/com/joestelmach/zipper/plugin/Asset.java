@@ -0,0 +1,138 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single JavaScript or CSS file on its way through the asset pipeline.  
+ * An asset's content is held in memory once it has been processed.  Assets 
+ * left untouched by an incremental build have no content in memory, but 
+ * can be found at their output path.  Errors and warnings found while 
+ * processing an asset are kept with it, so they can be reported in order 
+ * however the asset was processed.
+ * 
+ * @author Joe Stelmach
+ */
+public class Asset {
+  private String _sourcePath;
+  private String _outputPath;
+  private String _content;
+  private List<String> _errors = new ArrayList<String>();
+  private List<String> _warnings = new ArrayList<String>();
+  
+  /**
+   * @param sourcePath the absolute path to the original file
+   * @param outputPath the absolute path the processed file is written to
+   */
+  public Asset(String sourcePath, String outputPath) {
+    _sourcePath = sourcePath;
+    _outputPath = outputPath;
+  }
+  
+  public String getSourcePath() {
+    return _sourcePath;
+  }
+  
+  public String getOutputPath() {
+    return _outputPath;
+  }
+  
+  /**
+   * @return the asset's content, or null if it hasn't been read
+   */
+  public String getContent() {
+    return _content;
+  }
+  public void setContent(String content) {
+    _content = content;
+  }
+  
+  /**
+   * @return the errors found while processing this asset, in the order 
+   *         they were found
+   */
+  public List<String> getErrors() {
+    return _errors;
+  }
+  public void addError(String error) {
+    _errors.add(error);
+  }
+  
+  /**
+   * @return the warnings found while processing this asset, in the order 
+   *         they were found
+   */
+  public List<String> getWarnings() {
+    return _warnings;
+  }
+  public void addWarning(String warning) {
+    _warnings.add(warning);
+  }
+  
+  /**
+   * Replaces this asset's content with the content of its source file
+   * 
+   * @throws IOException
+   */
+  public void read() throws IOException {
+    _content = readFile(_sourcePath);
+  }
+  
+  /**
+   * Replaces this asset's content with the content written to its output 
+   * path by a previous build
+   * 
+   * @throws IOException
+   */
+  public void readOutput() throws IOException {
+    _content = readFile(_outputPath);
+  }
+  
+  /**
+   * @param path
+   * @return the content of the file at the given path
+   * @throws IOException
+   */
+  private String readFile(String path) throws IOException {
+    File file = new File(path);
+    byte[] buffer = new byte[(int) file.length()];
+    InputStream input = null;
+    try {
+      input = new FileInputStream(file);
+      int offset = 0;
+      int read;
+      while(offset < buffer.length && (read = input.read(buffer, offset, buffer.length - offset)) != -1) {
+        offset += read;
+      }
+      
+    } finally {
+      if(input != null) input.close();
+    }
+    return new String(buffer);
+  }
+  
+  /**
+   * Writes this asset's content to its output path
+   * 
+   * @throws IOException
+   */
+  public void write() throws IOException {
+    File file = new File(_outputPath);
+    file.getParentFile().mkdirs();
+    OutputStream output = null;
+    try {
+      output = new BufferedOutputStream(new FileOutputStream(file));
+      output.write(_content.getBytes());
+      
+    } finally {
+      if(output != null) output.close();
+    }
+  }
+}
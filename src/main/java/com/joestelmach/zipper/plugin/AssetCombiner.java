@@ -0,0 +1,263 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import com.joestelmach.util.OptimalDeflater;
+
+/**
+ * Combines assets into a single file, and optionally a gzipped copy.  Assets 
+ * processed during this build are written straight from memory.  Assets left 
+ * over from a previous build are read from their output path: without 
+ * gzipping, with channel to channel transfers, which lets the operating system 
+ * copy the bytes without bringing them into the JVM, and with gzipping, once 
+ * through a buffer that feeds both the plain and the gzipped output.  The 
+ * exhaustive gzip profile instead compresses the finished plain output as a 
+ * whole.  Instances may be used by several threads at once.
+ * 
+ * @author Joe Stelmach
+ */
+public class AssetCombiner {
+  private static final String GZIP_EXTENSION = ".gz";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  
+  private Log _log;
+  
+  /**
+   * A gzip stream that compresses at the given level rather than the 
+   * default one
+   */
+  private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+    
+    /**
+     * @param output
+     * @param size the size of the output buffer
+     * @param level the deflate compression level, from 0 to 9
+     * @throws IOException
+     */
+    LeveledGZIPOutputStream(OutputStream output, int size, int level) throws IOException {
+      super(output, size);
+      def.setLevel(level);
+    }
+  }
+  
+  /**
+   * @param log
+   */
+  public AssetCombiner(Log log) {
+    _log = log;
+  }
+  
+  /**
+   * Combines the given assets into a file with the given name, gzipping it 
+   * according to the given group's settings
+   * 
+   * @param assets
+   * @param outputFileName
+   * @param group
+   * @return true if a gzipped copy was written alongside the output
+   * @throws MojoExecutionException if an asset cannot be found, or an IOException occurs
+   */
+  public boolean combine(Collection<Asset> assets, String outputFileName, AssetGroup group) 
+      throws MojoExecutionException {
+    
+    File outputFile = new File(outputFileName);
+    File gzipOutputFile = new File(outputFileName + GZIP_EXTENSION);
+    GzipProfile profile = group.getGzipProfile();
+    boolean gzip = group.getGzip();
+    boolean streamGzip = gzip && profile != GzipProfile.EXHAUSTIVE;
+    
+    FileChannel output = null;
+    GZIPOutputStream gzipOutput = null;
+    ByteBuffer buffer = null;
+    boolean success = true;
+    try {
+      output = new FileOutputStream(outputFile).getChannel();
+      
+      if(streamGzip) {
+        gzipOutput = new LeveledGZIPOutputStream(new FileOutputStream(gzipOutputFile), BUFFER_SIZE, 
+            profile.getLevel());
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      }
+      
+      for(Asset asset:assets) {
+        if(asset.getContent() == null && 
+            (asset.getOutputPath() == null || !new File(asset.getOutputPath()).exists())) {
+          success = false;
+          throw new MojoExecutionException("couldn't find file " + asset.getSourcePath() +
+            ".  Please specify the path using the standard ant patterns: " +
+            "http://ant.apache.org/manual/dirtasks.html#patterns");
+        }
+        else {
+          _log.info("adding file: " + asset.getSourcePath() + " to " + outputFileName);
+          if(asset.getContent() != null) writeAsset(asset.getContent(), output, gzipOutput);
+          else if(streamGzip) teeAsset(asset.getOutputPath(), output, gzipOutput, buffer);
+          else transferAsset(asset.getOutputPath(), output);
+        }
+      }
+      
+      output.close();
+      if(gzipOutput != null) gzipOutput.close();
+      if(gzip && !streamGzip) gzipExhaustive(outputFile, gzipOutputFile);
+        
+    } catch (Exception e) {
+      success = false;
+      _log.error("couldn't create asset file " + outputFileName, e);
+      throw new MojoExecutionException("Something went wrong combining assets.", e);
+      
+    } finally {
+      try {
+        if(output != null) output.close();
+        if(gzipOutput != null) gzipOutput.close();
+        if(!success) {
+          outputFile.delete();
+          gzipOutputFile.delete();
+        }
+        
+      } catch (IOException e) {
+        _log.error("couldn't close writer", e);
+      }
+    }
+    
+    return gzip && keepGzip(outputFile, gzipOutputFile, group.getGzipMinSavings());
+  }
+  
+  /**
+   * Decides if the given gzipped file saves enough over the given plain 
+   * file to be worth serving, deleting it if it doesn't
+   * 
+   * @param outputFile
+   * @param gzipOutputFile
+   * @param minSavings the smallest acceptable saving, as a percentage of the 
+   *        plain file's size, or 0 to always keep the gzipped file
+   * @return true if the gzipped file was kept
+   */
+  private boolean keepGzip(File outputFile, File gzipOutputFile, int minSavings) {
+    if(minSavings <= 0) return true;
+    
+    long plainSize = outputFile.length();
+    long savings = plainSize - gzipOutputFile.length();
+    if(savings * 100 >= minSavings * plainSize) return true;
+    
+    _log.info("not keeping " + gzipOutputFile.getName() + ", it saves only " + savings + 
+      " of " + plainSize + " bytes");
+    gzipOutputFile.delete();
+    return false;
+  }
+  
+  /**
+   * Gzips the given file with the exhaustive profile, which needs the whole 
+   * file in memory
+   * 
+   * @param outputFile
+   * @param gzipOutputFile
+   * @throws IOException
+   */
+  private void gzipExhaustive(File outputFile, File gzipOutputFile) throws IOException {
+    byte[] data = new byte[(int) outputFile.length()];
+    FileChannel input = null;
+    try {
+      input = new FileInputStream(outputFile).getChannel();
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      while(buffer.hasRemaining() && input.read(buffer) != -1);
+      
+    } finally {
+      if(input != null) input.close();
+    }
+    
+    OutputStream output = null;
+    try {
+      output = new BufferedOutputStream(new FileOutputStream(gzipOutputFile));
+      new OptimalDeflater(GzipProfile.EXHAUSTIVE_ITERATIONS).gzip(data, output);
+      
+    } finally {
+      if(output != null) output.close();
+    }
+  }
+  
+  /**
+   * Appends the given content to the plain output, and to the gzipped 
+   * output if there is one
+   * 
+   * @param content
+   * @param output
+   * @param gzipOutput
+   * @throws IOException
+   */
+  private void writeAsset(String content, FileChannel output, GZIPOutputStream gzipOutput) 
+      throws IOException {
+    
+    byte[] bytes = content.getBytes();
+    if(gzipOutput != null) gzipOutput.write(bytes);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while(buffer.hasRemaining()) {
+      output.write(buffer);
+    }
+  }
+  
+  /**
+   * Appends the entire content of the given asset to the given channel
+   * 
+   * @param assetFileName
+   * @param output
+   * @throws IOException
+   */
+  private void transferAsset(String assetFileName, FileChannel output) throws IOException {
+    FileChannel input = null;
+    try {
+      input = new FileInputStream(new File(assetFileName)).getChannel();
+      long size = input.size();
+      long position = 0;
+      
+      // transferTo may move fewer bytes than asked for, so we keep going until it's all there
+      while(position < size) {
+        position += input.transferTo(position, size - position, output);
+      }
+      
+    } finally {
+      if(input != null) input.close();
+    }
+  }
+  
+  /**
+   * Reads the given asset once through the given buffer, appending each 
+   * chunk to both the plain and the gzipped output
+   * 
+   * @param assetFileName
+   * @param output
+   * @param gzipOutput
+   * @param buffer
+   * @throws IOException
+   */
+  private void teeAsset(String assetFileName, FileChannel output, GZIPOutputStream gzipOutput, 
+      ByteBuffer buffer) throws IOException {
+    
+    FileChannel input = null;
+    try {
+      input = new FileInputStream(new File(assetFileName)).getChannel();
+      buffer.clear();
+      while(input.read(buffer) != -1) {
+        buffer.flip();
+        gzipOutput.write(buffer.array(), 0, buffer.limit());
+        while(buffer.hasRemaining()) {
+          output.write(buffer);
+        }
+        buffer.clear();
+      }
+      
+    } finally {
+      if(input != null) input.close();
+    }
+  }
+}
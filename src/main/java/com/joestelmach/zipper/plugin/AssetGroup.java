@@ -12,6 +12,8 @@ public class AssetGroup {
   private String name;
   private List<String> includes;
   private boolean gzip;
+  private GzipProfile gzipProfile = GzipProfile.DEFAULT;
+  private int gzipMinSavings;
 
   public String getName() {
     return name;
@@ -33,4 +35,22 @@ public class AssetGroup {
   public void setGzip(boolean gzip) {
     this.gzip = gzip;
   }
+
+  public GzipProfile getGzipProfile() {
+    return gzipProfile;
+  }
+  public void setGzipProfile(GzipProfile gzipProfile) {
+    this.gzipProfile = gzipProfile;
+  }
+
+  /**
+   * @return the smallest saving, as a percentage of the plain output's size, 
+   *         that makes a gzipped copy worth keeping
+   */
+  public int getGzipMinSavings() {
+    return gzipMinSavings;
+  }
+  public void setGzipMinSavings(int gzipMinSavings) {
+    this.gzipMinSavings = gzipMinSavings;
+  }
 }
@@ -0,0 +1,246 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Describes each asset group built into the output directory: the path of
+ * its file, a version token that changes with its content, and its size.
+ * The manifest is written by the plugin at build time so the asset tag can
+ * render production includes without touching the filesystem.  Each group
+ * is stored as a single line of the form
+ * <code>type.name = path,version,size</code>.  A group written under a
+ * fingerprinted name carries its version in its path, as
+ * <code>name.version.js</code>, and needs no other cache busting.  The
+ * groups that must be included before a group, such as the chunk of files
+ * it shares with other groups, are listed on a line of their own, of the
+ * form <code>requires.type.name = name,name</code>.
+ *
+ * Loaded manifests can't be changed, so they may be shared between threads.
+ *
+ * @author Joe Stelmach
+ */
+public class AssetManifest {
+  public static final String FILE_NAME = "zipper-assets.properties";
+  private static final char SEPARATOR = ',';
+  private static final String REQUIRES_PREFIX = "requires.";
+
+  private Map<String, Map<String, Entry>> _entries;
+
+  /**
+   * A single asset group
+   */
+  public static class Entry {
+    private String _type;
+    private String _name;
+    private String _path;
+    private String _version;
+    private long _size;
+    private List<String> _requires;
+
+    /**
+     * @param type the group's type, either js or css
+     * @param name the group's name
+     * @param path the path to the group's file, relative to the output directory
+     * @param version a token that changes with the group's content
+     * @param size the size of the group's file in bytes
+     */
+    public Entry(String type, String name, String path, String version, long size) {
+      this(type, name, path, version, size, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param type
+     * @param name
+     * @param path
+     * @param version
+     * @param size
+     * @param requires the names of the groups of the same type that must be
+     *        included before this one
+     */
+    public Entry(String type, String name, String path, String version, long size, List<String> requires) {
+      _type = type;
+      _name = name;
+      _path = path;
+      _version = version;
+      _size = size;
+      _requires = Collections.unmodifiableList(new ArrayList<String>(requires));
+    }
+
+    public String getType() {
+      return _type;
+    }
+
+    public String getName() {
+      return _name;
+    }
+
+    public String getPath() {
+      return _path;
+    }
+
+    public String getVersion() {
+      return _version;
+    }
+
+    public long getSize() {
+      return _size;
+    }
+
+    /**
+     * @return the names of the groups of the same type that must be
+     *         included before this one, in order
+     */
+    public List<String> getRequires() {
+      return _requires;
+    }
+
+    /**
+     * @return true if the group's file is named after its version
+     */
+    public boolean isFingerprinted() {
+      return _path.equals(getFingerprintedPath(_path.replace("." + _version + ".", "."), _version));
+    }
+  }
+
+  /**
+   * @param entries
+   */
+  private AssetManifest(Map<String, Map<String, Entry>> entries) {
+    _entries = entries;
+  }
+
+  /**
+   * @param type
+   * @param name
+   * @return the given group, or null if it isn't in the manifest
+   */
+  public Entry get(String type, String name) {
+    Map<String, Entry> entries = _entries.get(type);
+    return entries != null ? entries.get(name) : null;
+  }
+
+  /**
+   * @param path the path to a group's file
+   * @param version the group's version
+   * @return the given path, with the version inserted before its extension
+   */
+  public static String getFingerprintedPath(String path, String version) {
+    int extension = path.lastIndexOf('.');
+    if(extension <= path.lastIndexOf('/')) return path + "." + version;
+    return path.substring(0, extension) + "." + version + path.substring(extension);
+  }
+
+  /**
+   * Reads the manifest from the given file
+   *
+   * @param file
+   * @return
+   * @throws IOException if the file can't be read
+   */
+  public static AssetManifest load(File file) throws IOException {
+    Properties properties = new Properties();
+    InputStream input = null;
+    try {
+      input = new BufferedInputStream(new FileInputStream(file));
+      properties.load(input);
+
+    } finally {
+      if(input != null) input.close();
+    }
+
+    Map<String, Map<String, Entry>> entries = new HashMap<String, Map<String, Entry>>();
+    for(Object key:properties.keySet()) {
+      String typeAndName = (String) key;
+      if(typeAndName.startsWith(REQUIRES_PREFIX)) continue;
+      String value = properties.getProperty(typeAndName);
+      String requires = properties.getProperty(REQUIRES_PREFIX + typeAndName, "");
+      int typeEnd = typeAndName.indexOf('.');
+      int sizeStart = value.lastIndexOf(SEPARATOR);
+      int versionStart = value.lastIndexOf(SEPARATOR, sizeStart - 1);
+      if(typeEnd < 0 || versionStart < 0) {
+        throw new IOException("Invalid asset manifest entry: " + typeAndName + "=" + value);
+      }
+
+      Entry entry;
+      try {
+        entry = new Entry(typeAndName.substring(0, typeEnd), typeAndName.substring(typeEnd + 1),
+          value.substring(0, versionStart), value.substring(versionStart + 1, sizeStart),
+          Long.parseLong(value.substring(sizeStart + 1)), 
+          requires.length() > 0 ? Arrays.asList(requires.split(String.valueOf(SEPARATOR))) : 
+            Collections.<String>emptyList());
+
+      } catch(NumberFormatException e) {
+        throw new IOException("Invalid asset manifest entry: " + typeAndName + "=" + value);
+      }
+
+      Map<String, Entry> typeEntries = entries.get(entry.getType());
+      if(typeEntries == null) {
+        typeEntries = new HashMap<String, Entry>();
+        entries.put(entry.getType(), typeEntries);
+      }
+      typeEntries.put(entry.getName(), entry);
+    }
+
+    for(Map.Entry<String, Map<String, Entry>> typeEntries:entries.entrySet()) {
+      typeEntries.setValue(Collections.unmodifiableMap(typeEntries.getValue()));
+    }
+    return new AssetManifest(Collections.unmodifiableMap(entries));
+  }
+
+  /**
+   * Writes a manifest of the given groups to the given file, replacing the 
+   * previous manifest in one step
+   *
+   * @param file
+   * @param entries
+   * @throws IOException if the file can't be written
+   */
+  public static void save(File file, Collection<Entry> entries) throws IOException {
+    Properties properties = new Properties();
+    for(Entry entry:entries) {
+      properties.setProperty(entry.getType() + "." + entry.getName(),
+        entry.getPath() + SEPARATOR + entry.getVersion() + SEPARATOR + entry.getSize());
+
+      StringBuilder requires = new StringBuilder();
+      for(String name:entry.getRequires()) {
+        if(requires.length() > 0) requires.append(SEPARATOR);
+        requires.append(name);
+      }
+      if(requires.length() > 0) {
+        properties.setProperty(REQUIRES_PREFIX + entry.getType() + "." + entry.getName(), requires.toString());
+      }
+    }
+
+    // the manifest may be reloaded by a running application at any time, so 
+    // it's written alongside and moved into place once it's complete
+    file.getParentFile().mkdirs();
+    File tempFile = new File(file.getPath() + ".tmp");
+    OutputStream output = null;
+    try {
+      output = new BufferedOutputStream(new FileOutputStream(tempFile));
+      properties.store(output, "zipper asset manifest");
+
+    } finally {
+      if(output != null) output.close();
+    }
+    if(!tempFile.renameTo(file)) {
+      file.delete();
+      if(!tempFile.renameTo(file)) throw new IOException("Could not write " + file);
+    }
+  }
+}
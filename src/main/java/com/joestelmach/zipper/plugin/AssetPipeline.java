@@ -0,0 +1,82 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Reads an asset and passes it through a series of stages in memory.  The 
+ * built in stages are the closure compiler for JavaScript, and the YUI 
+ * minifier and cache buster for CSS.  Other stages can be added by naming 
+ * classes that implement {@link AssetStage} in zipper.properties.
+ * 
+ * @author Joe Stelmach
+ */
+public class AssetPipeline {
+  private List<AssetStage> _stages;
+  
+  /**
+   * @param stages the stages to run each asset through, in order
+   */
+  public AssetPipeline(List<AssetStage> stages) {
+    _stages = stages;
+  }
+  
+  /**
+   * Creates an instance of each of the given stage classes
+   * 
+   * @param classNames fully qualified names of classes implementing 
+   *        {@link AssetStage} with a public no-argument constructor
+   * @return
+   * @throws MojoExecutionException if a stage can't be created
+   */
+  public static List<AssetStage> createStages(List<String> classNames) throws MojoExecutionException {
+    List<AssetStage> stages = new ArrayList<AssetStage>();
+    for(String className:classNames) {
+      try {
+        Class<?> stageClass = Class.forName(className.trim(), true, AssetPipeline.class.getClassLoader());
+        stages.add((AssetStage) stageClass.getDeclaredConstructor().newInstance());
+        
+      } catch(InvocationTargetException e) {
+        throw new MojoExecutionException("Could not create asset stage " + className, e.getCause());
+        
+      } catch(NoSuchMethodException e) {
+        throw new MojoExecutionException("Could not create asset stage " + className + 
+          ", it has no no-argument constructor", e);
+        
+      } catch(Exception e) {
+        throw new MojoExecutionException("Could not create asset stage " + className, e);
+      }
+    }
+    return stages;
+  }
+  
+  /**
+   * Reads the given asset's source and runs it through each stage
+   * 
+   * @param asset
+   * @throws IOException
+   */
+  public void process(Asset asset) throws IOException {
+    asset.read();
+    for(AssetStage stage:_stages) {
+      stage.process(asset);
+    }
+  }
+  
+  /**
+   * @param asset
+   * @return the combined fingerprint of every stage for the given asset
+   */
+  public String getFingerprint(Asset asset) {
+    StringBuilder fingerprint = new StringBuilder();
+    for(AssetStage stage:_stages) {
+      fingerprint.append(stage.getClass().getName()).append('=')
+        .append(stage.getFingerprint(asset)).append(';');
+    }
+    return fingerprint.toString();
+  }
+}
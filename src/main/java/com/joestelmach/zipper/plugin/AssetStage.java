@@ -0,0 +1,31 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.IOException;
+
+/**
+ * A single step of the asset pipeline, such as optimizing, minifying, or 
+ * rewriting an asset.  Stages pass the asset's content between each other 
+ * in memory, so adding a stage doesn't add a trip to the disk.  Stages may 
+ * be called from several threads at once.
+ * 
+ * @author Joe Stelmach
+ */
+public interface AssetStage {
+  
+  /**
+   * Processes the given asset, replacing its content with the result
+   * 
+   * @param asset
+   * @throws IOException if the asset couldn't be processed
+   */
+  public void process(Asset asset) throws IOException;
+  
+  /**
+   * @param asset
+   * @return a fingerprint of everything other than the asset's own content 
+   *         that affects this stage's result, such as the stage's settings, 
+   *         the version of the tool behind it, or the other files it reads.
+   *         Incremental builds re-process an asset when this changes.
+   */
+  public String getFingerprint(Asset asset);
+}
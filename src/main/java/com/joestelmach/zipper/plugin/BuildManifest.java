@@ -0,0 +1,134 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Remembers the fingerprint of the inputs that produced each file in the
+ * output directory, so unchanged files can be skipped on the next build.
+ * A fingerprint captures everything that can influence an output: the
+ * content of the input, the relevant configuration, and the versions of
+ * the tools used to produce it.  Instances may be used by several threads at once.
+ *
+ * @author Joe Stelmach
+ */
+public class BuildManifest {
+  private File _file;
+  private Properties _fingerprints = new Properties();
+  private Set<String> _retained = new HashSet<String>();
+
+  /**
+   * @param file the file the manifest is persisted to between builds
+   */
+  public BuildManifest(File file) {
+    _file = file;
+  }
+
+  /**
+   * Loads the manifest written by the previous build, if there was one
+   *
+   * @throws IOException
+   */
+  public synchronized void load() throws IOException {
+    _fingerprints.clear();
+    _retained.clear();
+    if(!_file.exists()) return;
+
+    InputStream input = null;
+    try {
+      input = new BufferedInputStream(new FileInputStream(_file));
+      _fingerprints.load(input);
+
+    } finally {
+      if(input != null) input.close();
+    }
+  }
+
+  /**
+   * Writes the manifest out for the next build.  Only entries that were
+   * checked or updated during this build are kept.
+   *
+   * @throws IOException
+   */
+  public synchronized void save() throws IOException {
+    Properties retained = new Properties();
+    for(String outputPath:_retained) {
+      String fingerprint = _fingerprints.getProperty(outputPath);
+      if(fingerprint != null) retained.setProperty(outputPath, fingerprint);
+    }
+
+    _file.getParentFile().mkdirs();
+    OutputStream output = null;
+    try {
+      output = new BufferedOutputStream(new FileOutputStream(_file));
+      retained.store(output, "zipper build manifest");
+
+    } finally {
+      if(output != null) output.close();
+    }
+  }
+
+  /**
+   * @param outputPath
+   * @param fingerprint
+   * @return true if the given output exists and was produced from inputs
+   *         with the given fingerprint
+   */
+  public synchronized boolean isCurrent(String outputPath, String fingerprint) {
+    _retained.add(outputPath);
+    return fingerprint.equals(_fingerprints.getProperty(outputPath)) &&
+      new File(outputPath).exists();
+  }
+
+  /**
+   * Records that the given output was produced from inputs with the given fingerprint
+   *
+   * @param outputPath
+   * @param fingerprint
+   */
+  public synchronized void update(String outputPath, String fingerprint) {
+    _retained.add(outputPath);
+    _fingerprints.setProperty(outputPath, fingerprint);
+  }
+
+  /**
+   * @param outputPath
+   * @return the recorded fingerprint of the given output, or null if none is known
+   */
+  public synchronized String getFingerprint(String outputPath) {
+    return _fingerprints.getProperty(outputPath);
+  }
+
+  /**
+   * Forgets the given output, so it will be rebuilt on the next build
+   *
+   * @param outputPath
+   */
+  public synchronized void invalidate(String outputPath) {
+    _fingerprints.remove(outputPath);
+  }
+
+  /**
+   * @return the outputs recorded by the previous build that haven't been
+   *         checked or updated during this build.  These were produced from
+   *         inputs that no longer exist.
+   */
+  public synchronized List<String> getStaleOutputs() {
+    List<String> stale = new ArrayList<String>();
+    for(Object outputPath:_fingerprints.keySet()) {
+      if(!_retained.contains(outputPath)) stale.add((String) outputPath);
+    }
+    return stale;
+  }
+}
@@ -0,0 +1,327 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Records how long each stage of a build took, along with the time taken
+ * and the bytes read and written for each file processed within a stage.
+ * The report is written as JSON for tools that track build performance over
+ * time, and summarized as a table in the build log.  Instances may be used
+ * by several threads at once.
+ *
+ * @author Joe Stelmach
+ */
+public class BuildReport {
+  public static final String FILE_NAME = "zipper-report.json";
+  private static final double NANOS_PER_MILLI = 1000000.0;
+  private static final String TABLE_FORMAT = "%-16s %10s %7s %14s %14s %7s";
+
+  private Date _started = new Date();
+  private List<Timing> _stages = new ArrayList<Timing>();
+  private List<Timing> _files = new ArrayList<Timing>();
+
+  /**
+   * The time taken by a single stage, or by a single file within a stage.
+   * Sizes that don't apply are negative.
+   */
+  public static class Timing {
+    private String _stage;
+    private String _name;
+    private long _nanos;
+    private long _bytesIn;
+    private long _bytesOut;
+    private long _gzipBytes;
+
+    /**
+     * @param stage
+     * @param name the file's name, or null for the stage itself
+     * @param nanos
+     * @param bytesIn
+     * @param bytesOut
+     * @param gzipBytes
+     */
+    Timing(String stage, String name, long nanos, long bytesIn, long bytesOut, long gzipBytes) {
+      _stage = stage;
+      _name = name;
+      _nanos = nanos;
+      _bytesIn = bytesIn;
+      _bytesOut = bytesOut;
+      _gzipBytes = gzipBytes;
+    }
+
+    public String getStage() {
+      return _stage;
+    }
+
+    public String getName() {
+      return _name;
+    }
+
+    public long getNanos() {
+      return _nanos;
+    }
+
+    public long getBytesIn() {
+      return _bytesIn;
+    }
+
+    public long getBytesOut() {
+      return _bytesOut;
+    }
+
+    public long getGzipBytes() {
+      return _gzipBytes;
+    }
+  }
+
+  /**
+   * Records a stage that started at the given time and has just ended
+   *
+   * @param stage
+   * @param startNanos the stage's start, as given by {@link System#nanoTime()}
+   * @return the time the stage ended, for the next stage to start from
+   */
+  public synchronized long addStage(String stage, long startNanos) {
+    long now = System.nanoTime();
+    _stages.add(new Timing(stage, null, now - startNanos, -1, -1, -1));
+    return now;
+  }
+
+  /**
+   * Records a single file processed within the given stage
+   *
+   * @param stage
+   * @param name
+   * @param nanos
+   * @param bytesIn the size of the file read, or -1 if it doesn't apply
+   * @param bytesOut the size of the file written, or -1 if nothing was written
+   */
+  public synchronized void addFile(String stage, String name, long nanos, long bytesIn, long bytesOut) {
+    addFile(stage, name, nanos, bytesIn, bytesOut, -1);
+  }
+
+  /**
+   * Records a single file processed within the given stage, along with the
+   * size of its gzipped copy
+   *
+   * @param stage
+   * @param name
+   * @param nanos
+   * @param bytesIn
+   * @param bytesOut
+   * @param gzipBytes the size of the gzipped copy, or -1 if none was kept
+   */
+  public synchronized void addFile(String stage, String name, long nanos, long bytesIn, long bytesOut,
+      long gzipBytes) {
+
+    _files.add(new Timing(stage, name, nanos, bytesIn, bytesOut, gzipBytes));
+  }
+
+  /**
+   * @param count
+   * @return the given number of files that took the longest, slowest first
+   */
+  public synchronized List<Timing> getSlowestFiles(int count) {
+    List<Timing> files = new ArrayList<Timing>(_files);
+    Collections.sort(files, new Comparator<Timing>() {
+      public int compare(Timing first, Timing second) {
+        return first._nanos < second._nanos ? 1 : first._nanos > second._nanos ? -1 : 0;
+      }
+    });
+    return files.subList(0, Math.min(count, files.size()));
+  }
+
+  /**
+   * Writes the report to the given file as JSON
+   *
+   * @param file
+   * @param slowest the number of slowest files to list separately
+   * @throws IOException if the file can't be written
+   */
+  public synchronized void save(File file, int slowest) throws IOException {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    StringBuilder json = new StringBuilder("{\n");
+    json.append("  \"started\": \"").append(format.format(_started)).append("\",\n");
+    json.append("  \"millis\": ").append(formatMillis(getTotalNanos())).append(",\n");
+    json.append("  \"stages\": [");
+    for(int i = 0; i < _stages.size(); i++) {
+      Timing stage = _stages.get(i);
+      json.append(i > 0 ? "," : "").append("\n    ");
+      appendJson(json, getStageTotal(stage));
+    }
+    json.append("\n  ],\n  \"slowest\": [");
+    appendJson(json, getSlowestFiles(slowest));
+    json.append("\n  ],\n  \"files\": [");
+    appendJson(json, _files);
+    json.append("\n  ]\n}\n");
+
+    file.getParentFile().mkdirs();
+    Writer writer = null;
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+      writer.write(json.toString());
+
+    } finally {
+      if(writer != null) writer.close();
+    }
+  }
+
+  /**
+   * Writes a summary of the report to the given log: a line for each stage,
+   * followed by the slowest files
+   *
+   * @param log
+   * @param slowest the number of slowest files to list
+   */
+  public synchronized void log(Log log, int slowest) {
+    log.info(formatRow("stage", "ms", "files", "bytes in", "bytes out", "ratio"));
+    for(Timing stage:_stages) {
+      Timing total = getStageTotal(stage);
+      int files = 0;
+      for(Timing file:_files) {
+        if(file._stage.equals(stage._stage)) files++;
+      }
+      log.info(formatRow(stage._stage, formatMillis(stage._nanos),
+          files > 0 ? String.valueOf(files) : "", formatBytes(total._bytesIn),
+          formatBytes(total._bytesOut), formatRatio(total._bytesOut, total._bytesIn)));
+    }
+    log.info(formatRow("total", formatMillis(getTotalNanos()),
+        String.valueOf(_files.size()), "", "", ""));
+
+    List<Timing> slowestFiles = getSlowestFiles(slowest);
+    if(slowestFiles.isEmpty()) return;
+    log.info("slowest files:");
+    for(Timing file:slowestFiles) {
+      log.info(formatRow(file._stage, formatMillis(file._nanos), "",
+          formatBytes(file._bytesIn), formatBytes(file._bytesOut),
+          formatRatio(file._bytesOut, file._bytesIn)) + "  " + file._name);
+    }
+  }
+
+  /**
+   * @param columns
+   * @return a row of the summary table
+   */
+  private String formatRow(Object... columns) {
+    return String.format(TABLE_FORMAT, columns).replaceAll("\\s+$", "");
+  }
+
+  /**
+   * @return the time taken by every stage
+   */
+  private long getTotalNanos() {
+    long nanos = 0;
+    for(Timing stage:_stages) nanos += stage._nanos;
+    return nanos;
+  }
+
+  /**
+   * @param stage
+   * @return the given stage, with the sizes of every file processed within
+   *         it added up
+   */
+  private Timing getStageTotal(Timing stage) {
+    long bytesIn = -1;
+    long bytesOut = -1;
+    long gzipBytes = -1;
+    for(Timing file:_files) {
+      if(!file._stage.equals(stage._stage)) continue;
+      if(file._bytesIn >= 0) bytesIn = Math.max(bytesIn, 0) + file._bytesIn;
+      if(file._bytesOut >= 0) bytesOut = Math.max(bytesOut, 0) + file._bytesOut;
+      if(file._gzipBytes >= 0) gzipBytes = Math.max(gzipBytes, 0) + file._gzipBytes;
+    }
+    return new Timing(stage._stage, null, stage._nanos, bytesIn, bytesOut, gzipBytes);
+  }
+
+  /**
+   * @param json
+   * @param timings
+   */
+  private void appendJson(StringBuilder json, List<Timing> timings) {
+    for(int i = 0; i < timings.size(); i++) {
+      json.append(i > 0 ? "," : "").append("\n    ");
+      appendJson(json, timings.get(i));
+    }
+  }
+
+  /**
+   * @param json
+   * @param timing
+   */
+  private void appendJson(StringBuilder json, Timing timing) {
+    json.append("{\"stage\": ");
+    appendString(json, timing._stage);
+    if(timing._name != null) {
+      json.append(", \"name\": ");
+      appendString(json, timing._name);
+    }
+    json.append(", \"millis\": ").append(formatMillis(timing._nanos));
+    if(timing._bytesIn >= 0) json.append(", \"bytesIn\": ").append(timing._bytesIn);
+    if(timing._bytesOut >= 0) {
+      json.append(", \"bytesOut\": ").append(timing._bytesOut);
+      if(timing._bytesIn > 0) json.append(", \"ratio\": ").append(formatRatio(timing._bytesOut, timing._bytesIn));
+    }
+    if(timing._gzipBytes >= 0) {
+      json.append(", \"gzipBytes\": ").append(timing._gzipBytes);
+      if(timing._bytesIn > 0) json.append(", \"gzipRatio\": ").append(formatRatio(timing._gzipBytes, timing._bytesIn));
+    }
+    json.append('}');
+  }
+
+  /**
+   * @param json
+   * @param value
+   */
+  private void appendString(StringBuilder json, String value) {
+    json.append('"');
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if(c == '"' || c == '\\') json.append('\\').append(c);
+      else if(c < ' ') json.append(String.format("\\u%04x", (int) c));
+      else json.append(c);
+    }
+    json.append('"');
+  }
+
+  /**
+   * @param nanos
+   * @return
+   */
+  private String formatMillis(long nanos) {
+    return String.format(Locale.US, "%.1f", nanos / NANOS_PER_MILLI);
+  }
+
+  /**
+   * @param bytes
+   * @return
+   */
+  private String formatBytes(long bytes) {
+    return bytes >= 0 ? String.format(Locale.US, "%,d", bytes) : "";
+  }
+
+  /**
+   * @param bytesOut
+   * @param bytesIn
+   * @return the share of the input's size left in the output
+   */
+  private String formatRatio(long bytesOut, long bytesIn) {
+    return bytesOut >= 0 && bytesIn > 0 ? String.format(Locale.US, "%.3f", (double) bytesOut / bytesIn) : "";
+  }
+}
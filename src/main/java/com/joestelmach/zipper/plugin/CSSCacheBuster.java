@@ -2,34 +2,61 @@ package com.joestelmach.zipper.plugin;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.maven.plugin.logging.Log;
 
+import com.joestelmach.util.FileHashCache;
+
 
 /**
  * Responsible for busting the cache of any url references
- * found inside css files
+ * found inside css files.  Each reference is given a hash of the 
+ * referenced resource's content, so it only changes when the 
+ * resource itself does.
  * 
  * @author Joe Stelmach
  */
-public class CSSCacheBuster {
+public class CSSCacheBuster implements AssetStage {
   private static final Pattern PATTERN = Pattern.compile("(url\\([^\\)]*)(\\))");
+  private static final int HASH_LENGTH = 10;
   
   private Log _log;
+  private String _webrootPath;
+  
+  // resource hashes, shared by every stylesheet that refers to the same resource
+  private FileHashCache _hashes = new FileHashCache();
   
   /**
    * @param log
+   * @param webrootPath the absolute path to the web root, used to resolve
+   *        absolute url references
    */
-  public CSSCacheBuster(Log log) {
+  public CSSCacheBuster(Log log, String webrootPath) {
     _log = log;
+    _webrootPath = webrootPath;
+  }
+  
+  /**
+   * Busts the cache of all url references found in the given asset's content
+   * 
+   * @param asset
+   */
+  public void process(Asset asset) {
+    asset.setContent(bust(asset.getContent(), asset.getSourcePath()));
+  }
+  
+  /**
+   * @param asset
+   * @return a fingerprint of the content of every resource the asset refers to
+   */
+  public String getFingerprint(Asset asset) {
+    return fingerprintReferences(asset.getSourcePath());
   }
   
   /**
@@ -37,8 +64,10 @@ public class CSSCacheBuster {
    * over-writing the original. 
    * 
    * @param fileName The absolute path to the css file to bust
+   * @param sourceFileName The absolute path to the original css file, used 
+   *        to resolve relative url references
    */
-  public void bustIt(String fileName) {
+  public void bustIt(String fileName, String sourceFileName) {
     File file = new File(fileName);
     if(!file.exists()) {
       _log.error("Couldn't find css file: " + file);
@@ -46,13 +75,49 @@ public class CSSCacheBuster {
     }
     
     String css = readCss(file);
+    String bustedCss = bust(css, sourceFileName);
+    if(bustedCss != css) writeCss(bustedCss, file);
+  }
+  
+  /**
+   * Busts the cache of all url references found in the given css, in a 
+   * single pass
+   * 
+   * @param css
+   * @param sourceFileName The absolute path to the original css file, used 
+   *        to resolve relative url references
+   * @return the busted css, or the given css if nothing was busted
+   */
+  public String bust(String css, String sourceFileName) {
     Matcher matcher = PATTERN.matcher(css);
+    StringBuffer bustedCss = new StringBuffer(css.length() + 64);
+    boolean busted = false;
     while(matcher.find()) {
-      if(matcher.groupCount() == 2) {
-        String bustedCSS = matcher.replaceAll("$1?" + file.lastModified() + "$2");
-        writeCss(bustedCSS, file);
-      }
+      String url = matcher.group(1).substring("url(".length());
+      String hash = getHash(url, sourceFileName);
+      if(hash == null) continue;
+      
+      matcher.appendReplacement(bustedCss, Matcher.quoteReplacement("url(" + addHash(url, hash) + ")"));
+      busted = true;
+    }
+    
+    if(!busted) return css;
+    matcher.appendTail(bustedCss);
+    return bustedCss.toString();
+  }
+  
+  /**
+   * @param sourceFileName the absolute path to a css file
+   * @return a fingerprint of the content of every resource referenced 
+   *         by the given css file
+   */
+  public String fingerprintReferences(String sourceFileName) {
+    StringBuilder fingerprint = new StringBuilder();
+    Matcher matcher = PATTERN.matcher(readCss(new File(sourceFileName)));
+    while(matcher.find()) {
+      fingerprint.append(getHash(matcher.group(1).substring("url(".length()), sourceFileName));
     }
+    return fingerprint.toString();
   }
   
   /**
@@ -63,15 +128,13 @@ public class CSSCacheBuster {
    */
   public String readCss(File file) {
     BufferedReader in = null;
-    ByteArrayOutputStream bytesOut = null;
-    OutputStream out = null;
+    StringBuilder css = new StringBuilder((int) file.length());
     try {
       in = new BufferedReader(new FileReader(file));
-      bytesOut = new ByteArrayOutputStream();
-      out = new BufferedOutputStream(bytesOut);
-      int c;
-      while((c = in.read()) != -1) {
-        out.write(c);
+      char[] buffer = new char[8192];
+      int read;
+      while((read = in.read(buffer)) != -1) {
+        css.append(buffer, 0, read);
       }
       
     } catch(IOException e) {
@@ -80,14 +143,96 @@ public class CSSCacheBuster {
     } finally {
       try {
         if(in != null) in.close();
-        if(out != null) out.close();
         
       } catch(IOException e) {
         _log.error("Couldn't close stream", e);
       }
     }
     
-    return new String(bytesOut.toByteArray());
+    return css.toString();
+  }
+  
+  /**
+   * @param url the url reference, as written in the css
+   * @param sourceFileName the css file containing the reference
+   * @return a hash of the referenced resource's content, or null if the 
+   *         reference is external or the resource can't be found
+   */
+  private String getHash(String url, String sourceFileName) {
+    String path = stripQuotes(url.trim());
+    int end = indexOfAny(path, "?#");
+    if(end != -1) path = path.substring(0, end);
+    if(path.length() == 0 || path.startsWith("data:") || path.startsWith("//") || 
+        path.matches("^[a-zA-Z][a-zA-Z0-9+.-]*:.*")) {
+      return null;
+    }
+    
+    File resource = path.startsWith("/") ? new File(_webrootPath, path) : 
+      new File(new File(sourceFileName).getParentFile(), path);
+    if(!resource.isFile()) {
+      _log.debug("Couldn't find css resource " + resource + " referenced from " + sourceFileName);
+      return null;
+    }
+    
+    try {
+      return _hashes.hash(resource).substring(0, HASH_LENGTH);
+      
+    } catch(IOException e) {
+      _log.error("Couldn't read css resource " + resource, e);
+      return null;
+    }
+  }
+  
+  /**
+   * Adds the given hash to the given url reference, keeping any 
+   * quotes, existing query string, and fragment in place
+   * 
+   * @param url
+   * @param hash
+   * @return
+   */
+  private String addHash(String url, String hash) {
+    String trimmed = url.trim();
+    String quote = "";
+    if(trimmed.length() > 1 && (trimmed.charAt(0) == '"' || trimmed.charAt(0) == '\'') && 
+        trimmed.charAt(trimmed.length() - 1) == trimmed.charAt(0)) {
+      quote = trimmed.substring(0, 1);
+    }
+    String path = stripQuotes(trimmed);
+    
+    String fragment = "";
+    int fragmentStart = path.indexOf('#');
+    if(fragmentStart != -1) {
+      fragment = path.substring(fragmentStart);
+      path = path.substring(0, fragmentStart);
+    }
+    
+    String separator = path.indexOf('?') == -1 ? "?" : "&";
+    return quote + path + separator + hash + fragment + quote;
+  }
+  
+  /**
+   * @param url
+   * @return the given url without any surrounding quotes
+   */
+  private String stripQuotes(String url) {
+    if(url.length() > 1 && (url.charAt(0) == '"' || url.charAt(0) == '\'') && 
+        url.charAt(url.length() - 1) == url.charAt(0)) {
+      return url.substring(1, url.length() - 1).trim();
+    }
+    return url;
+  }
+  
+  /**
+   * @param value
+   * @param chars
+   * @return the index of the first of the given characters in the given value, or -1 
+   */
+  private int indexOfAny(String value, String chars) {
+    for(int i = 0; i < value.length(); i++) {
+      if(chars.indexOf(value.charAt(i)) != -1) return i;
+    }
+    return -1;
   }
   
   /**
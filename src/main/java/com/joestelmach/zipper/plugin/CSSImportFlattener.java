@@ -0,0 +1,289 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.joestelmach.util.FileHashCache;
+
+/**
+ * Replaces the @import rules found in css with the imported stylesheets,
+ * so each stylesheet costs the browser a single request rather than one
+ * more, render blocking, request for every import.  Imports are flattened
+ * recursively, and an import with a media query is wrapped in an @media
+ * block.  Relative url references in an imported stylesheet are rewritten
+ * to resolve from the importing stylesheet, so they still find the same
+ * resource, and can be busted by the {@link CSSCacheBuster} afterwards.
+ *
+ * Imports that can't be flattened, such as those of external stylesheets,
+ * of missing files, or into a cascade layer, are moved to the top of the
+ * stylesheet, since an @import anywhere else is ignored.  An import of a
+ * stylesheet that's already being imported would never finish, and is
+ * dropped.
+ *
+ * @author Joe Stelmach
+ */
+public class CSSImportFlattener implements AssetStage {
+
+  // comments are matched too, so imports inside them are left alone
+  private static final Pattern IMPORT_PATTERN = Pattern.compile(
+      "(/\\*.*?\\*/)|@import\\s+(?:url\\(\\s*(['\"]?)([^'\")]*)\\2\\s*\\)|(['\"])([^'\"]*)\\4)\\s*([^;]*);",
+      Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern URL_PATTERN = Pattern.compile("(url\\([^\\)]*)(\\))");
+  private static final Pattern CHARSET_PATTERN = Pattern.compile("@charset\\s+[^;]*;",
+      Pattern.CASE_INSENSITIVE);
+
+  private Log _log;
+  private String _webrootPath;
+  private CSSCacheBuster _cacheBuster;
+  private FileHashCache _hashes = new FileHashCache();
+
+  /**
+   * @param log
+   * @param webrootPath the absolute path to the web root, used to resolve
+   *        absolute imports
+   * @param cacheBuster the cache buster run after this stage, whose hashes
+   *        of the resources referenced by imported stylesheets are part of
+   *        this stage's fingerprint, or null if the cache isn't busted
+   */
+  public CSSImportFlattener(Log log, String webrootPath, CSSCacheBuster cacheBuster) {
+    _log = log;
+    _webrootPath = webrootPath;
+    _cacheBuster = cacheBuster;
+  }
+
+  /**
+   * Flattens the imports found in the given asset's content
+   *
+   * @param asset
+   * @throws IOException if an imported stylesheet can't be read
+   */
+  public void process(Asset asset) throws IOException {
+    asset.setContent(flatten(asset.getContent(), asset.getSourcePath()));
+  }
+
+  /**
+   * @param asset
+   * @return a fingerprint of the content of every stylesheet the asset
+   *         imports, directly or not, along with the content of the
+   *         resources they refer to when the cache is busted
+   */
+  public String getFingerprint(Asset asset) {
+    StringBuilder fingerprint = new StringBuilder();
+    Set<File> visited = new LinkedHashSet<File>();
+    visited.add(new File(asset.getSourcePath()).getAbsoluteFile());
+    try {
+      fingerprintImports(new File(asset.getSourcePath()), visited, fingerprint);
+
+    } catch(IOException e) {
+      _log.debug("Couldn't read the imports of " + asset.getSourcePath(), e);
+    }
+    return fingerprint.toString();
+  }
+
+  /**
+   * @param css
+   * @param sourceFileName the absolute path to the css file, used to
+   *        resolve relative imports
+   * @return the given css, with its imports flattened
+   * @throws IOException if an imported stylesheet can't be read
+   */
+  public String flatten(String css, String sourceFileName) throws IOException {
+    File source = new File(sourceFileName).getAbsoluteFile();
+    Set<File> importing = new LinkedHashSet<File>();
+    importing.add(source);
+    List<String> hoisted = new ArrayList<String>();
+    String flattened = flatten(css, source, source.getParentFile(), "", importing, hoisted);
+    if(hoisted.isEmpty()) return flattened;
+
+    // any @charset has to stay first
+    StringBuilder result = new StringBuilder(flattened.length() + 64 * hoisted.size());
+    Matcher charset = CHARSET_PATTERN.matcher(flattened);
+    int start = 0;
+    if(charset.lookingAt()) {
+      result.append(charset.group()).append('\n');
+      start = charset.end();
+    }
+    for(String rule:hoisted) result.append(rule).append('\n');
+    return result.append(flattened, start, flattened.length()).toString();
+  }
+
+  /**
+   * @param css
+   * @param source the css file
+   * @param topDir the directory of the stylesheet being flattened
+   * @param media the media the css applies to, or an empty string for all
+   * @param importing the stylesheets being imported, from the stylesheet
+   *        being flattened down to this one
+   * @param hoisted the list to add the imports that can't be flattened to,
+   *        with urls relative to the stylesheet being flattened
+   * @return the given css, with its imports flattened
+   * @throws IOException if an imported stylesheet can't be read
+   */
+  private String flatten(String css, File source, File topDir, String media, Set<File> importing,
+      List<String> hoisted) throws IOException {
+
+    Matcher matcher = IMPORT_PATTERN.matcher(css);
+    StringBuffer flattened = null;
+    while(matcher.find()) {
+      if(matcher.group(1) != null) continue;
+      if(flattened == null) flattened = new StringBuffer(css.length() * 2);
+
+      String url = matcher.group(3) != null ? matcher.group(3).trim() : matcher.group(5).trim();
+      String importMedia = matcher.group(6).trim();
+      File imported = resolve(url, source);
+      String replacement = "";
+
+      if(imported == null || !imported.isFile() || importMedia.toLowerCase().startsWith("layer") ||
+          importMedia.toLowerCase().startsWith("supports(")) {
+
+        if(imported != null && !imported.isFile()) {
+          _log.warn("Couldn't find css file " + imported + " imported from " + source);
+        }
+        String hoistedUrl = imported != null && !url.startsWith("/") ? relativize(imported, topDir) : url;
+        hoisted.add("@import url(\"" + hoistedUrl + "\")" +
+            (importMedia.length() > 0 ? " " + importMedia : media.length() > 0 ? " " + media : "") + ";");
+      }
+      else if(importing.contains(imported)) {
+        _log.warn("Dropping the circular import of " + imported + " from " + source);
+      }
+      else {
+        importing.add(imported);
+        String importedCss = CHARSET_PATTERN.matcher(readFile(imported)).replaceAll("");
+        importedCss = flatten(importedCss, imported, topDir,
+            importMedia.length() > 0 ? importMedia : media, importing, hoisted);
+        importing.remove(imported);
+
+        replacement = rewriteUrls(importedCss, imported.getParentFile(), source.getParentFile());
+        if(importMedia.length() > 0) replacement = "@media " + importMedia + " {\n" + replacement + "\n}";
+      }
+      matcher.appendReplacement(flattened, Matcher.quoteReplacement(replacement));
+    }
+
+    if(flattened == null) return css;
+    matcher.appendTail(flattened);
+    return flattened.toString();
+  }
+
+  /**
+   * Appends the hash of each stylesheet imported by the given file, and of
+   * the resources it refers to, to the given fingerprint, depth first
+   *
+   * @param source
+   * @param visited the stylesheets already fingerprinted
+   * @param fingerprint
+   * @throws IOException
+   */
+  private void fingerprintImports(File source, Set<File> visited, StringBuilder fingerprint)
+      throws IOException {
+
+    Matcher matcher = IMPORT_PATTERN.matcher(readFile(source));
+    while(matcher.find()) {
+      if(matcher.group(1) != null) continue;
+      String url = matcher.group(3) != null ? matcher.group(3).trim() : matcher.group(5).trim();
+      File imported = resolve(url, source);
+      if(imported == null || !imported.isFile() || !visited.add(imported)) continue;
+
+      fingerprint.append(_hashes.hash(imported)).append(';');
+      if(_cacheBuster != null) {
+        fingerprint.append(_cacheBuster.fingerprintReferences(imported.getPath())).append(';');
+      }
+      fingerprintImports(imported, visited, fingerprint);
+    }
+  }
+
+  /**
+   * @param url an import's url, as written in the css
+   * @param source the css file containing the import
+   * @return the imported file, or null if the import is external
+   */
+  private File resolve(String url, File source) {
+    String path = stripQuery(url);
+    if(path.length() == 0 || isExternal(path)) return null;
+
+    File file = path.startsWith("/") ? new File(_webrootPath, path) :
+      new File(source.getParentFile(), path);
+    return file.toPath().normalize().toFile().getAbsoluteFile();
+  }
+
+  /**
+   * Rewrites the relative url references in the given css to resolve from
+   * another directory
+   *
+   * @param css
+   * @param fromDir the directory the references resolve from now
+   * @param toDir the directory the references should resolve from
+   * @return the rewritten css
+   */
+  private String rewriteUrls(String css, File fromDir, File toDir) {
+    if(fromDir.equals(toDir)) return css;
+
+    Matcher matcher = URL_PATTERN.matcher(css);
+    StringBuffer rewritten = new StringBuffer(css.length() + 64);
+    while(matcher.find()) {
+      String url = matcher.group(1).substring("url(".length()).trim();
+      String quote = "";
+      if(url.length() > 1 && (url.charAt(0) == '"' || url.charAt(0) == '\'') &&
+          url.charAt(url.length() - 1) == url.charAt(0)) {
+        quote = url.substring(0, 1);
+        url = url.substring(1, url.length() - 1).trim();
+      }
+
+      String path = stripQuery(url);
+      if(path.length() == 0 || path.startsWith("/") || path.startsWith("#") || isExternal(path)) continue;
+
+      String relative = relativize(new File(fromDir, path), toDir) + url.substring(path.length());
+      matcher.appendReplacement(rewritten, Matcher.quoteReplacement("url(" + quote + relative + quote + ")"));
+    }
+    matcher.appendTail(rewritten);
+    return rewritten.toString();
+  }
+
+  /**
+   * @param file
+   * @param dir
+   * @return the path to the given file, relative to the given directory
+   */
+  private String relativize(File file, File dir) {
+    String path = dir.getAbsoluteFile().toPath().normalize()
+      .relativize(file.getAbsoluteFile().toPath().normalize()).toString();
+    return path.replace(File.separatorChar, '/');
+  }
+
+  /**
+   * @param path
+   * @return true if the given path is a data uri, or has a scheme or host
+   *         of its own
+   */
+  private boolean isExternal(String path) {
+    return path.startsWith("data:") || path.startsWith("//") || path.matches("^[a-zA-Z][a-zA-Z0-9+.-]*:.*");
+  }
+
+  /**
+   * @param url
+   * @return the given url without its query string or fragment
+   */
+  private String stripQuery(String url) {
+    for(int i = 0; i < url.length(); i++) {
+      if(url.charAt(i) == '?' || url.charAt(i) == '#') return url.substring(0, i);
+    }
+    return url;
+  }
+
+  /**
+   * @param file
+   * @return the file's content
+   * @throws IOException
+   */
+  private String readFile(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()));
+  }
+}
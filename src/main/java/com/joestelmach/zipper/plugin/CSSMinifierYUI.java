@@ -7,8 +7,13 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import com.joestelmach.util.Hasher;
 import com.yahoo.platform.yui.compressor.CssCompressor;
 
 /**
@@ -16,7 +21,58 @@ import com.yahoo.platform.yui.compressor.CssCompressor;
  * 
  * @author Joe Stelmach
  */
-public class CSSMinifierYUI {
+public class CSSMinifierYUI implements AssetStage {
+  // this version of the compressor (2.4.2) removes the space in a media 
+  // query's "and (", and browsers then ignore the whole query.  Later 
+  // versions put it back, as we do, but only in @media preludes, so 
+  // strings and urls elsewhere are left alone.  It matters most for the 
+  // @media blocks the CSSImportFlattener wraps imports in.
+  private static final Pattern MEDIA_PRELUDE = Pattern.compile("@media[^{]*\\{", Pattern.CASE_INSENSITIVE);
+  private static final Pattern MEDIA_AND = Pattern.compile("\\band\\(", Pattern.CASE_INSENSITIVE);
+  
+  private int _lineBreakPosition;
+  private OutputCache _cache;
+  
+  /**
+   * 
+   */
+  public CSSMinifierYUI() {
+    this(-1);
+  }
+  
+  /**
+   * @param lineBreakPosition the column to break lines after when processing 
+   *        assets, or -1 for no line breaks
+   */
+  public CSSMinifierYUI(int lineBreakPosition) {
+    _lineBreakPosition = lineBreakPosition;
+  }
+  
+  /**
+   * @param cache the cache to look for minified css in before minifying 
+   *        it, and to store newly minified css in, or null for none
+   */
+  public void setCache(OutputCache cache) {
+    _cache = cache;
+  }
+  
+  /**
+   * Minifies the given asset's content
+   * 
+   * @param asset
+   * @throws IOException
+   */
+  public void process(Asset asset) throws IOException {
+    asset.setContent(minify(asset.getContent(), _lineBreakPosition));
+  }
+  
+  /**
+   * @param asset
+   * @return the line break position and minifier version
+   */
+  public String getFingerprint(Asset asset) {
+    return _lineBreakPosition + ":" + Hasher.version(CssCompressor.class);
+  }
   
   public void minify(String inputFileName, String outputFileName, int lineBreakPosition) throws IOException {
     // ensure that the output directory exists
@@ -30,4 +86,45 @@ public class CSSMinifierYUI {
     out.close();
     in.close();
   }
+  
+  /**
+   * @param css
+   * @param lineBreakPosition
+   * @return the minified css
+   * @throws IOException
+   */
+  public String minify(String css, int lineBreakPosition) throws IOException {
+    String key = null;
+    if(_cache != null) {
+      key = Hasher.hash("yui:" + lineBreakPosition + ":" + Hasher.version(CssCompressor.class) + ":" + 
+          Hasher.version(CSSMinifierYUI.class) + "\n" + css);
+      String minified = _cache.get(key);
+      if(minified != null) return minified;
+    }
+    
+    CssCompressor compressor = new CssCompressor(new StringReader(css));
+    StringWriter out = new StringWriter(css.length());
+    compressor.compress(out, lineBreakPosition);
+    String minified = fixMediaQueries(out.toString());
+    if(_cache != null) _cache.put(key, minified);
+    return minified;
+  }
+  
+  /**
+   * @param css
+   * @return the given css, with the space restored in each "and (" of its 
+   *         @media preludes
+   */
+  private String fixMediaQueries(String css) {
+    Matcher matcher = MEDIA_PRELUDE.matcher(css);
+    StringBuffer fixed = null;
+    while(matcher.find()) {
+      if(fixed == null) fixed = new StringBuffer(css.length() + 16);
+      matcher.appendReplacement(fixed, 
+          Matcher.quoteReplacement(MEDIA_AND.matcher(matcher.group()).replaceAll("and (")));
+    }
+    if(fixed == null) return css;
+    matcher.appendTail(fixed);
+    return fixed.toString();
+  }
 }
@@ -0,0 +1,176 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSSourceFile;
+import com.joestelmach.util.Hasher;
+
+/**
+ * Everything a closure compilation needs besides its own input: the externs
+ * and the compiler options for each compilation level.  The externs are read
+ * once, and closure's own browser externs, when they're used, are unzipped
+ * once for the life of the JVM.  Each compilation is handed fresh source
+ * files over the shared extern code, and a copy of the options for its
+ * level, since the compiler keeps state in both.  The compiler still parses
+ * the externs for each compilation, since it has no way to be handed them
+ * already parsed.  Instances may be used by several threads at once.
+ *
+ * @author Joe Stelmach
+ */
+public class ClosureContext {
+  // used when there are no other externs, so the compiler knows about alert
+  private static final String STUB_EXTERNS_NAME = "externs.js";
+  private static final String STUB_EXTERNS = "function alert(x) {}";
+
+  private static Map<String, String> _defaultExterns;
+
+  private Map<String, String> _externs;
+  private boolean _useDefaultExterns;
+  private String _fingerprint;
+  private String _codeFingerprint;
+  private Map<CompilationLevel, CompilerOptions> _options =
+    new EnumMap<CompilationLevel, CompilerOptions>(CompilationLevel.class);
+
+  /**
+   * Creates a context with no externs of its own
+   */
+  public ClosureContext() {
+    _externs = Collections.emptyMap();
+    _fingerprint = "";
+    _codeFingerprint = "";
+  }
+
+  /**
+   * @param externFileNames the absolute paths to the extern files to
+   *        compile against
+   * @throws IOException if an extern file can't be read
+   */
+  public ClosureContext(List<String> externFileNames) throws IOException {
+    this(externFileNames, false);
+  }
+
+  /**
+   * @param externFileNames the absolute paths to the extern files to
+   *        compile against
+   * @param useDefaultExterns true to compile against closure's browser
+   *        externs too, when optimizing at the advanced level
+   * @throws IOException if an extern file can't be read
+   */
+  public ClosureContext(List<String> externFileNames, boolean useDefaultExterns) throws IOException {
+    Map<String, String> externs = new LinkedHashMap<String, String>();
+    StringBuilder fingerprint = new StringBuilder();
+    StringBuilder codeFingerprint = new StringBuilder();
+    for(String fileName:externFileNames) {
+      String code = JSSourceFile.fromFile(new File(fileName)).getCode();
+      externs.put(fileName, code);
+      String hash = Hasher.hash(code);
+      fingerprint.append(fileName).append('=').append(hash).append(';');
+      codeFingerprint.append(hash).append(';');
+    }
+    if(useDefaultExterns) {
+      fingerprint.append("default;");
+      codeFingerprint.append("default;");
+    }
+    _externs = Collections.unmodifiableMap(externs);
+    _useDefaultExterns = useDefaultExterns;
+    _fingerprint = fingerprint.toString();
+    _codeFingerprint = codeFingerprint.toString();
+  }
+
+  /**
+   * @return a fingerprint of this context's own externs
+   */
+  public String getFingerprint() {
+    return _fingerprint;
+  }
+
+  /**
+   * @return a fingerprint of the code of this context's own externs, which
+   *         unlike {@link #getFingerprint()} doesn't depend on where they're
+   *         checked out
+   */
+  public String getCodeFingerprint() {
+    return _codeFingerprint;
+  }
+
+  /**
+   * Advanced optimizations rename anything they don't find in the externs,
+   * so closure's browser externs are added for them when this context uses
+   * them.  The other levels leave global names alone, and skip the cost of
+   * parsing those externs.
+   *
+   * @param level
+   * @return the externs to compile against at the given level
+   * @throws IOException if closure's browser externs can't be read
+   */
+  public List<JSSourceFile> getExterns(CompilationLevel level) throws IOException {
+    List<JSSourceFile> externs = new ArrayList<JSSourceFile>();
+    if(_useDefaultExterns && level == CompilationLevel.ADVANCED_OPTIMIZATIONS) {
+      addExterns(externs, getDefaultExterns());
+    }
+    addExterns(externs, _externs);
+    if(externs.isEmpty()) externs.add(JSSourceFile.fromCode(STUB_EXTERNS_NAME, STUB_EXTERNS));
+    return externs;
+  }
+
+  /**
+   * @param level
+   * @return a copy of the compiler options for the given level
+   */
+  public CompilerOptions getOptions(CompilationLevel level) {
+    CompilerOptions options;
+    synchronized(_options) {
+      options = _options.get(level);
+      if(options == null) {
+        // TODO allow closure options to be specified
+        options = new CompilerOptions();
+        level.setOptionsForCompilationLevel(options);
+        _options.put(level, options);
+      }
+    }
+
+    try {
+      return (CompilerOptions) options.clone();
+
+    } catch(CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param externs
+   * @param code a map of extern name to extern code
+   */
+  private void addExterns(List<JSSourceFile> externs, Map<String, String> code) {
+    for(Entry<String, String> entry:code.entrySet()) {
+      externs.add(JSSourceFile.fromCode(entry.getKey(), entry.getValue()));
+    }
+  }
+
+  /**
+   * @return the code of closure's browser externs, unzipping them the first
+   *         time they're needed
+   * @throws IOException
+   */
+  private static synchronized Map<String, String> getDefaultExterns() throws IOException {
+    if(_defaultExterns == null) {
+      Map<String, String> externs = new LinkedHashMap<String, String>();
+      for(JSSourceFile extern:CommandLineRunner.getDefaultExterns()) {
+        externs.put(extern.getName(), extern.getCode());
+      }
+      _defaultExterns = Collections.unmodifiableMap(externs);
+    }
+    return _defaultExterns;
+  }
+}
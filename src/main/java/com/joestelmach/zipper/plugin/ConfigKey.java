@@ -10,13 +10,40 @@ public enum ConfigKey {
   LINT_EXCLUDES("lint.exclude"),
   LINT_FAIL_ON_WARNING("lint.failonwarning"),
   LINT_OPTION_PREFIX("lint.option"),
+  LINT_SCRIPT("lint.script"),
+  LINT_THREADS("lint.threads"),
+  LINT_CACHE("lint.cache"),
   JS_OPTIMIZE_LEVEL("js.optimize.level"),
+  JS_OPTIMIZE_THREADS("js.optimize.threads"),
+  JS_OPTIMIZE_GROUPS("js.optimize.groups"),
+  JS_EXTERNS("js.externs"),
+  JS_EXTERNS_DEFAULT("js.externs.default"),
+  JS_STAGES("js.stages"),
   CSS_LINE_BREAK("css.line.break"),
+  CSS_FLATTEN_IMPORTS("css.flatten.imports"),
+  CSS_STAGES("css.stages"),
   ASSET_PATH_PREFIX("asset.path.prefix"),
   JS_ASSET_PREFIX("js.asset"),
   CSS_ASSET_PREFIX("css.asset"),
   GZIP("gzip"),
+  GZIP_PROFILE("gzip.profile"),
+  GZIP_MIN_SAVINGS("gzip.min.savings"),
+  GROUP_THREADS("group.threads"),
+  SHARED_MIN_GROUPS("shared.min.groups"),
+  SHARED_NAME("shared.name"),
+  MAX_SIZE("max.size"),
   BUST_CACHE("bust.cache"),
+  FINGERPRINT("fingerprint"),
+  FINGERPRINT_KEEP("fingerprint.keep"),
+  INCREMENTAL("incremental"),
+  CACHE_DIR("cache.dir"),
+  CACHE_MAX_SIZE("cache.max.size"),
+  KEEP_NON_GROUPED("keep.non.grouped"),
+  WATCH_DEBOUNCE("watch.debounce"),
+  REPORT("report"),
+  REPORT_SLOWEST("report.slowest"),
+  FILTER_CACHE_CONTROL("filter.cache.control"),
+  INLINE_MAX_SIZE("inline.max.size"),
   ENVIRONMENT("environment");
   
   private static final Map<String, ConfigKey> VALUE_MAP;
@@ -0,0 +1,32 @@
+package com.joestelmach.zipper.plugin;
+
+import java.util.zip.Deflater;
+
+/**
+ * The compression profiles available for gzipped asset groups.  Gzipping 
+ * happens once at build time, but the savings are paid back on every request,
+ * so the exhaustive profile trades a much slower build for a smaller file.
+ * 
+ * @author Joe Stelmach
+ */
+public enum GzipProfile {
+  FAST(Deflater.BEST_SPEED),
+  DEFAULT(Deflater.DEFAULT_COMPRESSION),
+  EXHAUSTIVE(Deflater.BEST_COMPRESSION);
+  
+  // the number of parsing passes made by the exhaustive profile
+  public static final int EXHAUSTIVE_ITERATIONS = 15;
+  
+  private int _level;
+  
+  private GzipProfile(int level) {
+    _level = level;
+  }
+  
+  /**
+   * @return the zlib compression level for this profile
+   */
+  public int getLevel() {
+    return _level;
+  }
+}
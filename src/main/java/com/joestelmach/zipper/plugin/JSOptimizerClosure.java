@@ -6,23 +6,106 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
 
+import org.apache.maven.plugin.MojoFailureException;
+
+import com.google.javascript.jscomp.BasicErrorManager;
+import com.google.javascript.jscomp.CheckLevel;
 import com.google.javascript.jscomp.CompilationLevel;
 import com.google.javascript.jscomp.Compiler;
 import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.ErrorFormat;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.JSModule;
 import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.jscomp.MessageFormatter;
+import com.google.javascript.jscomp.Result;
+import com.joestelmach.util.Hasher;
 
 /**
  * A simple wrapper around the Google closure compiler.
  * 
  * @author Joe Stelmach
  */
-public class JSOptimizerClosure {
+public class JSOptimizerClosure implements AssetStage {
+  
+  // the name of the empty module every other module depends on
+  private static final String ROOT_MODULE_NAME = "[root]";
+  
+  // the compiler logs each of its passes, which only buries our own output
+  static {
+    Compiler.setLoggingLevel(Level.WARNING);
+  }
+  
+  private CompilationLevel _level;
+  private ClosureContext _context;
+  private OutputCache _cache;
   
   /**
    * 
    */
-  public JSOptimizerClosure() {}
+  public JSOptimizerClosure() {
+    this(CompilationLevel.WHITESPACE_ONLY);
+  }
+  
+  /**
+   * @param level the compilation level used when processing assets
+   */
+  public JSOptimizerClosure(CompilationLevel level) {
+    this(level, new ClosureContext());
+  }
+  
+  /**
+   * @param level the compilation level used when processing assets
+   * @param context the externs and options to compile with
+   */
+  public JSOptimizerClosure(CompilationLevel level, ClosureContext context) {
+    _level = level;
+    _context = context;
+  }
+  
+  /**
+   * @param cache the cache to look for optimized javascript in before 
+   *        compiling it, and to store newly optimized javascript in, or 
+   *        null for none
+   */
+  public void setCache(OutputCache cache) {
+    _cache = cache;
+  }
+  
+  /**
+   * Optimizes the given asset's content at this optimizer's compilation level
+   * 
+   * @param asset
+   */
+  public void process(Asset asset) throws IOException {
+    asset.setContent(optimizeSource(asset.getContent(), asset.getSourcePath(), _level, asset));
+  }
+  
+  /**
+   * @param asset
+   * @return the compilation level, compiler version and externs
+   */
+  public String getFingerprint(Asset asset) {
+    return _level + ":" + Hasher.version(Compiler.class) + ":" + _context.getFingerprint();
+  }
+  
+  /**
+   * @return the compilation level used when processing assets
+   */
+  public CompilationLevel getLevel() {
+    return _level;
+  }
   
   /**
    * 
@@ -46,24 +129,451 @@ public class JSOptimizerClosure {
     in.close();
     String source = new String(buffer);
     
+    String result = optimizeSource(source, inputFileName, level);
+    
+    // write the result to the output file
+    BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(new File(outputFileName)));
+    output.write(result.getBytes());
+    output.close();
+  }
+  
+  /**
+   * 
+   * @param source the javascript to optimize
+   * @param name the name of the javascript's file, used in error messages
+   * @param level
+   * @return the optimized javascript
+   * @throws IOException if the externs can't be read
+   */
+  public String optimizeSource(String source, String name, CompilationLevel level) throws IOException {
+    return optimizeSource(source, name, level, null);
+  }
+  
+  /**
+   * @param source the javascript to optimize
+   * @param name the name of the javascript's file, used in error messages
+   * @param level
+   * @param asset the asset to add the compilation's errors and warnings to, 
+   *        rather than logging them as they're found, or null to log them
+   * @return the optimized javascript
+   * @throws IOException if the externs can't be read
+   */
+  private String optimizeSource(String source, String name, CompilationLevel level, Asset asset) 
+      throws IOException {
+    
+    String key = null;
+    if(_cache != null) {
+      key = Hasher.hash(getCacheSettings(level) + "\n" + source);
+      String optimized = _cache.get(key);
+      if(optimized != null) return optimized;
+    }
+    
     // create our closure compiler
+    Compiler compiler = asset != null ? new Compiler(new CollectingErrorManager()) : new Compiler();
+    CompilerOptions options = _context.getOptions(level);
+    
+    JSSourceFile sourceFile = JSSourceFile.fromCode(name, source);
+    List<JSSourceFile> externs = _context.getExterns(level);
+    
+    Result result = compiler.compile(externs.toArray(new JSSourceFile[externs.size()]), 
+        new JSSourceFile[] {sourceFile}, options);
+    String optimized = compiler.toSource();
+    if(asset != null) {
+      MessageFormatter formatter = ErrorFormat.SOURCELESS.toFormatter(compiler, false);
+      for(JSError error:result.errors) asset.addError(formatter.formatError(error).trim());
+      for(JSError warning:result.warnings) asset.addWarning(formatter.formatWarning(warning).trim());
+    }
+    
+    // a failed compilation's output is partial at best, and a later build 
+    // should see the errors again rather than a hit
+    if(_cache != null && result.success) _cache.put(key, optimized);
+    return optimized;
+  }
+  
+  /**
+   * Compiles the given groups together as a single compilation, so advanced 
+   * optimizations can rename and remove code across files, and every group 
+   * is renamed consistently with every other.  Each distinct set of groups 
+   * that shares files gets its own module, which depends on the modules 
+   * shared by more groups that are included before it.  A group's bundle is 
+   * made up of every module it includes files from, in the order it 
+   * includes them, so each group's files keep the order they're included 
+   * in.  Use {@link #findOrderConflict(Map, int)} to find out whether the 
+   * groups can be compiled together first.
+   * 
+   * @param groups a map of group name to the assets it includes, in order.  
+   *        Each asset's content must be loaded.
+   * @param level
+   * @return a map of group name to the group's compiled bundle
+   * @throws MojoFailureException if the compilation fails, or the groups 
+   *         can't be compiled together without reordering their files
+   * @throws IOException if the externs can't be read
+   */
+  public Map<String, String> compileGroups(Map<String, List<Asset>> groups, CompilationLevel level) 
+      throws MojoFailureException, IOException {
+    
+    return compileGroups(groups, level, null, 0);
+  }
+  
+  /**
+   * Compiles the given groups together, as {@link #compileGroups(Map, CompilationLevel)} 
+   * does, moving the modules shared by at least the given number of groups 
+   * out of each group's bundle and into a bundle of their own
+   * 
+   * @param groups
+   * @param level
+   * @param sharedName the name to give the shared bundle
+   * @param sharedMinGroups the number of groups a module must be shared by 
+   *        to be moved into the shared bundle, or 0 to leave every module 
+   *        in its groups
+   * @return a map of group name to the group's compiled bundle, starting 
+   *         with the shared bundle if any modules were moved into it
+   * @throws MojoFailureException if the compilation fails, or the groups 
+   *         can't be compiled together without reordering their files
+   * @throws IOException if the externs can't be read
+   */
+  public Map<String, String> compileGroups(Map<String, List<Asset>> groups, CompilationLevel level, 
+      String sharedName, int sharedMinGroups) throws MojoFailureException, IOException {
+    
+    ModulePlan plan = planModules(groups, sharedMinGroups);
+    if(plan._conflict != null) {
+      throw new MojoFailureException("The groups can't be compiled together without reordering " + 
+          "their files: " + plan._conflict);
+    }
+    
+    String key = null;
+    if(_cache != null) {
+      key = getCacheKey(groups, level, sharedName, sharedMinGroups);
+      Map<String, String> bundles = decodeBundles(_cache.get(key));
+      if(bundles != null) return bundles;
+    }
+    
+    // create a module for each distinct set of groups sharing files, in an 
+    // order that loads every group's files in the order it includes them
+    Map<String, Asset> files = new HashMap<String, Asset>();
+    for(List<Asset> assets:groups.values()) {
+      for(Asset asset:assets) files.put(asset.getSourcePath(), asset);
+    }
+    Map<Set<String>, JSModule> modules = new LinkedHashMap<Set<String>, JSModule>();
+    for(Set<String> groupNames:plan._order) {
+      JSModule module = new JSModule(getModuleName(groupNames));
+      for(String file:plan._moduleFiles.get(groupNames)) {
+        module.add(JSSourceFile.fromCode(file, files.get(file).getContent()));
+      }
+      modules.put(groupNames, module);
+    }
+    
+    // every module depends on the modules shared by a superset of its 
+    // groups that each of those groups includes before it
+    JSModule[] sortedModules = new JSModule[plan._order.size()];
+    for(int i = 0; i < plan._order.size(); i++) {
+      Set<String> moduleGroups = plan._order.get(i);
+      sortedModules[i] = modules.get(moduleGroups);
+      for(int j = 0; j < i; j++) {
+        Set<String> dependencyGroups = plan._order.get(j);
+        if(dependencyGroups.size() <= moduleGroups.size() || !dependencyGroups.containsAll(moduleGroups)) continue;
+        boolean before = true;
+        for(String groupName:moduleGroups) {
+          List<Set<String>> groupModules = plan._groupModules.get(groupName);
+          before &= groupModules.indexOf(dependencyGroups) < groupModules.indexOf(moduleGroups);
+        }
+        if(before) sortedModules[i].addDependency(sortedModules[j]);
+      }
+    }
+    
+    // the compiler needs a single module everything else depends on, so 
+    // when several modules depend on nothing they get an empty one.  Code 
+    // is only ever moved into modules that depend on it, so it stays empty.
+    List<JSModule> rootModules = new ArrayList<JSModule>();
+    for(JSModule module:sortedModules) {
+      if(module.getDependencies().isEmpty()) rootModules.add(module);
+    }
+    if(rootModules.size() > 1) {
+      JSModule root = new JSModule(ROOT_MODULE_NAME);
+      root.add(JSSourceFile.fromCode(ROOT_MODULE_NAME, ""));
+      for(JSModule module:rootModules) module.addDependency(root);
+      JSModule[] rootedModules = new JSModule[sortedModules.length + 1];
+      rootedModules[0] = root;
+      System.arraycopy(sortedModules, 0, rootedModules, 1, sortedModules.length);
+      sortedModules = rootedModules;
+    }
+    
     Compiler compiler = new Compiler();
+    CompilerOptions options = _context.getOptions(level);
+    List<JSSourceFile> externs = _context.getExterns(level);
+    Result result = compiler.compile(externs.toArray(new JSSourceFile[externs.size()]), 
+        sortedModules, options);
+    if(!result.success) {
+      StringBuilder message = new StringBuilder("closure compilation failed:");
+      for(JSError error:result.errors) {
+        message.append("\n").append(error.toString());
+      }
+      throw new MojoFailureException(message.toString());
+    }
     
-    // TODO allow closure options to be specified
-    CompilerOptions options = new CompilerOptions();
-    level.setOptionsForCompilationLevel(options);
+    Map<String, String> bundles = new LinkedHashMap<String, String>();
+    if(sharedMinGroups > 0) {
+      StringBuilder bundle = new StringBuilder();
+      for(Set<String> groupNames:plan._order) {
+        if(groupNames.size() >= sharedMinGroups) bundle.append(compiler.toSource(modules.get(groupNames)));
+      }
+      if(bundle.length() > 0) bundles.put(sharedName, bundle.toString());
+    }
+    for(String groupName:groups.keySet()) {
+      StringBuilder bundle = new StringBuilder();
+      for(Set<String> groupNames:plan._groupModules.get(groupName)) {
+        if(sharedMinGroups > 0 && groupNames.size() >= sharedMinGroups) continue;
+        bundle.append(compiler.toSource(modules.get(groupNames)));
+      }
+      bundles.put(groupName, bundle.toString());
+    }
+    if(_cache != null) _cache.put(key, encodeBundles(bundles));
+    return bundles;
+  }
+  
+  /**
+   * Groups can only be compiled together when the files each distinct set 
+   * of groups shares are included one after another, in the same order, by 
+   * every group sharing them, and the groups agree on the order their shared 
+   * files are loaded in.  When shared files are moved into a bundle of their 
+   * own, each group must also include them before any files of its own.
+   * 
+   * @param groups a map of group name to the assets it includes, in order
+   * @param sharedMinGroups the number of groups a module must be shared by 
+   *        to be moved into the shared bundle, or 0 to leave every module 
+   *        in its groups
+   * @return why the given groups can't be compiled together without 
+   *         reordering their files, or null if they can be
+   */
+  public static String findOrderConflict(Map<String, List<Asset>> groups, int sharedMinGroups) {
+    return planModules(groups, sharedMinGroups)._conflict;
+  }
+  
+  /**
+   * @param groups
+   * @param sharedMinGroups
+   * @return the modules the given groups are compiled as
+   */
+  private static ModulePlan planModules(Map<String, List<Asset>> groups, int sharedMinGroups) {
+    ModulePlan plan = new ModulePlan();
     
-    JSSourceFile sourceFile = JSSourceFile.fromCode(inputFileName, source.toString());
+    // find the groups each file belongs to
+    Map<String, Set<String>> fileGroups = new HashMap<String, Set<String>>();
+    for(Entry<String, List<Asset>> group:groups.entrySet()) {
+      for(Asset asset:group.getValue()) {
+        Set<String> groupNames = fileGroups.get(asset.getSourcePath());
+        if(groupNames == null) {
+          groupNames = new LinkedHashSet<String>();
+          fileGroups.put(asset.getSourcePath(), groupNames);
+        }
+        groupNames.add(group.getKey());
+      }
+    }
     
-    // TODO allow externs.js file to be specified
-    JSSourceFile externFile = JSSourceFile.fromCode("externs.js", "function alert(x) {}");
+    // each group has to include a module's files one after another, in the 
+    // same order as every other group sharing them
+    for(Entry<String, List<Asset>> group:groups.entrySet()) {
+      List<Set<String>> groupModules = new ArrayList<Set<String>>();
+      Map<Set<String>, List<String>> groupFiles = new HashMap<Set<String>, List<String>>();
+      for(Asset asset:group.getValue()) {
+        Set<String> module = fileGroups.get(asset.getSourcePath());
+        if(groupModules.isEmpty() || !groupModules.get(groupModules.size() - 1).equals(module)) {
+          if(groupModules.contains(module)) {
+            plan._conflict = "group " + group.getKey() + " doesn't include the files shared by " + 
+              getModuleName(module) + " one after another";
+            return plan;
+          }
+          groupModules.add(module);
+          groupFiles.put(module, new ArrayList<String>());
+        }
+        groupFiles.get(module).add(asset.getSourcePath());
+      }
+      
+      for(Set<String> module:groupModules) {
+        List<String> moduleFiles = plan._moduleFiles.get(module);
+        if(moduleFiles == null) {
+          plan._moduleFiles.put(module, groupFiles.get(module));
+        }
+        else if(!moduleFiles.equals(groupFiles.get(module))) {
+          plan._conflict = "the groups " + getModuleName(module) + 
+            " don't include the files they share in the same order";
+          return plan;
+        }
+      }
+      plan._groupModules.put(group.getKey(), groupModules);
+    }
     
-    compiler.compile(externFile, sourceFile, options);
-    String result = compiler.toSource();
+    // the shared bundle is loaded before anything else in a group
+    if(sharedMinGroups > 0) {
+      for(Entry<String, List<Set<String>>> group:plan._groupModules.entrySet()) {
+        boolean ownFiles = false;
+        for(Set<String> module:group.getValue()) {
+          if(module.size() < sharedMinGroups) {
+            ownFiles = true;
+          }
+          else if(ownFiles) {
+            plan._conflict = "group " + group.getKey() + " includes files before the files shared by " + 
+              getModuleName(module);
+            return plan;
+          }
+        }
+      }
+    }
     
-    // write the result to the output file
-    BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(new File(outputFileName)));
-    output.write(result.getBytes());
-    output.close();
+    // order the modules so each comes after every module a group includes 
+    // before it, keeping the order they're first included in where possible
+    Map<Set<String>, Set<Set<String>>> previousModules = new HashMap<Set<String>, Set<Set<String>>>();
+    for(Set<String> module:plan._moduleFiles.keySet()) {
+      previousModules.put(module, new HashSet<Set<String>>());
+    }
+    for(List<Set<String>> groupModules:plan._groupModules.values()) {
+      for(int i = 1; i < groupModules.size(); i++) {
+        previousModules.get(groupModules.get(i)).add(groupModules.get(i - 1));
+      }
+    }
+    Set<Set<String>> remaining = new LinkedHashSet<Set<String>>(plan._moduleFiles.keySet());
+    while(!remaining.isEmpty()) {
+      Set<String> next = null;
+      for(Set<String> module:remaining) {
+        if(!plan._order.containsAll(previousModules.get(module))) continue;
+        next = module;
+        break;
+      }
+      if(next == null) {
+        plan._conflict = "the groups don't agree on the order their shared files are loaded in";
+        return plan;
+      }
+      plan._order.add(next);
+      remaining.remove(next);
+    }
+    return plan;
+  }
+  
+  /**
+   * @param level
+   * @return everything besides the javascript itself that affects the 
+   *         optimized output at the given level: the level, the versions of 
+   *         the compiler and of the options we give it, and the externs
+   */
+  private String getCacheSettings(CompilationLevel level) {
+    return "closure:" + level + ":" + Hasher.version(Compiler.class) + ":" + 
+      Hasher.version(ClosureContext.class) + ":" + _context.getCodeFingerprint();
+  }
+  
+  /**
+   * @param groups
+   * @param level
+   * @param sharedName
+   * @param sharedMinGroups
+   * @return the cache key of compiling the given groups together.  Files 
+   *         are identified by the order they're first included in rather 
+   *         than by their paths, so the key doesn't depend on where the 
+   *         project is checked out.
+   */
+  private String getCacheKey(Map<String, List<Asset>> groups, CompilationLevel level, 
+      String sharedName, int sharedMinGroups) {
+    
+    StringBuilder key = new StringBuilder(getCacheSettings(level)).append(':')
+      .append(sharedName).append(':').append(sharedMinGroups);
+    Map<String, Integer> fileIds = new HashMap<String, Integer>();
+    for(Entry<String, List<Asset>> group:groups.entrySet()) {
+      key.append('\n').append(group.getKey()).append('=');
+      for(Asset asset:group.getValue()) {
+        Integer id = fileIds.get(asset.getSourcePath());
+        if(id == null) {
+          id = fileIds.size();
+          fileIds.put(asset.getSourcePath(), id);
+          key.append(id).append(':').append(Hasher.hash(asset.getContent())).append(';');
+        }
+        else {
+          key.append(id).append(';');
+        }
+      }
+    }
+    return Hasher.hash(key.toString());
+  }
+  
+  /**
+   * @param bundles
+   * @return the given bundles as a single string: each bundle's name and 
+   *         length on a line of their own, followed by the bundle
+   */
+  private String encodeBundles(Map<String, String> bundles) {
+    StringBuilder encoded = new StringBuilder();
+    for(Entry<String, String> bundle:bundles.entrySet()) {
+      encoded.append(bundle.getKey()).append('\n').append(bundle.getValue().length()).append('\n')
+        .append(bundle.getValue());
+    }
+    return encoded.toString();
+  }
+  
+  /**
+   * @param encoded
+   * @return the bundles encoded in the given string, or null if the string 
+   *         is null or isn't a valid encoding
+   */
+  private Map<String, String> decodeBundles(String encoded) {
+    if(encoded == null) return null;
+    Map<String, String> bundles = new LinkedHashMap<String, String>();
+    int position = 0;
+    try {
+      while(position < encoded.length()) {
+        int nameEnd = encoded.indexOf('\n', position);
+        int lengthEnd = encoded.indexOf('\n', nameEnd + 1);
+        String name = encoded.substring(position, nameEnd);
+        int start = lengthEnd + 1;
+        int end = start + Integer.parseInt(encoded.substring(nameEnd + 1, lengthEnd));
+        bundles.put(name, encoded.substring(start, end));
+        position = end;
+      }
+      
+    } catch(RuntimeException e) {
+      return null;
+    }
+    return bundles;
+  }
+  
+  /**
+   * @param groupNames
+   * @return the name of the module shared by the given groups
+   */
+  private static String getModuleName(Set<String> groupNames) {
+    StringBuilder name = new StringBuilder();
+    for(String groupName:groupNames) {
+      if(name.length() > 0) name.append('+');
+      name.append(groupName);
+    }
+    return name.toString();
+  }
+  
+  /**
+   * The modules a compilation of several groups is made up of
+   */
+  private static class ModulePlan {
+    
+    // the files of each module, keyed by the groups sharing them
+    private Map<Set<String>, List<String>> _moduleFiles = new LinkedHashMap<Set<String>, List<String>>();
+    
+    // the modules each group includes files from, in the order it includes them
+    private Map<String, List<Set<String>>> _groupModules = new LinkedHashMap<String, List<Set<String>>>();
+    
+    // every module, after each module any group includes before it
+    private List<Set<String>> _order = new ArrayList<Set<String>>();
+    
+    // why the groups can't be compiled together, or null if they can be
+    private String _conflict;
+  }
+  
+  /**
+   * Keeps a compilation's errors and warnings rather than logging them, so 
+   * they can be reported along with the asset they were found in
+   */
+  private static class CollectingErrorManager extends BasicErrorManager {
+    
+    public void println(CheckLevel level, JSError error) {
+    }
+    
+    protected void printSummary() {
+    }
   }
 }
@@ -0,0 +1,120 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+/**
+ * Runs the javascript pipeline over many assets concurrently.  Each asset gets
+ * its own compiler, and the largest files are started first so a single
+ * big file doesn't hold up the end of the build.  Since a compilation's heap
+ * usage grows with the size of its input (and is much higher for advanced
+ * optimizations), compilations are only admitted while their estimated cost
+ * fits within a share of the available heap.
+ *
+ * @author Joe Stelmach
+ */
+public class JSOptimizerPool {
+
+  // rough heap cost, in bytes, of compiling a single byte of source at each level
+  private static final Map<CompilationLevel, Integer> HEAP_COST_PER_BYTE;
+
+  static {
+    HEAP_COST_PER_BYTE = new HashMap<CompilationLevel, Integer>();
+    HEAP_COST_PER_BYTE.put(CompilationLevel.WHITESPACE_ONLY, 100);
+    HEAP_COST_PER_BYTE.put(CompilationLevel.SIMPLE_OPTIMIZATIONS, 200);
+    HEAP_COST_PER_BYTE.put(CompilationLevel.ADVANCED_OPTIMIZATIONS, 500);
+  }
+
+  private static final int KILOBYTE = 1024;
+
+  private AssetPipeline _pipeline;
+  private ExecutorService _executor;
+  private Semaphore _heapBudget;
+  private int _heapBudgetKilobytes;
+
+  /**
+   * @param pipeline the pipeline to run each asset through
+   * @param threads the number of assets to process at once
+   * @param heapBudget the total estimated heap, in bytes, that running
+   *        compilations may use at once
+   */
+  public JSOptimizerPool(AssetPipeline pipeline, int threads, long heapBudget) {
+    _pipeline = pipeline;
+    _executor = Executors.newFixedThreadPool(threads);
+    _heapBudgetKilobytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, heapBudget / KILOBYTE));
+    _heapBudget = new Semaphore(_heapBudgetKilobytes, true);
+  }
+
+  /**
+   * Schedules each of the given assets for processing, largest first
+   *
+   * @param assets
+   * @param level the compilation level the pipeline optimizes with
+   * @return a map of asset to the future result of its processing: the time 
+   *         spent processing it, in nanoseconds, not counting the wait for
+   *         heap budget
+   */
+  public Map<Asset, Future<Long>> process(Collection<Asset> assets, final CompilationLevel level) {
+    List<Asset> sortedAssets = new ArrayList<Asset>(assets);
+    final Map<Asset, Long> sizes = new HashMap<Asset, Long>();
+    for(Asset asset:sortedAssets) {
+      sizes.put(asset, new File(asset.getSourcePath()).length());
+    }
+    Collections.sort(sortedAssets, new Comparator<Asset>() {
+      public int compare(Asset first, Asset second) {
+        return sizes.get(second).compareTo(sizes.get(first));
+      }
+    });
+
+    Map<Asset, Future<Long>> futures = new HashMap<Asset, Future<Long>>();
+    for(final Asset asset:sortedAssets) {
+      final int cost = getCost(sizes.get(asset), level);
+      futures.put(asset, _executor.submit(new Callable<Long>() {
+        public Long call() throws Exception {
+          _heapBudget.acquire(cost);
+          long start = System.nanoTime();
+          try {
+            _pipeline.process(asset);
+
+          } finally {
+            _heapBudget.release(cost);
+          }
+          return System.nanoTime() - start;
+        }
+      }));
+    }
+    return futures;
+  }
+
+  /**
+   * Stops the pool's threads, abandoning any optimizations that haven't started
+   */
+  public void shutdown() {
+    _executor.shutdownNow();
+  }
+
+  /**
+   * @param size
+   * @param level
+   * @return the number of budget permits needed to compile a file of the given
+   *         size.  A file too big for the budget takes the whole budget, so it
+   *         will run by itself rather than not at all.
+   */
+  private int getCost(long size, CompilationLevel level) {
+    long kilobytes = size * HEAP_COST_PER_BYTE.get(level) / KILOBYTE;
+    return (int) Math.max(1, Math.min(_heapBudgetKilobytes, kilobytes));
+  }
+}
@@ -0,0 +1,113 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Remembers the lint warnings found in previously checked javascript, keyed
+ * by a hash of the javascript's content.  The cache as a whole belongs to a 
+ * single set of lint settings (the lint options and the linter version), and 
+ * is discarded when those settings change.
+ * 
+ * @author Joe Stelmach
+ */
+public class LintCache {
+  private static final String SETTINGS_KEY = "settings";
+  private static final String SEPARATOR = "\n";
+  
+  private File _file;
+  private String _settings;
+  private Properties _entries = new Properties();
+  private Properties _retained = new Properties();
+  
+  /**
+   * @param file the file the cache is persisted to between builds
+   * @param settings a fingerprint of the lint settings the cached warnings 
+   *        were found with
+   */
+  public LintCache(File file, String settings) {
+    _file = file;
+    _settings = settings;
+  }
+  
+  /**
+   * Loads the cache written by the previous build, unless it was written 
+   * with different lint settings
+   * 
+   * @throws IOException
+   */
+  public void load() throws IOException {
+    _entries.clear();
+    if(!_file.exists()) return;
+    
+    InputStream input = null;
+    try {
+      input = new BufferedInputStream(new FileInputStream(_file));
+      _entries.load(input);
+      
+    } finally {
+      if(input != null) input.close();
+    }
+    
+    if(!_settings.equals(_entries.getProperty(SETTINGS_KEY))) _entries.clear();
+    _entries.remove(SETTINGS_KEY);
+  }
+  
+  /**
+   * Writes out the entries used during this build
+   * 
+   * @throws IOException
+   */
+  public void save() throws IOException {
+    _retained.setProperty(SETTINGS_KEY, _settings);
+    _file.getParentFile().mkdirs();
+    OutputStream output = null;
+    try {
+      output = new BufferedOutputStream(new FileOutputStream(_file));
+      _retained.store(output, "zipper lint cache");
+      
+    } finally {
+      if(output != null) output.close();
+    }
+  }
+  
+  /**
+   * @param hash
+   * @return the warnings found in javascript with the given content hash, 
+   *         or null if that javascript hasn't been checked before
+   */
+  public List<String> get(String hash) {
+    String warnings = _entries.getProperty(hash);
+    if(warnings == null) return null;
+    
+    _retained.setProperty(hash, warnings);
+    return warnings.length() == 0 ? new ArrayList<String>() : 
+      Arrays.asList(warnings.split(SEPARATOR));
+  }
+  
+  /**
+   * Records the warnings found in javascript with the given content hash
+   * 
+   * @param hash
+   * @param warnings
+   */
+  public void put(String hash, List<String> warnings) {
+    StringBuilder joined = new StringBuilder();
+    for(String warning:warnings) {
+      if(joined.length() > 0) joined.append(SEPARATOR);
+      joined.append(warning.replace(SEPARATOR, " "));
+    }
+    _entries.setProperty(hash, joined.toString());
+    _retained.setProperty(hash, joined.toString());
+  }
+}
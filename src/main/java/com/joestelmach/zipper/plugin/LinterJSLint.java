@@ -1,9 +1,14 @@
 package com.joestelmach.zipper.plugin;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,25 +23,50 @@ import com.googlecode.jslint4java.JSLint;
 import com.googlecode.jslint4java.JSLintBuilder;
 import com.googlecode.jslint4java.JSLintResult;
 import com.googlecode.jslint4java.Option;
+import com.joestelmach.util.Hasher;
 
 /**
- * A JSLint linter
+ * A JSLint linter.  Creating a JSLint engine means evaluating the entire 
+ * jslint script, so each thread keeps its own engine, configured with the 
+ * lint options once, and re-uses it for every file it checks.
  * 
  * @author Joe Stelmach
  */
 public class LinterJSLint {
+  // the rhino edition of jslint ends with a command line wrapper that we don't want to run
+  private static final String JSLINT_END = "return itself;}());";
+  
   private Configuration _config;
   private Log _log;
-  private Map<String, String> _optionMap = new HashMap<String, String>();
+  private Map<Option, String> _options = new HashMap<Option, String>();
+  private String _script;
+  private ThreadLocal<JSLint> _engine = new ThreadLocal<JSLint>();
   
   /**
    * 
    * @param config
+   * @param log
+   * @param optionMap
+   * @param basedir the project's base directory, which a relative jslint 
+   *        script path is resolved against
+   * @throws IOException if the configured jslint script cannot be read
    */
-  LinterJSLint(Configuration config, Log log, Map<String, String> optionMap) {
+  LinterJSLint(Configuration config, Log log, Map<String, String> optionMap, File basedir) 
+      throws IOException {
+    
     _config = config;
     _log = log;
-    _optionMap = optionMap;
+    
+    for(Entry<String,String>entry:optionMap.entrySet()) {
+      try {
+        _options.put(Option.valueOf(entry.getKey().toUpperCase()), entry.getValue());
+      } catch(Exception e) {
+        _log.warn("invalid lint option: " + entry.getKey());
+      }
+    }
+    
+    String scriptName = _config.getString(ConfigKey.LINT_SCRIPT.getKey(), null);
+    if(scriptName != null) _script = readScript(scriptName, basedir);
   }
   
   /**
@@ -46,40 +76,32 @@ public class LinterJSLint {
    *         configuration specifies to fail on lint warnings.
    */
   public void check(String fileName) throws MojoFailureException {
-    _log.info("lint checking " + fileName.substring(fileName.lastIndexOf('/') + 1));
+    try {
+      report(fileName, lint(fileName));
+      
+    } catch (IOException e) {
+      reportFailure(fileName, e);
+    }
+  }
+  
+  /**
+   * Runs the file at the given absolute path through this thread's JSLint
+   * engine.  This method may be called from any number of threads at once.
+   * 
+   * @param fileName the absolute path to the file to check
+   * @return a warning for each issue found
+   * @throws IOException
+   */
+  public List<String> lint(String fileName) throws IOException {
     BufferedReader reader = null;
     try {
       reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName)));
-      
-      // add configured lint options
-      JSLint lint = new JSLintBuilder().fromDefault();
-      for(Entry<String,String>entry:_optionMap.entrySet()) {
-        try {
-          Option option = Option.valueOf(entry.getKey().toUpperCase());
-          lint.addOption(option, entry.getValue());
-        } catch(Exception e) {
-          _log.warn("invalid lint option: " + entry.getKey());
-        }
+      JSLintResult result = getEngine().lint(fileName, reader);
+      List<String> warnings = new ArrayList<String>();
+      for(Issue issue:result.getIssues()) {
+        warnings.add("line " + issue.getLine() + ": " + issue.getReason());
       }
-      
-      // run the linter, printing any issues found
-      JSLintResult result = lint.lint(fileName, reader);
-      List<Issue> issues = result.getIssues();
-      for(Issue issue:issues) {
-        _log.warn("line " + issue.getLine() + ": " + issue.getReason());
-      }
-      
-      // if some issues were found, we decide what to do with the warning
-      if(issues.size() > 0) {
-        processLintWarning("The javascript lint check failed.  You can disable lint " +
-          "checking by setting the 'lint.skip' option to true or defining a list of " +
-          "files to exclude using the 'lint.exclude' option.  Alternatively, you can" + 
-          "force the build to succeed when lint errors are present by setting the "   +
-          "'lint.failonwarning' option to false.");
-      }
-        
-    } catch (IOException e) {
-      processLintWarning(e.getMessage());
+      return warnings;
       
     } finally {
       try { if(reader != null) reader.close(); } catch(IOException e) {
@@ -88,6 +110,118 @@ public class LinterJSLint {
     }
   }
   
+  /**
+   * Prints the given warnings found in the given file, and decides what to do
+   * with them
+   * 
+   * @param fileName
+   * @param warnings
+   * @throws MojoFailureException if warnings were found and the given 
+   *         configuration specifies to fail on lint warnings.
+   */
+  public void report(String fileName, List<String> warnings) throws MojoFailureException {
+    _log.info("lint checking " + fileName.substring(fileName.lastIndexOf('/') + 1));
+    for(String warning:warnings) {
+      _log.warn(warning);
+    }
+    
+    // if some issues were found, we decide what to do with the warning
+    if(warnings.size() > 0) {
+      processLintWarning("The javascript lint check failed.  You can disable lint " +
+        "checking by setting the 'lint.skip' option to true or defining a list of " +
+        "files to exclude using the 'lint.exclude' option.  Alternatively, you can" + 
+        "force the build to succeed when lint errors are present by setting the "   +
+        "'lint.failonwarning' option to false.");
+    }
+  }
+  
+  /**
+   * Reports a file that couldn't be lint checked
+   * 
+   * @param fileName
+   * @param e
+   * @throws MojoFailureException if the given configuration specifies to
+   *         fail on lint warnings.
+   */
+  public void reportFailure(String fileName, Throwable e) throws MojoFailureException {
+    _log.info("lint checking " + fileName.substring(fileName.lastIndexOf('/') + 1));
+    processLintWarning(e.getMessage());
+  }
+  
+  /**
+   * Creates the calling thread's JSLint engine ahead of its first check, 
+   * evaluating either the configured script or jslint4java's bundled one
+   * 
+   * @throws IOException
+   */
+  public void warmUp() throws IOException {
+    getEngine();
+  }
+  
+  /**
+   * @return a token identifying the jslint script in use, without having to 
+   *         evaluate it
+   */
+  public String getVersion() {
+    return _script != null ? Hasher.hash(_script) : Hasher.version(JSLint.class);
+  }
+  
+  /**
+   * @return the calling thread's JSLint engine, creating and configuring it
+   *         the first time the thread asks for it
+   * @throws IOException
+   */
+  private JSLint getEngine() throws IOException {
+    JSLint lint = _engine.get();
+    if(lint == null) {
+      lint = _script != null ? 
+        new JSLintBuilder().fromReader(new StringReader(_script), "jslint.js") : 
+        new JSLintBuilder().fromDefault();
+        
+      for(Entry<Option, String> entry:_options.entrySet()) {
+        lint.addOption(entry.getKey(), entry.getValue());
+      }
+      _engine.set(lint);
+    }
+    return lint;
+  }
+  
+  /**
+   * Reads the jslint script with the given name, either a file or a resource
+   * on the classpath (the plugin bundles an edition of jslint as jslint.js)
+   * 
+   * @param scriptName
+   * @param basedir the directory a relative file name is resolved against
+   * @return the script, without any command line wrapper
+   * @throws IOException
+   */
+  private String readScript(String scriptName, File basedir) throws IOException {
+    File file = new File(scriptName);
+    if(!file.isAbsolute()) file = new File(basedir, scriptName);
+    InputStream input = file.exists() ? new FileInputStream(file) : 
+      getClass().getClassLoader().getResourceAsStream(scriptName);
+    if(input == null) throw new IOException("Couldn't find jslint script " + scriptName);
+    
+    StringBuilder script = new StringBuilder();
+    Reader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+      char[] buffer = new char[8192];
+      int read;
+      while((read = reader.read(buffer)) != -1) {
+        script.append(buffer, 0, read);
+      }
+      
+    } finally {
+      if(reader != null) reader.close();
+      else input.close();
+    }
+    
+    int end = script.lastIndexOf(JSLINT_END);
+    if(end != -1) script.setLength(end + JSLINT_END.length());
+    return script.toString();
+  }
+  
   /**
    *  
    */
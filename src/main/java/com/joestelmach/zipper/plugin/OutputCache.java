@@ -0,0 +1,202 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A directory of optimized and minified outputs, keyed by a hash of the
+ * input content along with everything else that affects the output, such
+ * as the compilation level and the version of the tool.  Since nothing in
+ * a key depends on where a project is checked out, the directory can be
+ * shared by every project and build agent that processes the same files,
+ * for example on a mounted filesystem.
+ *
+ * Entries are written to a temporary file and moved into place, so builds
+ * sharing the directory never see a partial entry.  Reading an entry marks
+ * it as recently used, and {@link #trim()} removes the least recently used
+ * entries once the directory grows beyond its maximum size.  The cache only
+ * ever saves time: an entry that can't be read is a miss, and an entry that
+ * can't be written is counted as a failure rather than failing the build.
+ * Instances may be used by several threads at once.
+ *
+ * @author Joe Stelmach
+ */
+public class OutputCache {
+  private static final String ENCODING = "UTF-8";
+  private static final String ENTRY_EXTENSION = ".out";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  // entries are only marked as used once in this long, so reading a hot
+  // entry doesn't write to the shared filesystem on every build
+  private static final long TOUCH_INTERVAL = 60 * 60 * 1000;
+
+  // temporary files older than this were left behind by a failed build
+  private static final long TEMP_MAX_AGE = 60 * 60 * 1000;
+
+  private File _directory;
+  private long _maxBytes;
+  private AtomicInteger _hits = new AtomicInteger();
+  private AtomicInteger _misses = new AtomicInteger();
+  private AtomicInteger _failures = new AtomicInteger();
+
+  /**
+   * @param directory the directory to keep the entries in
+   * @param maxBytes the size the entries are trimmed to
+   */
+  public OutputCache(File directory, long maxBytes) {
+    _directory = directory;
+    _maxBytes = maxBytes;
+  }
+
+  /**
+   * @param key
+   * @return the output stored under the given key, or null if there is none
+   */
+  public String get(String key) {
+    File file = getFile(key);
+    try {
+      String output = new String(Files.readAllBytes(file.toPath()), ENCODING);
+      long now = System.currentTimeMillis();
+      if(now - file.lastModified() > TOUCH_INTERVAL) file.setLastModified(now);
+      _hits.incrementAndGet();
+      return output;
+
+    } catch(IOException e) {
+      _misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Stores the given output under the given key, replacing any output
+   * already stored there
+   *
+   * @param key
+   * @param output
+   */
+  public void put(String key, String output) {
+    File file = getFile(key);
+    File temp = null;
+    try {
+      file.getParentFile().mkdirs();
+      temp = File.createTempFile(key, TEMP_EXTENSION, file.getParentFile());
+      OutputStream stream = new FileOutputStream(temp);
+      try {
+        stream.write(output.getBytes(ENCODING));
+
+      } finally {
+        stream.close();
+      }
+
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+      } catch(AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+
+    } catch(IOException e) {
+      _failures.incrementAndGet();
+      if(temp != null) temp.delete();
+    }
+  }
+
+  /**
+   * Removes the least recently used entries until the cache is no larger
+   * than its maximum size, along with any temporary files left behind by
+   * failed builds.  Entries removed by another build at the same time are
+   * skipped.
+   */
+  public void trim() {
+    final List<File> entries = new ArrayList<File>();
+    final List<Long> used = new ArrayList<Long>();
+    long now = System.currentTimeMillis();
+    long bytes = 0;
+
+    File[] directories = _directory.listFiles();
+    if(directories == null) return;
+    for(File directory:directories) {
+      File[] files = directory.listFiles();
+      if(files == null) continue;
+      for(File file:files) {
+        long lastModified = file.lastModified();
+        if(file.getName().endsWith(TEMP_EXTENSION)) {
+          if(lastModified > 0 && now - lastModified > TEMP_MAX_AGE) file.delete();
+        }
+        else if(file.getName().endsWith(ENTRY_EXTENSION)) {
+          entries.add(file);
+          used.add(lastModified);
+          bytes += file.length();
+        }
+      }
+    }
+    if(bytes <= _maxBytes) return;
+
+    // the times are read once up front, since sorting on the files' own
+    // times would see them change as other builds use them
+    List<Integer> order = new ArrayList<Integer>(entries.size());
+    for(int i = 0; i < entries.size(); i++) order.add(i);
+    Collections.sort(order, new Comparator<Integer>() {
+      public int compare(Integer first, Integer second) {
+        return used.get(first).compareTo(used.get(second));
+      }
+    });
+    for(int i = 0; i < order.size() && bytes > _maxBytes; i++) {
+      File entry = entries.get(order.get(i));
+      long length = entry.length();
+      if(entry.delete()) bytes -= length;
+    }
+  }
+
+  /**
+   * @return the number of entries found since the counts were last cleared
+   */
+  public int getHits() {
+    return _hits.get();
+  }
+
+  /**
+   * @return the number of entries looked for and not found since the
+   *         counts were last cleared
+   */
+  public int getMisses() {
+    return _misses.get();
+  }
+
+  /**
+   * @return the number of entries that couldn't be written since the
+   *         counts were last cleared
+   */
+  public int getFailures() {
+    return _failures.get();
+  }
+
+  /**
+   * Resets the hit, miss and failure counts
+   */
+  public void clearCounts() {
+    _hits.set(0);
+    _misses.set(0);
+    _failures.set(0);
+  }
+
+  /**
+   * @param key
+   * @return the file the given key's output is stored in.  Entries are
+   *         spread across directories named after the first two characters
+   *         of their keys, so no directory gets too large to list quickly.
+   */
+  private File getFile(String key) {
+    return new File(new File(_directory, key.substring(0, 2)), key + ENTRY_EXTENSION);
+  }
+}
@@ -0,0 +1,110 @@
+package com.joestelmach.zipper.plugin;
+
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import com.joestelmach.util.DirectoryWatcher;
+
+/**
+ * Builds every asset once, then watches the web root and re-builds whatever 
+ * each change affects until the build is stopped.  Only the changed files 
+ * are linted and optimized again, and only the groups that include them are 
+ * re-combined.  Bursts of changes, like a git checkout, are gathered into a 
+ * single re-build once the web root has been quiet for watch.debounce 
+ * milliseconds.  The linter, compilers and file hashes are kept between 
+ * re-builds, and every build is incremental.
+ * 
+ * zipper.properties is only read when the goal starts, so changes to the 
+ * configuration, such as new groups or options, take effect once the goal 
+ * is restarted.
+ * 
+ * @author Joe Stelmach
+ * 
+ * @goal watch
+ */
+public class WatchMojo extends ZipperMojo {
+  private static final long DEFAULT_DEBOUNCE = 300;
+  
+  private final Object _lock = new Object();
+  private long _lastChange;
+  private boolean _changed;
+  
+  /**
+   * Executes the zipper plugin, and keeps it running
+   */
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    configure();
+    long debounce = getConfiguration().getLong(ConfigKey.WATCH_DEBOUNCE.getKey(), DEFAULT_DEBOUNCE);
+    
+    DirectoryWatcher watcher = new DirectoryWatcher(getWebrootPath(), true, new Runnable() {
+      public void run() {
+        synchronized(_lock) {
+          _lastChange = System.currentTimeMillis();
+          _changed = true;
+          _lock.notifyAll();
+        }
+      }
+    });
+    
+    try {
+      watcher.start();
+      rebuild();
+      
+      getLog().info("watching " + getWebrootPath() + " for changes");
+      while(true) {
+        waitForChanges(debounce);
+        rebuild();
+      }
+      
+    } catch(IOException e) {
+      throw new MojoExecutionException("Could not watch " + getWebrootPath(), e);
+      
+    } catch(InterruptedException e) {
+      getLog().info("no longer watching " + getWebrootPath());
+      
+    } finally {
+      watcher.stop();
+      shutdown();
+    }
+  }
+  
+  /**
+   * Waits until something has changed, and then until nothing else has 
+   * changed for the given amount of time
+   * 
+   * @param debounce the number of quiet milliseconds to wait for
+   * @throws InterruptedException
+   */
+  private void waitForChanges(long debounce) throws InterruptedException {
+    synchronized(_lock) {
+      while(!_changed) _lock.wait();
+      
+      long quiet;
+      while((quiet = System.currentTimeMillis() - _lastChange) < debounce) {
+        _lock.wait(debounce - quiet);
+      }
+      _changed = false;
+    }
+  }
+  
+  /**
+   * Builds every asset affected by the changes since the last build.  A 
+   * failed build is reported, but doesn't stop the watching, since the 
+   * next change will usually fix it.
+   */
+  private void rebuild() {
+    long start = System.currentTimeMillis();
+    try {
+      build(true);
+      getLog().info("built in " + (System.currentTimeMillis() - start) + " ms");
+      
+    } catch(MojoFailureException e) {
+      getLog().error("build failed: " + e.getMessage());
+      
+    } catch(MojoExecutionException e) {
+      getLog().error("build failed: " + e.getMessage(), e.getCause());
+    }
+  }
+}
@@ -1,21 +1,31 @@
 package com.joestelmach.zipper.plugin;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPOutputStream;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.configuration.Configuration;
@@ -27,7 +37,10 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 
 import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.joestelmach.util.FileHashCache;
 import com.joestelmach.util.FileSearcher;
+import com.joestelmach.util.Hasher;
 
 /**
  * @author Joe Stelmach
@@ -39,17 +52,47 @@ public class ZipperMojo extends AbstractMojo {
   
   private List<String> _jsSourceFileNames;
   private List<String> _cssSourceFileNames;
-  private JSOptimizerClosure _jsOptimizer;
-  private CSSMinifierYUI _cssMinifier;
-  private CSSCacheBuster _cssCacheBuster;
+  private Map<String, Asset> _assets;
+  private Map<String, String> _fingerprints;
+  private List<AssetManifest.Entry> _groupEntries;
+  private AssetManifest _previousGroupEntries;
+  private Map<String, String> _groupVersions;
+  private Map<String, List<String>> _groupRequires = new HashMap<String, List<String>>();
+  private boolean _fingerprint;
+  private AssetCombiner _assetCombiner;
   private Configuration _configuration;
   private FileSearcher _fileSearcher = new FileSearcher();
+  private BuildManifest _manifest;
+  private FileHashCache _sourceHashes;
+  private boolean _incremental;
+  private LinterJSLint _linter;
+  private LintCache _lintCache;
+  private ExecutorService _lintExecutor;
+  private Map<String, String> _lintedHashes;
+  private AssetPipeline _jsPipeline;
+  private CompilationLevel _jsLevel;
+  private boolean _jsCompileGroups;
+  private ClosureContext _closureContext;
+  private String _closureExterns;
+  private BuildReport _report;
+  private AssetPipeline _cssPipeline;
+  private OutputCache _outputCache;
   
   private static final String PROP_FILE_NAME = "zipper.properties";
+  private static final String MANIFEST_FILE_NAME = "zipper-manifest.properties";
+  private static final String LINT_CACHE_FILE_NAME = "zipper-lint-cache.properties";
+  private static final String STASH_DIR_NAME = "zipper-work";
   private static final String JS_EXTENSION = ".js";
   private static final String CSS_EXTENSION = ".css";
+  private static final String GZIP_EXTENSION = ".gz";
   private static final String DEFAULT_OUTPUT_DIR = "assets";
   private static final String DEFAULT_JS_OPTIMIZE_LEVEL= "WHITESPACE_ONLY";
+  private static final int JS_OPTIMIZE_HEAP_SHARE = 75;
+  private static final int VERSION_LENGTH = 10;
+  private static final int DEFAULT_REPORT_SLOWEST = 10;
+  private static final int DEFAULT_FINGERPRINT_KEEP = 1;
+  private static final String DEFAULT_SHARED_NAME = "shared";
+  private static final long DEFAULT_CACHE_MAX_SIZE = 256L * 1024 * 1024;
   
   /**
    * The maven project.
@@ -64,12 +107,60 @@ public class ZipperMojo extends AbstractMojo {
    */
   public void execute() throws MojoExecutionException, MojoFailureException {
     configure();
-    deleteWorkDir();
-    new File(getOutputDir()).mkdirs();
-    jsLintCheck();
-    jsOptimize();
-    cssMinify();
-    concatenate();
+    try {
+      build(_configuration.getBoolean(ConfigKey.INCREMENTAL.getKey(), true));
+      
+    } finally {
+      shutdown();
+    }
+  }
+  
+  /**
+   * Builds every asset.  The linter, pipelines and file hashes set up by 
+   * the first build are kept for the next, so repeated builds by the same 
+   * instance only pay for what has changed.  The directory trees searched 
+   * during a build are only walked once, and walked again by the next build.
+   * Each stage is timed, and the timings are reported once the build is done.
+   * 
+   * @param incremental true if the outputs of the previous build should be 
+   *        kept and only re-built when their inputs change
+   * @throws MojoExecutionException
+   * @throws MojoFailureException
+   */
+  protected void build(boolean incremental) throws MojoExecutionException, MojoFailureException {
+    _incremental = incremental;
+    try {
+      long start = System.nanoTime();
+      findSourceFiles();
+      start = _report.addStage("findSourceFiles", start);
+      prepareWorkDir();
+      start = _report.addStage("prepareWorkDir", start);
+      jsLintCheck();
+      start = _report.addStage("jsLintCheck", start);
+      jsOptimize();
+      start = _report.addStage("jsOptimize", start);
+      cssMinify();
+      start = _report.addStage("cssMinify", start);
+      concatenate();
+      start = _report.addStage("concatenate", start);
+      trimOutputCache();
+      start = _report.addStage("trimOutputCache", start);
+      saveManifest();
+      _report.addStage("saveManifest", start);
+      saveReport();
+      
+    } finally {
+      _fileSearcher.clear();
+      _report = new BuildReport();
+    }
+  }
+  
+  /**
+   * Releases the threads kept between builds
+   */
+  protected void shutdown() {
+    if(_lintExecutor != null) _lintExecutor.shutdownNow();
+    _lintExecutor = null;
   }
   
   /**
@@ -77,7 +168,9 @@ public class ZipperMojo extends AbstractMojo {
    * 
    * @throws MojoFailureException if the file cannot be loaded 
    */
-  private void configure() throws MojoFailureException {
+  protected void configure() throws MojoFailureException {
+    long start = System.nanoTime();
+    
     // search for zipper.properties in the project's base directory
     List<String> paths = _fileSearcher.search("**/" + PROP_FILE_NAME, 
         _project.getBasedir().getAbsolutePath());
@@ -96,13 +189,126 @@ public class ZipperMojo extends AbstractMojo {
       }
     }
     
-    // find all the files we'll be working with inside the configured
-    // web root (relative to the project's base dir)
+    _assetCombiner = new AssetCombiner(getLog());
+    _manifest = new BuildManifest(new File(_project.getBuild().getDirectory(), MANIFEST_FILE_NAME));
+    _sourceHashes = new FileHashCache();
+    _lintedHashes = new HashMap<String, String>();
+    _outputCache = createOutputCache();
+    _report = new BuildReport();
+    _report.addStage("configure", start);
+  }
+  
+  /**
+   * @return the configured cache of optimized and minified outputs, or null 
+   *         if no cache directory is configured
+   */
+  private OutputCache createOutputCache() {
+    String directory = _configuration.getString(ConfigKey.CACHE_DIR.getKey(), null);
+    if(directory == null || directory.trim().length() == 0) return null;
+    
+    File cacheDir = new File(directory.trim());
+    if(!cacheDir.isAbsolute()) cacheDir = new File(_project.getBasedir(), directory.trim());
+    long maxSize = _configuration.getLong(ConfigKey.CACHE_MAX_SIZE.getKey(), DEFAULT_CACHE_MAX_SIZE);
+    getLog().info("caching outputs in " + cacheDir);
+    return new OutputCache(cacheDir, maxSize);
+  }
+  
+  /**
+   * Reports how well the output cache did during this build, and trims it 
+   * back to its maximum size
+   */
+  private void trimOutputCache() {
+    if(_outputCache == null) return;
+    getLog().info("output cache: " + _outputCache.getHits() + " hits, " + _outputCache.getMisses() + " misses");
+    if(_outputCache.getFailures() > 0) {
+      getLog().warn("couldn't write " + _outputCache.getFailures() + " outputs to the output cache");
+    }
+    _outputCache.clearCounts();
+    _outputCache.trim();
+  }
+  
+  /**
+   * Finds all the files we'll be working with inside the configured web root
+   */
+  private void findSourceFiles() {
     _jsSourceFileNames = _fileSearcher.search("**/*" + JS_EXTENSION, getWebrootPath());
     _cssSourceFileNames = _fileSearcher.search("**/*" + CSS_EXTENSION, getWebrootPath());
     
-    _cssMinifier = new CSSMinifierYUI();
-    _cssCacheBuster = new CSSCacheBuster(getLog());
+    // each source file becomes an asset.  Its processed content is kept in the
+    // output directory when asked for, and otherwise only kept (out of the way)
+    // when an incremental build needs it to rebuild groups later on.
+    _assets = new HashMap<String, Asset>();
+    _fingerprints = new HashMap<String, String>();
+    for(String fileName:_jsSourceFileNames) {
+      _assets.put(fileName, new Asset(fileName, getAssetOutputPath(fileName)));
+    }
+    for(String fileName:_cssSourceFileNames) {
+      _assets.put(fileName, new Asset(fileName, getAssetOutputPath(fileName)));
+    }
+  }
+  
+  /**
+   * Readies the output directory.  Incremental builds keep the outputs of the 
+   * previous build along with the manifest describing them, while 
+   * non-incremental builds start from an empty directory.
+   * 
+   * @throws MojoExecutionException if the manifest cannot be read
+   */
+  private void prepareWorkDir() throws MojoExecutionException {
+    if(_incremental) {
+      try {
+        _manifest.load();
+        
+      } catch(IOException e) {
+        throw new MojoExecutionException("Could not read the build manifest.", e);
+      }
+    }
+    else {
+      deleteWorkDir();
+    }
+    new File(getOutputDir()).mkdirs();
+  }
+  
+  /**
+   * Removes any outputs left over from source files or groups that no longer 
+   * exist, and writes the manifest out for the next build
+   * 
+   * @throws MojoExecutionException if the manifest cannot be written
+   */
+  private void saveManifest() throws MojoExecutionException {
+    for(String outputPath:_manifest.getStaleOutputs()) {
+      getLog().info("removing stale output " + outputPath);
+      new File(outputPath).delete();
+      _manifest.invalidate(outputPath);
+    }
+    
+    try {
+      _manifest.save();
+      
+    } catch(IOException e) {
+      throw new MojoExecutionException("Could not write the build manifest.", e);
+    }
+  }
+  
+  /**
+   * Writes this build's timings to the report file, and summarizes them in 
+   * the log
+   * 
+   * @throws MojoExecutionException if the report can't be written
+   */
+  private void saveReport() throws MojoExecutionException {
+    if(!_configuration.getBoolean(ConfigKey.REPORT.getKey(), true)) return;
+    
+    int slowest = _configuration.getInt(ConfigKey.REPORT_SLOWEST.getKey(), DEFAULT_REPORT_SLOWEST);
+    File file = new File(_project.getBuild().getDirectory(), BuildReport.FILE_NAME);
+    try {
+      _report.save(file, slowest);
+      
+    } catch(IOException e) {
+      throw new MojoExecutionException("Could not write the build report.", e);
+    }
+    getLog().info("build report written to " + file);
+    _report.log(getLog(), slowest);
   }
   
   /**
@@ -122,189 +328,1194 @@ public class ZipperMojo extends AbstractMojo {
       excludedFiles.addAll(_fileSearcher.search(pattern, getWebrootPath()));
     }
     
-    Map<String, String> lintOptionMap = getOptionsForPrefix(ConfigKey.LINT_OPTION_PREFIX.getKey());
-    LinterJSLint linter = new LinterJSLint(_configuration, getLog(), lintOptionMap);
+    final LinterJSLint linter = getLinter();
+    
+    // files already checked by this instance have had their warnings reported, 
+    // and aren't checked again until they change
+    List<String> fileNames = new ArrayList<String>();
+    Map<String, String> hashes = new HashMap<String, String>();
     for(String fileName:_jsSourceFileNames) {
-      if(!excludedFiles.contains(fileName)) linter.check(fileName);
+      if(excludedFiles.contains(fileName)) continue;
+      try {
+        String hash = _sourceHashes.hash(new File(fileName));
+        if(hash.equals(_lintedHashes.get(fileName))) continue;
+        hashes.put(fileName, hash);
+        
+      } catch(IOException e) {
+        // the linter will report the unreadable file
+      }
+      fileNames.add(fileName);
+    }
+    
+    // files whose content has been checked before with the same options and 
+    // linter have their warnings replayed from the cache instead
+    List<String> uncachedFileNames = new ArrayList<String>();
+    for(String fileName:fileNames) {
+      String hash = hashes.get(fileName);
+      if(_lintCache != null && hash != null && _lintCache.get(hash) != null) continue;
+      uncachedFileNames.add(fileName);
+    }
+    
+    // when running concurrently, each thread has its own JSLint engine.  Warnings 
+    // are still reported file by file in order, so the log output and the first 
+    // failure match the sequential check.
+    ExecutorService executor = getLintExecutor(uncachedFileNames.size(), linter);
+    Map<String, Future<List<String>>> futures = new HashMap<String, Future<List<String>>>();
+    if(executor != null) {
+      for(final String fileName:uncachedFileNames) {
+        futures.put(fileName, executor.submit(new Callable<List<String>>() {
+          public List<String> call() throws Exception {
+            return lint(linter, fileName);
+          }
+        }));
+      }
+    }
+    
+    try {
+      for(String fileName:fileNames) {
+        String hash = hashes.get(fileName);
+        List<String> warnings = _lintCache != null && hash != null ? _lintCache.get(hash) : null;
+        if(warnings == null) {
+          try {
+            warnings = executor != null ? futures.get(fileName).get() : lint(linter, fileName);
+            
+          } catch(ExecutionException e) {
+            linter.reportFailure(fileName, e.getCause());
+            continue;
+            
+          } catch(IOException e) {
+            linter.reportFailure(fileName, e);
+            continue;
+          }
+          if(_lintCache != null && hash != null) _lintCache.put(hash, warnings);
+        }
+        linter.report(fileName, warnings);
+        if(hash != null) _lintedHashes.put(fileName, hash);
+      }
+      
+    } catch(InterruptedException e) {
+      throw new MojoFailureException(e.getMessage());
+      
+    } finally {
+      for(Future<List<String>> future:futures.values()) future.cancel(true);
+      saveLintCache(_lintCache);
     }
   }
   
   /**
-   * Runs all the javascript files through the closure compiler
+   * Checks the given file, recording the time taken in the build report
+   * 
+   * @param linter
+   * @param fileName
+   * @return the warnings found
+   * @throws IOException if the file can't be read
+   */
+  private List<String> lint(LinterJSLint linter, String fileName) throws IOException {
+    long start = System.nanoTime();
+    List<String> warnings = linter.lint(fileName);
+    _report.addFile("jsLintCheck", getWebrootRelativePath(fileName), System.nanoTime() - start, 
+        new File(fileName).length(), -1);
+    return warnings;
+  }
+  
+  /**
+   * Creates the linter, along with its cache, the first time it's needed
+   * 
+   * @return
+   * @throws MojoExecutionException if the jslint script can't be loaded
+   */
+  private LinterJSLint getLinter() throws MojoExecutionException {
+    if(_linter == null) {
+      Map<String, String> lintOptionMap = getOptionsForPrefix(ConfigKey.LINT_OPTION_PREFIX.getKey());
+      try {
+        _linter = new LinterJSLint(_configuration, getLog(), lintOptionMap, _project.getBasedir());
+        
+      } catch(IOException e) {
+        throw new MojoExecutionException("Could not load the jslint script.", e);
+      }
+      _lintCache = loadLintCache(_linter, lintOptionMap);
+    }
+    return _linter;
+  }
+  
+  /**
+   * @param fileCount the number of files about to be checked
+   * @param linter
+   * @return the pool to check the files with, or null if they should be 
+   *         checked one after the other.  Once created, the pool is kept 
+   *         for later builds, since its threads hold warm JSLint engines.
+   */
+  private ExecutorService getLintExecutor(int fileCount, final LinterJSLint linter) {
+    int threads = _configuration.getInt(ConfigKey.LINT_THREADS.getKey(), 1);
+    if(threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+    if(threads == 1 || (_lintExecutor == null && fileCount < 2)) return null;
+    
+    if(_lintExecutor == null) {
+      _lintExecutor = Executors.newFixedThreadPool(threads);
+      
+      // a new pool starts a thread for each of its first tasks, so every 
+      // thread evaluates its jslint engine at once, rather than each one 
+      // waiting until it's handed its first file.  An engine that can't be 
+      // created fails again, and is reported, when its thread checks a file.
+      for(int i = 0; i < threads; i++) {
+        _lintExecutor.submit(new Runnable() {
+          public void run() {
+            try {
+              linter.warmUp();
+              
+            } catch(IOException e) {
+              // reported by the first check on this thread
+            }
+          }
+        });
+      }
+    }
+    return _lintExecutor;
+  }
+  
+  /**
+   * @param linter
+   * @param lintOptionMap
+   * @return the lint cache for the current lint settings, or null if caching 
+   *         has been disabled
+   */
+  private LintCache loadLintCache(LinterJSLint linter, Map<String, String> lintOptionMap) {
+    if(!_configuration.getBoolean(ConfigKey.LINT_CACHE.getKey(), true)) return null;
+    
+    String settings = Hasher.hash(new TreeMap<String, String>(lintOptionMap) + ":" + linter.getVersion());
+    LintCache cache = new LintCache(new File(_project.getBuild().getDirectory(), LINT_CACHE_FILE_NAME), settings);
+    try {
+      cache.load();
+      
+    } catch(IOException e) {
+      getLog().warn("couldn't read the lint cache, all files will be checked", e);
+    }
+    return cache;
+  }
+  
+  /**
+   * @param cache
+   */
+  private void saveLintCache(LintCache cache) {
+    if(cache == null) return;
+    try {
+      cache.save();
+      
+    } catch(IOException e) {
+      getLog().warn("couldn't write the lint cache", e);
+    }
+  }
+  
+  /**
+   * Reads the configured externs into a closure context the first time 
+   * they're needed, and again whenever one of them is added, removed or 
+   * changed, so every compilation during a build, and every build of a 
+   * watch, shares the same externs and compiler options.  The javascript 
+   * pipeline is re-created along with the context.
+   * 
+   * @return
+   * @throws MojoExecutionException if an externs file can't be read
+   */
+  private ClosureContext getClosureContext() throws MojoExecutionException {
+    List<String> externFileNames = new ArrayList<String>();
+    @SuppressWarnings("unchecked")
+    List<String> externPatterns = _configuration.getList(ConfigKey.JS_EXTERNS.getKey());
+    for(String pattern:externPatterns) {
+      externFileNames.addAll(_fileSearcher.search(pattern, _project.getBasedir().getAbsolutePath()));
+    }
+    
+    boolean useDefaultExterns = _configuration.getBoolean(ConfigKey.JS_EXTERNS_DEFAULT.getKey(), false);
+    try {
+      StringBuilder externs = new StringBuilder().append(useDefaultExterns).append(';');
+      for(String externFileName:externFileNames) {
+        externs.append(externFileName).append('=')
+          .append(_sourceHashes.hash(new File(externFileName))).append(';');
+      }
+      
+      if(_closureContext == null || !externs.toString().equals(_closureExterns)) {
+        _closureContext = new ClosureContext(externFileNames, useDefaultExterns);
+        _closureExterns = externs.toString();
+        _jsPipeline = null;
+      }
+      return _closureContext;
+      
+    } catch(IOException e) {
+      throw new MojoExecutionException("Could not read the javascript externs.", e);
+    }
+  }
+  
+  /**
+   * Runs all the javascript files through the javascript pipeline: the closure 
+   * compiler, followed by any configured stages
    * 
    * @throws MojoFailureException
+   * @throws MojoExecutionException if a configured stage can't be created
    */
-  private void jsOptimize() throws MojoFailureException {
-    if(_jsOptimizer == null) {
-      _jsOptimizer = new JSOptimizerClosure();
+  private void jsOptimize() throws MojoFailureException, MojoExecutionException {
+    ClosureContext context = getClosureContext();
+    boolean compileGroups = _configuration.getBoolean(ConfigKey.JS_OPTIMIZE_GROUPS.getKey(), false) && 
+      canCompileGroups();
+    if(_jsPipeline == null || compileGroups != _jsCompileGroups) {
+      _jsLevel = CompilationLevel.WHITESPACE_ONLY;
+      String levelString = null;
+      try {
+        levelString = _configuration.getString(ConfigKey.JS_OPTIMIZE_LEVEL.getKey(), DEFAULT_JS_OPTIMIZE_LEVEL);
+        _jsLevel = CompilationLevel.valueOf(levelString);
+        
+      } catch(Exception e) {
+        getLog().warn("Invalid compilation level: " + levelString + ".  Defaulting to " + _jsLevel.toString());
+      }
+      
+      // when whole groups are compiled, each file only goes through the 
+      // configured stages on its own
+      _jsCompileGroups = compileGroups;
+      List<AssetStage> stages = new ArrayList<AssetStage>();
+      if(!_jsCompileGroups) {
+        JSOptimizerClosure optimizer = new JSOptimizerClosure(_jsLevel, context);
+        optimizer.setCache(_outputCache);
+        stages.add(optimizer);
+      }
+      stages.addAll(getConfiguredStages(ConfigKey.JS_STAGES));
+      _jsPipeline = new AssetPipeline(stages);
     }
+    AssetPipeline pipeline = _jsPipeline;
+    CompilationLevel level = _jsLevel;
+    
+    // process each file from {webroot}/foo/bar.js to {outputdir}/foo/bar.js, 
+    // skipping any file that hasn't changed since the last build
+    List<Asset> assets = getStaleAssets(_jsSourceFileNames, pipeline);
+    
+    int threads = _configuration.getInt(ConfigKey.JS_OPTIMIZE_THREADS.getKey(), 1);
+    if(threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+    
+    if(threads == 1 || assets.size() < 2) {
+      jsOptimizeSequential(assets, pipeline, level);
+    }
+    else {
+      jsOptimizeConcurrent(assets, pipeline, level, threads);
+    }
+  }
+  
+  /**
+   * @return true if the configured javascript groups can be compiled 
+   *         together without reordering the files they include.  If they 
+   *         can't be, a warning says why.
+   */
+  private boolean canCompileGroups() {
+    Map<String, List<Asset>> namedAssets = new LinkedHashMap<String, List<Asset>>();
+    for(Entry<AssetGroup, List<Asset>> group:getGroupAssets(ConfigKey.JS_ASSET_PREFIX).entrySet()) {
+      namedAssets.put(group.getKey().getName(), group.getValue());
+    }
+    int minGroups = _configuration.getInt(ConfigKey.SHARED_MIN_GROUPS.getKey(), 0);
+    String sharedName = _configuration.getString(ConfigKey.SHARED_NAME.getKey(), DEFAULT_SHARED_NAME);
+    if(minGroups < 2 || namedAssets.size() < minGroups || namedAssets.containsKey(sharedName)) minGroups = 0;
+    
+    String conflict = JSOptimizerClosure.findOrderConflict(namedAssets, minGroups);
+    if(conflict == null) return true;
+    getLog().warn("Optimizing each javascript file on its own rather than compiling the groups " + 
+        "together, since " + conflict);
+    return false;
+  }
+  
+  /**
+   * Processes each of the given assets, one after the other
+   * 
+   * @param assets
+   * @param pipeline
+   * @param level
+   * @throws MojoFailureException
+   */
+  private void jsOptimizeSequential(List<Asset> assets, AssetPipeline pipeline, 
+      CompilationLevel level) throws MojoFailureException {
     
-    CompilationLevel level = CompilationLevel.WHITESPACE_ONLY;
-    String levelString = null;
     try {
-      levelString = _configuration.getString(ConfigKey.JS_OPTIMIZE_LEVEL.getKey(), DEFAULT_JS_OPTIMIZE_LEVEL);
-      level = CompilationLevel.valueOf(levelString);
+      for(Asset asset:assets) {
+        logJsProcessing(asset.getSourcePath());
+        long start = System.nanoTime();
+        pipeline.process(asset);
+        logJsMessages(asset);
+        saveAsset(asset);
+        reportAsset("jsOptimize", asset, System.nanoTime() - start);
+      }
       
-    } catch(Exception e) {
-      getLog().warn("Invalid compilation level: " + levelString + ".  Defaulting to " + level.toString());
+    } catch (Exception e) {
+      getLog().error(e);
+      throw new MojoFailureException(e.getMessage());
     }
+  }
+  
+  /**
+   * Processes the given assets across a pool of threads.  Results, along with 
+   * the errors and warnings of each compilation, are reported in the same 
+   * order as the sequential mode, and the first failure (in that order) fails 
+   * the build just as it would have sequentially.
+   * 
+   * @param assets
+   * @param pipeline
+   * @param level
+   * @param threads the number of assets to process at once
+   * @throws MojoFailureException
+   */
+  private void jsOptimizeConcurrent(List<Asset> assets, AssetPipeline pipeline, 
+      CompilationLevel level, int threads) throws MojoFailureException {
     
-    // optimize each file from {webroot}/foo/bar.js to {outputdir}/foo/bar.js
+    long heapBudget = Runtime.getRuntime().maxMemory() * JS_OPTIMIZE_HEAP_SHARE / 100;
+    JSOptimizerPool pool = new JSOptimizerPool(pipeline, threads, heapBudget);
     try {
-      for(String fileName:_jsSourceFileNames) {
-        getLog().info("optimizing " + fileName.substring(fileName.lastIndexOf('/') + 1) + " with " + level);
-        _jsOptimizer.optimize(fileName, getOutputPathFromSourcePath(fileName), level);
+      Map<Asset, Future<Long>> futures = pool.process(assets, level);
+      for(Asset asset:assets) {
+        logJsProcessing(asset.getSourcePath());
+        long nanos = futures.get(asset).get();
+        logJsMessages(asset);
+        long start = System.nanoTime();
+        saveAsset(asset);
+        reportAsset("jsOptimize", asset, nanos + System.nanoTime() - start);
       }
       
+    } catch (ExecutionException e) {
+      getLog().error(e.getCause());
+      throw new MojoFailureException(e.getCause().getMessage());
+      
     } catch (Exception e) {
       getLog().error(e);
       throw new MojoFailureException(e.getMessage());
+      
+    } finally {
+      pool.shutdown();
     }
   }
   
   /**
-   * Runs all the css files through the YUI minifier, and optionally cache-busts
-   * any url references
+   * @param fileName
+   */
+  private void logJsProcessing(String fileName) {
+    String name = fileName.substring(fileName.lastIndexOf('/') + 1);
+    if(_jsCompileGroups) getLog().info("processing " + name);
+    else getLog().info("optimizing " + name + " with " + _jsLevel);
+  }
+  
+  /**
+   * Logs the errors and warnings found while processing the given asset
+   * 
+   * @param asset
+   */
+  private void logJsMessages(Asset asset) {
+    for(String error:asset.getErrors()) getLog().error(error);
+    for(String warning:asset.getWarnings()) getLog().warn(warning);
+  }
+  
+  /**
+   * Runs all the css files through the css pipeline: optionally the import 
+   * flattener, the YUI minifier, optionally the cache buster, followed by 
+   * any configured stages
+   * 
+   * @throws MojoFailureException
+   * @throws MojoExecutionException if a configured stage can't be created
    */
-  private void cssMinify() throws MojoFailureException {
-    boolean bustCache = _configuration.getBoolean(ConfigKey.BUST_CACHE.getKey(), true);
+  private void cssMinify() throws MojoFailureException, MojoExecutionException {
+    if(_cssPipeline == null) {
+      boolean bustCache = _configuration.getBoolean(ConfigKey.BUST_CACHE.getKey(), true);
+      boolean flattenImports = _configuration.getBoolean(ConfigKey.CSS_FLATTEN_IMPORTS.getKey(), true);
+      int lineBreak = _configuration.getInt(ConfigKey.CSS_LINE_BREAK.getKey(), -1);
+      
+      CSSCacheBuster cacheBuster = bustCache ? new CSSCacheBuster(getLog(), getWebrootPath()) : null;
+      List<AssetStage> stages = new ArrayList<AssetStage>();
+      if(flattenImports) stages.add(new CSSImportFlattener(getLog(), getWebrootPath(), cacheBuster));
+      CSSMinifierYUI minifier = new CSSMinifierYUI(lineBreak);
+      minifier.setCache(_outputCache);
+      stages.add(minifier);
+      if(bustCache) stages.add(cacheBuster);
+      stages.addAll(getConfiguredStages(ConfigKey.CSS_STAGES));
+      _cssPipeline = new AssetPipeline(stages);
+    }
+    AssetPipeline pipeline = _cssPipeline;
+    
     try {
-      for(String fileName:_cssSourceFileNames) {
-        getLog().info("minifying " + fileName);
-        String outputFileName = getOutputPathFromSourcePath(fileName);
-        int lineBreak = _configuration.getInt(ConfigKey.CSS_LINE_BREAK.getKey(), -1);
-        _cssMinifier.minify(fileName, outputFileName, lineBreak);
-        if(bustCache) _cssCacheBuster.bustIt(outputFileName);
+      for(Asset asset:getStaleAssets(_cssSourceFileNames, pipeline)) {
+        getLog().info("minifying " + asset.getSourcePath());
+        long start = System.nanoTime();
+        pipeline.process(asset);
+        saveAsset(asset);
+        reportAsset("cssMinify", asset, System.nanoTime() - start);
       }
     } catch(IOException e) {
       throw new MojoFailureException(e.getMessage());
     }
   }
   
+  /**
+   * @param key
+   * @return an instance of each stage class named by the given key
+   * @throws MojoExecutionException if a stage can't be created
+   */
+  @SuppressWarnings("unchecked")
+  private List<AssetStage> getConfiguredStages(ConfigKey key) throws MojoExecutionException {
+    return AssetPipeline.createStages(_configuration.getList(key.getKey()));
+  }
+  
+  /**
+   * Fingerprints the asset of each of the given source files
+   * 
+   * @param fileNames
+   * @param pipeline the pipeline the assets will be processed with
+   * @return the assets that have changed since the last build, and need processing
+   * @throws MojoFailureException if a source file can't be read
+   */
+  private List<Asset> getStaleAssets(List<String> fileNames, AssetPipeline pipeline) 
+      throws MojoFailureException {
+    
+    List<Asset> staleAssets = new ArrayList<Asset>();
+    try {
+      for(String fileName:fileNames) {
+        Asset asset = _assets.get(fileName);
+        String fingerprint = fingerprint(fileName, pipeline.getFingerprint(asset));
+        _fingerprints.put(fileName, fingerprint);
+        if(asset.getOutputPath() != null && _manifest.isCurrent(asset.getOutputPath(), fingerprint)) continue;
+        staleAssets.add(asset);
+      }
+      
+    } catch (IOException e) {
+      getLog().error(e);
+      throw new MojoFailureException(e.getMessage());
+    }
+    return staleAssets;
+  }
+  
+  /**
+   * Writes the given processed asset to its output path, if it has one
+   * 
+   * @param asset
+   * @throws IOException
+   */
+  private void saveAsset(Asset asset) throws IOException {
+    if(asset.getOutputPath() == null) return;
+    asset.write();
+    _manifest.update(asset.getOutputPath(), _fingerprints.get(asset.getSourcePath()));
+  }
+  
+  /**
+   * Records the given processed asset in the build report
+   * 
+   * @param stage
+   * @param asset
+   * @param nanos the time taken to process and save the asset
+   */
+  private void reportAsset(String stage, Asset asset, long nanos) {
+    long bytesOut = asset.getOutputPath() != null ? new File(asset.getOutputPath()).length() : 
+      asset.getContent().getBytes().length;
+    _report.addFile(stage, getWebrootRelativePath(asset.getSourcePath()), nanos, 
+        getSourceBytes(Collections.singletonList(asset)), bytesOut);
+  }
+  
+  /**
+   * @param assets
+   * @return the combined size of the source files of the given assets
+   */
+  private long getSourceBytes(List<Asset> assets) {
+    long bytes = 0;
+    for(Asset asset:assets) bytes += new File(asset.getSourcePath()).length();
+    return bytes;
+  }
+  
   /**
    * Concatenates the configured asset.js and asset.css groups
    * 
    * @throws MojoExecutionException
+   * @throws MojoFailureException if javascript groups are compiled, and the 
+   *         compilation fails
    */
-  private void concatenate() throws MojoExecutionException {
+  private void concatenate() throws MojoExecutionException, MojoFailureException {
     File outputDirectory = new File(getOutputDir());
     if(!outputDirectory.exists()) {
       outputDirectory.mkdirs();
     }
     
-    processGroups(getGroups(ConfigKey.JS_ASSET_PREFIX), 
-        outputDirectory.getAbsolutePath(), JS_EXTENSION);
+    _groupEntries = new ArrayList<AssetManifest.Entry>();
+    _groupVersions = new ConcurrentHashMap<String, String>();
+    _groupRequires = new HashMap<String, List<String>>();
+    _fingerprint = _configuration.getBoolean(ConfigKey.FINGERPRINT.getKey(), false);
+    _previousGroupEntries = loadAssetManifest(outputDirectory);
+    
+    // groups are independent of each other, so we build them concurrently
+    int threads = _configuration.getInt(ConfigKey.GROUP_THREADS.getKey(), 0);
+    if(threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    
+    try {
+      List<Future<Void>> builds = new ArrayList<Future<Void>>();
+      if(_jsCompileGroups) {
+        builds.addAll(processCompiledGroups(getGroupAssets(ConfigKey.JS_ASSET_PREFIX), 
+            outputDirectory.getAbsolutePath(), executor));
+      }
+      else {
+        builds.addAll(processGroups(splitGroups(extractSharedAssets(getGroupAssets(ConfigKey.JS_ASSET_PREFIX), 
+            ConfigKey.JS_ASSET_PREFIX), ConfigKey.JS_ASSET_PREFIX), outputDirectory.getAbsolutePath(), 
+            JS_EXTENSION, executor));
+      }
+      
+      builds.addAll(processGroups(splitGroups(extractSharedAssets(getGroupAssets(ConfigKey.CSS_ASSET_PREFIX), 
+          ConfigKey.CSS_ASSET_PREFIX), ConfigKey.CSS_ASSET_PREFIX), outputDirectory.getAbsolutePath(), 
+          CSS_EXTENSION, executor));
+      
+      // wait for every group, failing on the first one (in configuration order) that failed
+      for(Future<Void> build:builds) {
+        try {
+          build.get();
+          
+        } catch(ExecutionException e) {
+          if(e.getCause() instanceof MojoExecutionException) {
+            throw (MojoExecutionException) e.getCause();
+          }
+          throw new MojoExecutionException("Something went wrong combining assets.", e.getCause());
+        }
+      }
+      collectFingerprints(outputDirectory, writeAssetManifest(outputDirectory));
+      
+    } catch(InterruptedException e) {
+      throw new MojoExecutionException("Interrupted while combining assets.", e);
+      
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * @param outputDirectory
+   * @return the asset manifest written by the previous build, or null if 
+   *         there isn't one
+   */
+  private AssetManifest loadAssetManifest(File outputDirectory) {
+    File file = new File(outputDirectory, AssetManifest.FILE_NAME);
+    if(!file.exists()) return null;
+    try {
+      return AssetManifest.load(file);
+      
+    } catch(IOException e) {
+      getLog().warn("couldn't read the previous asset manifest, all groups will be built", e);
+      return null;
+    }
+  }
+  
+  /**
+   * Writes the asset manifest, describing each group that was built, for the 
+   * asset tag to render includes with.  Groups built under a fingerprinted 
+   * name during this build are described by the name they were given.
+   * 
+   * @param outputDirectory
+   * @return the entries written
+   * @throws MojoExecutionException if the manifest can't be written
+   */
+  private List<AssetManifest.Entry> writeAssetManifest(File outputDirectory) throws MojoExecutionException {
+    List<AssetManifest.Entry> entries = new ArrayList<AssetManifest.Entry>();
+    for(AssetManifest.Entry entry:_groupEntries) {
+      List<String> requires = _groupRequires.get(entry.getType() + "." + entry.getName());
+      String path = entry.getPath();
+      String version = _groupVersions.get(entry.getType() + "." + entry.getName());
+      if(version != null) {
+        path = AssetManifest.getFingerprintedPath(entry.getName() + "." + entry.getType(), version);
+      }
+      else {
+        version = entry.getVersion();
+      }
+      
+      File file = new File(outputDirectory, path);
+      if(!file.exists()) continue;
+      entries.add(new AssetManifest.Entry(entry.getType(), entry.getName(), path, version, file.length(), 
+          requires != null ? requires : Collections.<String>emptyList()));
+    }
     
-    processGroups(getGroups(ConfigKey.CSS_ASSET_PREFIX), 
-        outputDirectory.getAbsolutePath(), CSS_EXTENSION);
+    try {
+      AssetManifest.save(new File(outputDirectory, AssetManifest.FILE_NAME), entries);
+      
+    } catch(IOException e) {
+      throw new MojoExecutionException("Could not write the asset manifest.", e);
+    }
+    return entries;
   }
   
   /**
-   * Processes the given asset group, combining the optimized version of each 
-   * included file into a new file with the group's name, stored in the given 
-   * directory.
+   * Removes the fingerprinted files of each of the given groups that the 
+   * manifest no longer refers to.  Pages rendered before a deploy may still 
+   * refer to the files of earlier builds, so the most recent few are kept 
+   * while fingerprinting.
    * 
-   * @param groups
-   * @throws MojoExecutionException 
+   * @param outputDirectory
+   * @param entries the groups described by the asset manifest
    */
-  private void processGroups(List<? extends AssetGroup> groups, 
-      String outputDirectory, String outputSuffix) throws MojoExecutionException {
+  private void collectFingerprints(File outputDirectory, List<AssetManifest.Entry> entries) {
+    int keep = !_fingerprint ? 0 : 
+      _configuration.getInt(ConfigKey.FINGERPRINT_KEEP.getKey(), DEFAULT_FINGERPRINT_KEEP);
     
-    // for each group, we'll create a list of files that should
-    // be included, and attempt to combine them with the configured name
-    for(AssetGroup group:groups) {
-      List<String> includedOptimizedFiles = new ArrayList<String>();
-      getLog().info("building " + outputSuffix + " asset " + group.getName());
+    for(AssetManifest.Entry entry:entries) {
+      File file = new File(outputDirectory, entry.getName() + "." + entry.getType());
+      String name = file.getName().substring(0, file.getName().lastIndexOf('.'));
+      Pattern pattern = Pattern.compile(Pattern.quote(name) + "\\.[0-9a-f]{" + VERSION_LENGTH + "}" + 
+          Pattern.quote("." + entry.getType()));
+      String current = entry.isFingerprinted() ? new File(outputDirectory, entry.getPath()).getName() : null;
       
-      for(String include:group.getIncludes()) {
-        for(String fileName:_fileSearcher.search(include, getOutputDir())) {
-          includedOptimizedFiles.add(fileName);
+      File[] children = file.getParentFile().listFiles();
+      if(children == null) continue;
+      List<File> previous = new ArrayList<File>();
+      for(File child:children) {
+        if(pattern.matcher(child.getName()).matches() && !child.getName().equals(current)) {
+          previous.add(child);
         }
       }
       
-      String outputFileName = outputDirectory + "/" + group.getName() + outputSuffix;
-      if(includedOptimizedFiles.size() > 0) {
-        combineAssets(includedOptimizedFiles, outputFileName, group.getGzip());
+      // the most recently built are kept
+      Collections.sort(previous, new Comparator<File>() {
+        public int compare(File a, File b) {
+          return a.lastModified() > b.lastModified() ? -1 : a.lastModified() < b.lastModified() ? 1 : 0;
+        }
+      });
+      for(File stale:previous.subList(Math.min(keep, previous.size()), previous.size())) {
+        getLog().info("removing stale fingerprint " + stale.getName());
+        File gzip = new File(stale.getPath() + GZIP_EXTENSION);
+        stale.delete();
+        gzip.delete();
+        _manifest.invalidate(stale.getPath());
+        _manifest.invalidate(gzip.getPath());
       }
     }
   }
   
   /**
-   * Combines the given assets into a file with the given name
+   * @param prefix
+   * @return the configured groups of the given prefix that include any 
+   *         files, along with the asset of each file they include
+   */
+  private Map<AssetGroup, List<Asset>> getGroupAssets(ConfigKey prefix) {
+    Map<AssetGroup, List<Asset>> groupAssets = new LinkedHashMap<AssetGroup, List<Asset>>();
+    for(AssetGroup group:getGroups(prefix)) {
+      List<Asset> assets = getIncludedAssets(group);
+      if(!assets.isEmpty()) groupAssets.put(group, assets);
+    }
+    return groupAssets;
+  }
+  
+  /**
+   * Moves the files included by at least shared.min.groups of the given 
+   * groups into a shared group of their own, which each group they were 
+   * moved out of requires, so they're only downloaded once.  A file is only 
+   * moved when every group including it starts with shared files up to and 
+   * including it, and would still include a file of its own afterwards, so 
+   * no group changes the order its files are loaded in.
    * 
-   * @param assets
-   * @param outputFileName
-   * @throws MojoExecutionException if an asset cannot be found, or an IOException occurs
+   * @param groupAssets
+   * @param prefix
+   * @return the given groups, after the shared group if there is one, with 
+   *         the files moved into it removed
    */
-  private void combineAssets(Collection<String> assets, String outputFileName, boolean gzip) 
-      throws MojoExecutionException {
+  Map<AssetGroup, List<Asset>> extractSharedAssets(Map<AssetGroup, List<Asset>> groupAssets, 
+      ConfigKey prefix) {
     
-    File outputFile = new File(outputFileName);
-    File gzipOutputFile = new File(outputFileName + ".gz");
+    AssetGroup sharedGroup = getSharedGroup(groupAssets.keySet(), prefix);
+    if(sharedGroup == null) return groupAssets;
+    Set<Asset> shared = getSharedAssets(groupAssets.values());
     
-    OutputStream output = null;
-    GZIPOutputStream gzipOutput = null;
-    boolean success = true;
-    try {
-      if(!outputFile.exists()) outputFile.createNewFile();
-      output = new BufferedOutputStream(new FileOutputStream(outputFile));
-      
-      if(gzip) {
-        if(!gzipOutputFile.exists()) gzipOutputFile.createNewFile();
-        gzipOutput = new GZIPOutputStream(new BufferedOutputStream(
-            new FileOutputStream(gzipOutputFile)));
-      }
-      
-      for(String asset:assets) {
-        File file = new File(asset);
-        if(!file.exists()) {
-          success = false;
-          throw new MojoExecutionException("couldn't find file " + asset +
-            ".  Please specify the path using the standard ant patterns: " +
-            "http://ant.apache.org/manual/dirtasks.html#patterns");
+    // files stop being candidates once a group includes them after one of 
+    // its own, which can end the leading run of shared files in other groups
+    boolean changed = true;
+    while(changed && !shared.isEmpty()) {
+      changed = false;
+      for(List<Asset> assets:groupAssets.values()) {
+        for(Asset asset:assets.subList(getSharedRunLength(assets, shared), assets.size())) {
+          changed |= shared.remove(asset);
         }
-        else {
-          getLog().info("adding file: " + asset + " to " + outputFileName);
-          writeAssetToStream(asset, output);
-          if(gzip) writeAssetToStream(asset, gzipOutput);
+      }
+    }
+    if(shared.isEmpty()) return groupAssets;
+    
+    // the shared group loads its files in the order they're first included, 
+    // which must agree with every group moving them
+    List<Asset> sharedAssets = new ArrayList<Asset>();
+    for(List<Asset> assets:groupAssets.values()) {
+      List<Asset> run = assets.subList(0, getSharedRunLength(assets, shared));
+      int position = -1;
+      for(Asset asset:run) {
+        if(!sharedAssets.contains(asset)) sharedAssets.add(asset);
+        int index = sharedAssets.indexOf(asset);
+        if(index < position) {
+          getLog().warn("groups include shared files in different orders, so they aren't moved into " + 
+              sharedGroup.getName());
+          return groupAssets;
         }
+        position = index;
       }
-        
-    } catch (Exception e) {
-      getLog().error("couldn't create asset file " + outputFileName, e);
-      throw new MojoExecutionException("Something went wrong combining assets.", e);
+    }
+    
+    Map<AssetGroup, List<Asset>> extracted = new LinkedHashMap<AssetGroup, List<Asset>>();
+    extracted.put(sharedGroup, sharedAssets);
+    String type = prefix.equals(ConfigKey.JS_ASSET_PREFIX) ? "js" : "css";
+    for(Entry<AssetGroup, List<Asset>> group:groupAssets.entrySet()) {
+      List<Asset> assets = group.getValue();
+      int runLength = getSharedRunLength(assets, shared);
+      if(runLength > 0) {
+        _groupRequires.put(type + "." + group.getKey().getName(), Collections.singletonList(sharedGroup.getName()));
+      }
+      extracted.put(group.getKey(), assets.subList(runLength, assets.size()));
+    }
+    getLog().info("moving " + sharedAssets.size() + " shared files into " + type + " asset " + 
+        sharedGroup.getName());
+    return extracted;
+  }
+  
+  /**
+   * Splits each of the given groups whose files add up to more than its 
+   * max.size into parts, at file boundaries, so the browser can download 
+   * them in parallel.  Every part but the last becomes a group of its own, 
+   * named after the group and the part's number, which the group requires 
+   * in order.  The group itself keeps the last part.
+   * 
+   * @param groupAssets
+   * @param prefix
+   * @return the given groups, each after its parts
+   * @throws MojoExecutionException if an asset's size can't be found
+   */
+  Map<AssetGroup, List<Asset>> splitGroups(Map<AssetGroup, List<Asset>> groupAssets, 
+      ConfigKey prefix) throws MojoExecutionException {
+    
+    String type = prefix.equals(ConfigKey.JS_ASSET_PREFIX) ? "js" : "css";
+    Map<AssetGroup, List<Asset>> split = new LinkedHashMap<AssetGroup, List<Asset>>();
+    for(Entry<AssetGroup, List<Asset>> groupEntry:groupAssets.entrySet()) {
+      AssetGroup group = groupEntry.getKey();
+      List<Asset> assets = groupEntry.getValue();
+      long maxSize = getMaxSize(group, prefix);
       
-    } finally {
-      try {
-        if(output != null) output.close();
-        if(gzipOutput != null) gzipOutput.close();
-        if(!success) {
-          outputFile.delete();
-          gzipOutputFile.delete();
+      // each part takes as many files as fit, and at least one
+      List<List<Asset>> parts = new ArrayList<List<Asset>>();
+      List<Asset> part = new ArrayList<Asset>();
+      long partSize = 0;
+      for(Asset asset:assets) {
+        long size = getProcessedSize(asset);
+        if(maxSize > 0 && !part.isEmpty() && partSize + size > maxSize) {
+          parts.add(part);
+          part = new ArrayList<Asset>();
+          partSize = 0;
         }
-        
-      } catch (IOException e) {
-        getLog().error("couldn't close writer", e);
+        part.add(asset);
+        partSize += size;
+      }
+      parts.add(part);
+      
+      if(parts.size() > 1) {
+        getLog().info("splitting " + type + " asset " + group.getName() + " into " + parts.size() + " parts");
+        String key = type + "." + group.getName();
+        List<String> requires = new ArrayList<String>();
+        if(_groupRequires.containsKey(key)) requires.addAll(_groupRequires.get(key));
+        for(int i = 0; i < parts.size() - 1; i++) {
+          AssetGroup partGroup = new AssetGroup();
+          partGroup.setName(group.getName() + "." + (i + 1));
+          partGroup.setGzip(group.getGzip());
+          partGroup.setGzipProfile(group.getGzipProfile());
+          partGroup.setGzipMinSavings(group.getGzipMinSavings());
+          split.put(partGroup, parts.get(i));
+          requires.add(partGroup.getName());
+        }
+        _groupRequires.put(key, requires);
+      }
+      split.put(group, parts.get(parts.size() - 1));
+    }
+    return split;
+  }
+  
+  /**
+   * @param group
+   * @param prefix
+   * @return the largest size, in bytes, the given group's output should 
+   *         have before it's split into parts, or 0 if it's never split
+   */
+  private long getMaxSize(AssetGroup group, ConfigKey prefix) {
+    String maxSize = getGroupString(ConfigKey.MAX_SIZE, prefix, group.getName(), "0");
+    try {
+      return Long.parseLong(maxSize.trim());
+      
+    } catch(NumberFormatException e) {
+      getLog().warn("Invalid maximum size: " + maxSize + ".  " + group.getName() + " won't be split");
+      return 0;
+    }
+  }
+  
+  /**
+   * @param asset
+   * @return the size of the given asset's processed content
+   * @throws MojoExecutionException if the asset's output can't be found
+   */
+  private long getProcessedSize(Asset asset) throws MojoExecutionException {
+    if(asset.getContent() != null) return asset.getContent().getBytes().length;
+    File output = asset.getOutputPath() != null ? new File(asset.getOutputPath()) : null;
+    if(output == null || !output.exists()) {
+      throw new MojoExecutionException("couldn't find the processed output of " + asset.getSourcePath());
+    }
+    return output.length();
+  }
+  
+  /**
+   * @param groups
+   * @param prefix
+   * @return the group shared files are moved into, or null if files 
+   *         shouldn't be moved
+   */
+  private AssetGroup getSharedGroup(Set<AssetGroup> groups, ConfigKey prefix) {
+    int minGroups = _configuration.getInt(ConfigKey.SHARED_MIN_GROUPS.getKey(), 0);
+    if(minGroups < 2 || groups.size() < minGroups) return null;
+    
+    String name = _configuration.getString(ConfigKey.SHARED_NAME.getKey(), DEFAULT_SHARED_NAME);
+    for(AssetGroup group:groups) {
+      if(group.getName().equals(name)) {
+        getLog().warn("a group is already named " + name + ", so shared files aren't moved out of " +
+            "their groups.  Set " + ConfigKey.SHARED_NAME.getKey() + " to another name.");
+        return null;
       }
     }
+    
+    AssetGroup sharedGroup = new AssetGroup();
+    sharedGroup.setName(name);
+    sharedGroup.setGzip(_configuration.getBoolean(ConfigKey.GZIP.getKey(), true));
+    configureGzip(sharedGroup, prefix);
+    return sharedGroup;
   }
   
   /**
+   * @param groupAssets
+   * @return the assets included by at least shared.min.groups of the given groups
+   */
+  private Set<Asset> getSharedAssets(Collection<List<Asset>> groupAssets) {
+    int minGroups = _configuration.getInt(ConfigKey.SHARED_MIN_GROUPS.getKey(), 0);
+    Map<Asset, Integer> counts = new HashMap<Asset, Integer>();
+    for(List<Asset> assets:groupAssets) {
+      for(Asset asset:assets) {
+        Integer count = counts.get(asset);
+        counts.put(asset, count == null ? 1 : count + 1);
+      }
+    }
+    
+    Set<Asset> shared = new HashSet<Asset>();
+    for(Entry<Asset, Integer> count:counts.entrySet()) {
+      if(count.getValue() >= minGroups) shared.add(count.getKey());
+    }
+    return shared;
+  }
+  
+  /**
+   * @param assets
+   * @param shared
+   * @return the number of shared assets the given group starts with, 
+   *         leaving at least one of its own
+   */
+  private int getSharedRunLength(List<Asset> assets, Set<Asset> shared) {
+    int length = 0;
+    while(length < assets.size() - 1 && shared.contains(assets.get(length))) length++;
+    return length;
+  }
+  
+  /**
+   * Processes the given asset group, combining the processed asset of each 
+   * included source file into a new file with the group's name, stored in the given 
+   * directory.
    * 
-   * @param assetFileName
-   * @param writer
+   * @param groupAssets each group to process, along with the assets it includes
+   * @param outputDirectory
+   * @param outputSuffix
+   * @param executor the executor to build each group with
+   * @return the pending build of each group that is out of date
    */
-  private void writeAssetToStream(String assetFileName, OutputStream output) throws IOException {
-    InputStream input = null;
+  private List<Future<Void>> processGroups(Map<AssetGroup, List<Asset>> groupAssets, 
+      String outputDirectory, String outputSuffix, ExecutorService executor) {
+    
+    // each group's included files are combined under the configured name
+    List<Future<Void>> builds = new ArrayList<Future<Void>>();
+    for(Entry<AssetGroup, List<Asset>> groupEntry:groupAssets.entrySet()) {
+      AssetGroup group = groupEntry.getKey();
+      List<Asset> includedAssets = groupEntry.getValue();
+      
+      // the group's fingerprint is made up of the fingerprints of each of
+      // its files, so it will only be rebuilt when one of them changes
+      StringBuilder fingerprint = new StringBuilder(getGroupSettings(group));
+      appendFingerprints(fingerprint, includedAssets);
+      String groupFingerprint = Hasher.hash(fingerprint.toString());
+      
+      String outputFileName = outputDirectory + "/" + group.getName() + outputSuffix;
+      if(isGroupCurrent(group, outputFileName, outputSuffix, groupFingerprint)) continue;
+      
+      getLog().info("building " + outputSuffix + " asset " + group.getName());
+      builds.add(buildGroup(group, includedAssets, getSourceBytes(includedAssets), outputFileName, 
+          groupFingerprint, executor));
+    }
+    return builds;
+  }
+  
+  /**
+   * Processes the given javascript groups by compiling them all together 
+   * with the closure compiler, and writing each group's compiled bundle to 
+   * a file with the group's name, stored in the given directory.  Since the 
+   * compilation covers every group, a change to any of them re-builds them all.
+   * The compiled modules shared by at least shared.min.groups groups are 
+   * written to a shared group of their own, which those groups require.  
+   * Compiled groups are never split into parts, so max.size is ignored.
+   * 
+   * @param includedAssets each group to compile, along with the assets it includes
+   * @param outputDirectory
+   * @param executor the executor to write and gzip each group with
+   * @return the pending build of each group, if they're out of date
+   * @throws MojoExecutionException if an externs file or a previous build's 
+   *         output can't be read
+   * @throws MojoFailureException if the compilation fails
+   */
+  private List<Future<Void>> processCompiledGroups(Map<AssetGroup, List<Asset>> includedAssets, 
+      String outputDirectory, ExecutorService executor) 
+      throws MojoExecutionException, MojoFailureException {
+    
+    List<Future<Void>> builds = new ArrayList<Future<Void>>();
+    if(includedAssets.isEmpty()) return builds;
+    
+    for(AssetGroup group:includedAssets.keySet()) {
+      if(getMaxSize(group, ConfigKey.JS_ASSET_PREFIX) > 0) {
+        getLog().warn("js asset " + group.getName() + " won't be split into parts, since " + 
+            ConfigKey.MAX_SIZE.getKey() + " is ignored when groups are compiled together");
+      }
+    }
+    
+    // the compiler moves each shared file into a module along with the 
+    // other files included by exactly the same groups, so whole modules 
+    // can be moved into the shared group
+    Map<AssetGroup, List<Asset>> builtAssets = new LinkedHashMap<AssetGroup, List<Asset>>();
+    AssetGroup sharedGroup = getSharedGroup(includedAssets.keySet(), ConfigKey.JS_ASSET_PREFIX);
+    if(sharedGroup != null) {
+      Set<Asset> shared = getSharedAssets(includedAssets.values());
+      List<Asset> sharedAssets = new ArrayList<Asset>();
+      for(Entry<AssetGroup, List<Asset>> group:includedAssets.entrySet()) {
+        for(Asset asset:group.getValue()) {
+          if(!shared.contains(asset)) continue;
+          if(!sharedAssets.contains(asset)) sharedAssets.add(asset);
+          _groupRequires.put("js." + group.getKey().getName(), Collections.singletonList(sharedGroup.getName()));
+        }
+      }
+      if(sharedAssets.isEmpty()) sharedGroup = null;
+      else builtAssets.put(sharedGroup, sharedAssets);
+    }
+    builtAssets.putAll(includedAssets);
+    
+    ClosureContext context = getClosureContext();
+    StringBuilder fingerprint = new StringBuilder().append(_jsLevel).append(':')
+      .append(Hasher.version(Compiler.class)).append(':').append(context.getFingerprint());
+    for(Entry<AssetGroup, List<Asset>> group:builtAssets.entrySet()) {
+      fingerprint.append(':').append(group.getKey().getName());
+      appendFingerprints(fingerprint, group.getValue());
+    }
+    
+    Map<AssetGroup, String> groupFingerprints = new HashMap<AssetGroup, String>();
+    boolean current = true;
+    for(AssetGroup group:builtAssets.keySet()) {
+      String groupFingerprint = Hasher.hash(getGroupSettings(group) + ":" + fingerprint);
+      groupFingerprints.put(group, groupFingerprint);
+      current &= isGroupCurrent(group, outputDirectory + "/" + group.getName() + JS_EXTENSION, 
+          JS_EXTENSION, groupFingerprint);
+    }
+    if(current) return builds;
+    
+    // files that weren't processed during this build are read back from 
+    // the previous build's output
+    Map<String, List<Asset>> namedAssets = new LinkedHashMap<String, List<Asset>>();
     try {
-      input = new BufferedInputStream(new FileInputStream(new File(assetFileName)));
-      while(input.available() > 0) {
-        output.write(input.read());
+      for(Entry<AssetGroup, List<Asset>> group:includedAssets.entrySet()) {
+        for(Asset asset:group.getValue()) {
+          if(asset.getContent() == null) asset.readOutput();
+        }
+        namedAssets.put(group.getKey().getName(), group.getValue());
       }
       
-    } finally {
-      if(input != null) input.close();
+    } catch(IOException e) {
+      throw new MojoExecutionException("Could not read the javascript to compile.", e);
+    }
+    
+    getLog().info("compiling " + JS_EXTENSION + " assets " + namedAssets.keySet() + " with " + _jsLevel);
+    long start = System.nanoTime();
+    Map<String, String> bundles;
+    try {
+      JSOptimizerClosure optimizer = new JSOptimizerClosure(_jsLevel, context);
+      optimizer.setCache(_outputCache);
+      bundles = optimizer.compileGroups(namedAssets, _jsLevel, 
+          sharedGroup != null ? sharedGroup.getName() : null, 
+          sharedGroup != null ? _configuration.getInt(ConfigKey.SHARED_MIN_GROUPS.getKey()) : 0);
+      
+    } catch(IOException e) {
+      throw new MojoExecutionException("Could not read the javascript externs.", e);
+    }
+    long bytesIn = 0;
+    for(List<Asset> assets:namedAssets.values()) bytesIn += getSourceBytes(assets);
+    long bytesOut = 0;
+    for(String bundle:bundles.values()) bytesOut += bundle.getBytes().length;
+    _report.addFile("concatenate", "compilation of " + namedAssets.keySet(), System.nanoTime() - start, 
+        bytesIn, bytesOut);
+    
+    for(AssetGroup group:builtAssets.keySet()) {
+      Asset bundle = new Asset(group.getName() + JS_EXTENSION, null);
+      bundle.setContent(bundles.containsKey(group.getName()) ? bundles.get(group.getName()) : "");
+      getLog().info("building " + JS_EXTENSION + " asset " + group.getName());
+      builds.add(buildGroup(group, Collections.singletonList(bundle), 
+          getSourceBytes(builtAssets.get(group)), outputDirectory + "/" + group.getName() + JS_EXTENSION, 
+          groupFingerprints.get(group), executor));
+    }
+    return builds;
+  }
+  
+  /**
+   * @param group
+   * @return the asset of each source file included by the given group, 
+   *         once each, in the order they're first matched
+   */
+  private List<Asset> getIncludedAssets(AssetGroup group) {
+    Set<Asset> includedAssets = new LinkedHashSet<Asset>();
+    for(String include:group.getIncludes()) {
+      for(String fileName:_fileSearcher.search(include, getWebrootPath())) {
+        Asset asset = _assets.get(fileName);
+        if(asset != null) includedAssets.add(asset);
+      }
+    }
+    return new ArrayList<Asset>(includedAssets);
+  }
+  
+  /**
+   * Appends the name and fingerprint of each of the given assets to the 
+   * given fingerprint
+   * 
+   * @param fingerprint
+   * @param assets
+   */
+  private void appendFingerprints(StringBuilder fingerprint, List<Asset> assets) {
+    for(Asset asset:assets) {
+      fingerprint.append(':').append(asset.getSourcePath()).append('=')
+        .append(_fingerprints.get(asset.getSourcePath()));
+    }
+  }
+  
+  /**
+   * @param group
+   * @return the settings the given group is named and gzipped with
+   */
+  private String getGroupSettings(AssetGroup group) {
+    return _fingerprint + ":" + group.getGzip() + ":" + group.getGzipProfile() + ":" + group.getGzipMinSavings();
+  }
+  
+  /**
+   * Records the given group in the asset manifest, and checks if its output 
+   * is up to date.  A fingerprinted group's output is the file the previous 
+   * build named after its content.  When that file is out of date, it's 
+   * left for {@link #collectFingerprints} to remove.
+   * 
+   * @param group
+   * @param outputFileName
+   * @param outputSuffix
+   * @param groupFingerprint
+   * @return true if the group was built from inputs with the given fingerprint
+   */
+  private boolean isGroupCurrent(AssetGroup group, String outputFileName, String outputSuffix, 
+      String groupFingerprint) {
+    
+    String type = outputSuffix.substring(1);
+    AssetManifest.Entry entry = new AssetManifest.Entry(type, group.getName(), 
+        group.getName() + outputSuffix, groupFingerprint.substring(0, VERSION_LENGTH), 0);
+    
+    AssetManifest.Entry previous = _fingerprint && _previousGroupEntries != null ? 
+        _previousGroupEntries.get(type, group.getName()) : null;
+    if(previous != null && previous.isFingerprinted()) {
+      String previousFileName = new File(new File(outputFileName).getParentFile(), previous.getPath()).getPath();
+      boolean current = isOutputCurrent(group, previousFileName, groupFingerprint);
+      _groupEntries.add(current ? previous : entry);
+      if(!current) {
+        _manifest.invalidate(previousFileName);
+        _manifest.invalidate(previousFileName + GZIP_EXTENSION);
+      }
+      return current;
+    }
+    
+    _groupEntries.add(entry);
+    return isOutputCurrent(group, outputFileName, groupFingerprint);
+  }
+  
+  /**
+   * @param group
+   * @param outputFileName
+   * @param groupFingerprint
+   * @return true if the given output of the given group, and its gzipped 
+   *         copy, were built from inputs with the given fingerprint
+   */
+  private boolean isOutputCurrent(AssetGroup group, String outputFileName, String groupFingerprint) {
+    // a gzipped copy that didn't save enough to keep has no manifest entry
+    String gzipFileName = outputFileName + GZIP_EXTENSION;
+    boolean current = _manifest.isCurrent(outputFileName, groupFingerprint);
+    if(group.getGzip() && _manifest.getFingerprint(gzipFileName) != null) {
+      current &= _manifest.isCurrent(gzipFileName, groupFingerprint);
+    }
+    return current;
+  }
+  
+  /**
+   * Combines the given assets into the given group's output, and gzips it.
+   * When fingerprinting, the output is then renamed after its content.
+   * 
+   * @param group
+   * @param assets
+   * @param sourceBytes the combined size of the group's source files, for 
+   *        the build report
+   * @param outputFileName
+   * @param groupFingerprint
+   * @param executor
+   * @return the pending build
+   */
+  private Future<Void> buildGroup(final AssetGroup group, final List<Asset> assets, final long sourceBytes,
+      final String outputFileName, final String groupFingerprint, ExecutorService executor) {
+    
+    final BuildReport report = _report;
+    return executor.submit(new Callable<Void>() {
+      public Void call() throws Exception {
+        long start = System.nanoTime();
+        String gzipFileName = outputFileName + GZIP_EXTENSION;
+        boolean gzipped = _assetCombiner.combine(assets, outputFileName, group);
+        String fileName = outputFileName;
+        if(_fingerprint) {
+          fileName = moveToFingerprintedName(group, outputFileName, gzipped);
+          _manifest.invalidate(outputFileName);
+          _manifest.invalidate(gzipFileName);
+          gzipFileName = fileName + GZIP_EXTENSION;
+        }
+        _manifest.update(fileName, groupFingerprint);
+        if(gzipped) _manifest.update(gzipFileName, groupFingerprint);
+        else _manifest.invalidate(gzipFileName);
+        
+        report.addFile("concatenate", new File(fileName).getName(), System.nanoTime() - start, 
+            sourceBytes, new File(fileName).length(), gzipped ? new File(gzipFileName).length() : -1);
+        return null;
+      }
+    });
+  }
+  
+  /**
+   * Renames the given group's output, and its gzipped copy, after a hash of 
+   * the output's content, so it can be cached for as long as it exists
+   * 
+   * @param group
+   * @param outputFileName
+   * @param gzipped true if a gzipped copy was written alongside the output
+   * @return the output's new name
+   * @throws IOException
+   */
+  private String moveToFingerprintedName(AssetGroup group, String outputFileName, boolean gzipped) 
+      throws IOException {
+    
+    File file = new File(outputFileName);
+    String version = Hasher.hash(file).substring(0, VERSION_LENGTH);
+    String fingerprintedFileName = AssetManifest.getFingerprintedPath(outputFileName, version);
+    Files.move(file.toPath(), new File(fingerprintedFileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    if(gzipped) {
+      Files.move(new File(outputFileName + GZIP_EXTENSION).toPath(), 
+          new File(fingerprintedFileName + GZIP_EXTENSION).toPath(), StandardCopyOption.REPLACE_EXISTING);
     }
+    
+    String type = outputFileName.substring(outputFileName.lastIndexOf('.') + 1);
+    _groupVersions.put(type + "." + group.getName(), version);
+    return fingerprintedFileName;
   }
   
   /**
@@ -324,6 +1535,7 @@ public class ZipperMojo extends AbstractMojo {
       String includes = prefix.equals(ConfigKey.JS_ASSET_PREFIX) ? "**/*.js" : "**/*.css";
       group.setIncludes(Arrays.asList(new String[]{includes}));
       group.setGzip(_configuration.getBoolean(ConfigKey.GZIP.getKey(), true));
+      configureGzip(group, prefix);
       groups.add(group);
     }
     else {
@@ -337,12 +1549,54 @@ public class ZipperMojo extends AbstractMojo {
         group.setName(name);
         group.setIncludes(_configuration.getList(key));
         group.setGzip(_configuration.getBoolean(ConfigKey.GZIP.getKey(), true));
+        configureGzip(group, prefix);
         groups.add(group);
       }
     }
     return groups;
   }
   
+  /**
+   * Sets the given group's gzip profile and minimum savings.  Each may be 
+   * given for all groups, or for a single group by appending the group's 
+   * type and name to the key, e.g. gzip.profile.js.foo
+   * 
+   * @param group
+   * @param prefix
+   */
+  private void configureGzip(AssetGroup group, ConfigKey prefix) {
+    String profile = getGroupString(ConfigKey.GZIP_PROFILE, prefix, group.getName(), 
+        GzipProfile.DEFAULT.toString());
+    try {
+      group.setGzipProfile(GzipProfile.valueOf(profile.toUpperCase()));
+      
+    } catch(IllegalArgumentException e) {
+      getLog().warn("Invalid gzip profile: " + profile + ".  Defaulting to " + GzipProfile.DEFAULT);
+    }
+    
+    String minSavings = getGroupString(ConfigKey.GZIP_MIN_SAVINGS, prefix, group.getName(), "0");
+    try {
+      group.setGzipMinSavings(Integer.parseInt(minSavings.trim()));
+      
+    } catch(NumberFormatException e) {
+      getLog().warn("Invalid gzip minimum savings: " + minSavings + ".  Defaulting to 0");
+    }
+  }
+  
+  /**
+   * @param key
+   * @param prefix the asset prefix of the group
+   * @param groupName
+   * @param defaultValue
+   * @return the value of the given key for the given group, falling back to 
+   *         the key's value for all groups, then to the given default
+   */
+  private String getGroupString(ConfigKey key, ConfigKey prefix, String groupName, String defaultValue) {
+    String type = prefix.equals(ConfigKey.JS_ASSET_PREFIX) ? "js" : "css";
+    String value = _configuration.getString(key.getKey() + "." + type + "." + groupName, null);
+    return value != null ? value : _configuration.getString(key.getKey(), defaultValue);
+  }
+  
   /**
    * 
    * @return
@@ -353,21 +1607,63 @@ public class ZipperMojo extends AbstractMojo {
     return _project.getBuild().getOutputDirectory() + "/" + folderName;
   }
   
+  /**
+   * @return the zipper.properties configuration
+   */
+  protected Configuration getConfiguration() {
+    return _configuration;
+  }
+  
+  /**
+   * Replaces the zipper.properties configuration, for tests
+   * 
+   * @param configuration
+   */
+  void setConfiguration(Configuration configuration) {
+    _configuration = configuration;
+  }
+  
+  /**
+   * @return the groups each group requires, keyed by the group's type and 
+   *         name, e.g. js.foo
+   */
+  Map<String, List<String>> getGroupRequires() {
+    return _groupRequires;
+  }
+  
   /**
    * 
    * @return
    */
-  private String getWebrootPath() {
+  protected String getWebrootPath() {
     String basePath = _project.getBasedir().getAbsolutePath();
     String webroot = _configuration.getString(ConfigKey.WEB_ROOT.getKey(), "src/main/webapp");
     return basePath + (webroot.startsWith("/") ? "" : "/") + webroot;
   }
   
+  /**
+   * 
+   * @return the directory processed assets are kept in between incremental 
+   *         builds when they aren't kept in the output directory
+   */
+  private String getStashDir() {
+    return _project.getBuild().getDirectory() + "/" + STASH_DIR_NAME;
+  }
+  
   /**
    * 
    */
   private void deleteWorkDir() {
     deleteDir(new File(getOutputDir()));
+    deleteDir(new File(getStashDir()));
+  }
+  
+  /**
+   * @param sourcePath
+   * @return the given source file's path, relative to the web root
+   */
+  private String getWebrootRelativePath(String sourcePath) {
+    return sourcePath.substring(getWebrootPath().length() + 1);
   }
   
   /**
@@ -379,6 +1675,32 @@ public class ZipperMojo extends AbstractMojo {
     return getOutputDir() + "/" + sourcePath.substring(getWebrootPath().length() + 1);
   }
   
+  /**
+   * @param sourcePath
+   * @return the path the given source file's processed asset is written to, 
+   *         or null if it only needs to be held in memory
+   */
+  private String getAssetOutputPath(String sourcePath) {
+    if(_configuration.getBoolean(ConfigKey.KEEP_NON_GROUPED.getKey(), true)) {
+      return getOutputPathFromSourcePath(sourcePath);
+    }
+    if(_incremental) {
+      return getStashDir() + "/" + sourcePath.substring(getWebrootPath().length() + 1);
+    }
+    return null;
+  }
+  
+  /**
+   * @param sourcePath
+   * @param settings
+   * @return a fingerprint of the given source file's content, combined with 
+   *         the given settings used to process it
+   * @throws IOException
+   */
+  private String fingerprint(String sourcePath, String settings) throws IOException {
+    return Hasher.hash(_sourceHashes.hash(new File(sourcePath)) + ":" + settings);
+  }
+  
   /**
    * 
    * @param dir
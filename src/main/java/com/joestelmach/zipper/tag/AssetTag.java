@@ -1,8 +1,20 @@
 package com.joestelmach.zipper.tag;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
+import javax.servlet.http.HttpServletResponse;
+
+import javax.servlet.jsp.JspContext;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.JspWriter;
 import javax.servlet.jsp.PageContext;
@@ -12,13 +24,24 @@ import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 
+import com.joestelmach.util.DirectoryWatcher;
 import com.joestelmach.util.FileSearcher;
+import com.joestelmach.zipper.plugin.AssetManifest;
 import com.joestelmach.zipper.plugin.ConfigKey;
 
 /**
  * A custom tag used to selectively include configured assets depending 
  * on the current running environemnt.
  * 
+ * In production, groups no larger than the configured inline.max.size are 
+ * written straight into the page, saving a round trip each.  Their content 
+ * is read once, and kept until the asset manifest changes.  Scripts may be 
+ * loaded with async or defer, and a tag with preload set writes a preload 
+ * hint for its group, along with the matching Link header, instead of 
+ * including it.  A group that requires others, such as the group of files 
+ * it shares with other groups, writes them first, unless they've already 
+ * been written during the request.
+ * 
  * @author Joe Stelmach
  */
 public class AssetTag extends SimpleTagSupport {
@@ -26,13 +49,40 @@ public class AssetTag extends SimpleTagSupport {
   private static String _webrootDir;
   private static String _assetsDir;
   private static String _prefix;
+  private static String _assetsPath;
+  private static boolean _bustCache;
+  private static volatile AssetManifest _manifest;
+  private static long _manifestModified;
+  private static volatile long _nextManifestCheck;
+  private static final long MANIFEST_CHECK_INTERVAL = 1000;
+  private static volatile ConcurrentMap<String, List<String>> _developmentIncludes;
+  private static volatile DirectoryWatcher _watcher;
   private static final String DEVELOPMENT_ENVIRONMENT = "development";
   private static final String CSS_TYPE = "css";
   private static final String JS_TYPE = "js";
+  private static final String WRITTEN_GROUPS = AssetTag.class.getName() + ".written";
+  private static long _inlineMaxSize;
+  private static volatile ConcurrentMap<String, String> _inlineContents = 
+    new ConcurrentHashMap<String, String>();
+  
+  // marks a group that can't be inlined, compared by identity
+  private static final String NOT_INLINED = new String();
+  
+  // a url reference that's relative to the stylesheet, and would break if 
+  // the stylesheet were moved into the page
+  private static final Pattern RELATIVE_URL = 
+    Pattern.compile("url\\(\\s*['\"]?(?![a-zA-Z][a-zA-Z0-9+.-]*:|/|#)");
+  
+  // anything that would end the element an inlined group is written into
+  private static final Pattern CLOSING_TAG = Pattern.compile("</(script|style)", Pattern.CASE_INSENSITIVE);
   
   private String _type;
   private String _name;
   private String _media = "screen";
+  private boolean _async;
+  private boolean _defer;
+  private boolean _preload;
+  private boolean _inline = true;
   private FileSearcher _searcher = new FileSearcher();
   
   /**
@@ -43,6 +93,8 @@ public class AssetTag extends SimpleTagSupport {
       _configuration = new PropertiesConfiguration("zipper.properties");
       _prefix = _configuration.getString(ConfigKey.ASSET_PATH_PREFIX.getKey(), null);
       if(_prefix != null && _prefix.startsWith("/")) _prefix = _prefix.substring(1);
+      _bustCache = _configuration.getBoolean(ConfigKey.BUST_CACHE.getKey(), true);
+      _inlineMaxSize = _configuration.getLong(ConfigKey.INLINE_MAX_SIZE.getKey(), 0);
       
     } catch (ConfigurationException e) {
       e.printStackTrace();
@@ -66,6 +118,7 @@ public class AssetTag extends SimpleTagSupport {
       else {
         _assetsDir = _webrootDir + "/" + outputDir;
       }
+      _assetsPath = new File(_assetsDir).getAbsolutePath().substring(_webrootDir.length()).replace('\\', '/') + "/";
     }
     
     if(environment == null || environment.length() == 0 || environment.equals(DEVELOPMENT_ENVIRONMENT)) {
@@ -103,6 +156,49 @@ public class AssetTag extends SimpleTagSupport {
     _media = media;
   }
   
+  /**
+   * Loads scripts without blocking the page's parsing, running them as 
+   * soon as they arrive
+   * 
+   * @param async
+   */
+  public void setAsync(boolean async) {
+    _async = async;
+  }
+  
+  /**
+   * Loads scripts without blocking the page's parsing, running them in 
+   * order once the page has been parsed
+   * 
+   * @param defer
+   */
+  public void setDefer(boolean defer) {
+    _defer = defer;
+  }
+  
+  /**
+   * Writes a preload hint for the asset, and adds it to the response's Link 
+   * header if the response hasn't been committed, instead of including it.  
+   * A preload tag in the head lets the browser start fetching a group 
+   * included further down the page.
+   * 
+   * @param preload
+   */
+  public void setPreload(boolean preload) {
+    _preload = preload;
+  }
+  
+  /**
+   * Allows the asset to be written straight into the page if it's no 
+   * larger than the configured inline.max.size.  Scripts loaded with async 
+   * or defer are never inlined.
+   * 
+   * @param inline
+   */
+  public void setInline(boolean inline) {
+    _inline = inline;
+  }
+  
   /**
    * @return the running environment set either as a system
    * property or configured in zipper.properties
@@ -116,27 +212,233 @@ public class AssetTag extends SimpleTagSupport {
   
   /**
    * Writes the asset includes out as production references.  These includes
-   * will refer to the optimized, concatenated version of each configured asset.
+   * will refer to the optimized, concatenated version of each configured asset, 
+   * as described by the asset manifest written at build time.
    * 
    * @throws IOException
    */
   private void writeProduction() throws IOException {
+    AssetManifest manifest = getManifest();
+    AssetManifest.Entry entry = manifest != null ? manifest.get(_type, _name) : null;
+    if(entry == null) return;
     
-    boolean bustCache = _configuration.getBoolean(ConfigKey.BUST_CACHE.getKey(), true);
+    writeProduction(manifest, entry, getWrittenGroups(), (_preload ? "preload." : "") + _type + ".");
+  }
+  
+  /**
+   * Writes production references to the groups the given group requires, 
+   * such as the files it shares with other groups or the parts it was split 
+   * into, followed by the group itself.  Required groups are written once 
+   * per request, and preload hints are tracked on their own, since they 
+   * don't include anything.
+   * 
+   * @param manifest
+   * @param entry
+   * @param written the groups already written during this request
+   * @param prefix the prefix of each group's name in the written groups
+   * @throws IOException
+   */
+  private void writeProduction(AssetManifest manifest, AssetManifest.Entry entry, Set<String> written, 
+      String prefix) throws IOException {
     
-    File file = new File(_assetsDir + "/" + _name + "." + _type);
-    System.out.println(file.getAbsolutePath());
-    if(file.exists()) {
-      String relativePath = file.getAbsolutePath().substring(_webrootDir.length()).replaceAll("\\\\", "/");
-      if(bustCache) {
-        String cacheBustSuffix = "?" + file.lastModified();
-        relativePath += cacheBustSuffix;
+    for(String name:entry.getRequires()) {
+      AssetManifest.Entry required = manifest.get(_type, name);
+      if(required != null && written.add(prefix + name)) writeProduction(manifest, required, written, prefix);
+    }
+    written.add(prefix + entry.getName());
+    writeProduction(entry);
+  }
+  
+  /**
+   * @return the groups already written during this request
+   */
+  @SuppressWarnings("unchecked")
+  private Set<String> getWrittenGroups() {
+    JspContext context = getJspContext();
+    Set<String> written = (Set<String>) context.getAttribute(WRITTEN_GROUPS, PageContext.REQUEST_SCOPE);
+    if(written == null) {
+      written = new HashSet<String>();
+      context.setAttribute(WRITTEN_GROUPS, written, PageContext.REQUEST_SCOPE);
+    }
+    return written;
+  }
+  
+  /**
+   * Writes a production reference to the given group
+   * 
+   * @param entry
+   * @throws IOException
+   */
+  private void writeProduction(AssetManifest.Entry entry) throws IOException {
+    JspWriter writer = getJspContext().getOut();
+    if(_preload) {
+      StringBuilder path = new StringBuilder(_assetsPath).append(entry.getPath());
+      if(_bustCache && !entry.isFingerprinted()) path.append('?').append(entry.getVersion());
+      writePreload(writer, path.toString());
+      return;
+    }
+    
+    String content = getInlineContent(entry);
+    if(content != null) {
+      if(_type.equals(CSS_TYPE)) {
+        writer.write("<style type=\"text/css\" media=\"");
+        writer.write(_media);
+        writer.write("\">");
+        writer.write(content);
+        writer.write("</style>\n");
+      }
+      else {
+        writer.write("<script type=\"text/javascript\">");
+        writer.write(content);
+        writer.write("</script>\n");
       }
-      String html = _type.equals(CSS_TYPE) ? getCssInclude(relativePath) : getJsInclude(relativePath);
-      getJspContext().getOut().write(html + "\n");
+    }
+    else if(_type.equals(CSS_TYPE)) {
+      writer.write("<link rel=\"stylesheet\" type=\"text/css\" media=\"");
+      writer.write(_media);
+      writer.write("\" href=\"");
+      writeProductionPath(writer, entry);
+      writer.write("\" />\n");
+    }
+    else {
+      writer.write("<script type=\"text/javascript\" src=\"");
+      writeProductionPath(writer, entry);
+      writer.write("\"");
+      writer.write(getScriptAttributes());
+      writer.write("></script>\n");
     }
   }
   
+  /**
+   * Finds the content of the given group, if it should be written straight 
+   * into the page.  Groups are read the first time they're inlined, and 
+   * kept until the manifest changes.
+   * 
+   * @param entry
+   * @return the group's content, with anything that would close the 
+   *         surrounding element escaped, or null if the group should be included
+   */
+  private String getInlineContent(AssetManifest.Entry entry) {
+    if(!_inline || _async || _defer || entry.getSize() > _inlineMaxSize) return null;
+    
+    ConcurrentMap<String, String> contents = _inlineContents;
+    String content = contents.get(entry.getPath());
+    if(content == null) {
+      try {
+        content = read(new File(_assetsDir, entry.getPath()));
+        if(_type.equals(CSS_TYPE) && RELATIVE_URL.matcher(content).find()) content = NOT_INLINED;
+        else content = CLOSING_TAG.matcher(content).replaceAll("<\\\\/$1");
+        
+      } catch(IOException e) {
+        // the group will be included instead
+        log("Couldn't read " + entry.getPath() + " to inline it", e);
+        content = NOT_INLINED;
+      }
+      contents.put(entry.getPath(), content);
+    }
+    return content != NOT_INLINED ? content : null;
+  }
+  
+  /**
+   * @param file
+   * @return the content of the given file
+   * @throws IOException
+   */
+  private static String read(File file) throws IOException {
+    byte[] buffer = new byte[(int) file.length()];
+    InputStream input = new FileInputStream(file);
+    try {
+      int offset = 0;
+      int read;
+      while(offset < buffer.length && (read = input.read(buffer, offset, buffer.length - offset)) != -1) {
+        offset += read;
+      }
+      
+    } finally {
+      input.close();
+    }
+    return new String(buffer);
+  }
+  
+  /**
+   * Writes a preload hint for the given path, and adds it to the response's 
+   * Link header if the response can still take headers
+   * 
+   * @param writer
+   * @param path
+   * @throws IOException
+   */
+  private void writePreload(JspWriter writer, String path) throws IOException {
+    String as = _type.equals(CSS_TYPE) ? "style" : "script";
+    writer.write("<link rel=\"preload\" href=\"");
+    writer.write(path);
+    writer.write("\" as=\"");
+    writer.write(as);
+    writer.write("\" />\n");
+    
+    Object response = ((PageContext) getJspContext()).getResponse();
+    if(response instanceof HttpServletResponse && !((HttpServletResponse) response).isCommitted()) {
+      ((HttpServletResponse) response).addHeader("Link", "<" + path + ">; rel=preload; as=" + as);
+    }
+  }
+  
+  /**
+   * @return the async and defer attributes to write with a script include
+   */
+  private String getScriptAttributes() {
+    return (_async ? " async=\"async\"" : "") + (_defer ? " defer=\"defer\"" : "");
+  }
+  
+  /**
+   * Writes the path to the given asset group, with a cache busting version 
+   * if configured.  A group written under a fingerprinted name already 
+   * changes its path with its content, so it's written as is.
+   * 
+   * @param writer
+   * @param entry
+   * @throws IOException
+   */
+  private void writeProductionPath(JspWriter writer, AssetManifest.Entry entry) throws IOException {
+    writer.write(_assetsPath);
+    writer.write(entry.getPath());
+    if(_bustCache && !entry.isFingerprinted()) {
+      writer.write('?');
+      writer.write(entry.getVersion());
+    }
+  }
+  
+  /**
+   * Finds the asset manifest, reloading it if it has changed.  The manifest 
+   * file is checked at most once every MANIFEST_CHECK_INTERVAL milliseconds, 
+   * so most renders don't touch the filesystem at all.
+   * 
+   * @return the current asset manifest, or null if there isn't one
+   */
+  private AssetManifest getManifest() {
+    long now = System.currentTimeMillis();
+    if(now < _nextManifestCheck) return _manifest;
+    
+    synchronized(AssetTag.class) {
+      if(now < _nextManifestCheck) return _manifest;
+      
+      File file = new File(_assetsDir, AssetManifest.FILE_NAME);
+      long modified = file.lastModified();
+      if(modified != _manifestModified) {
+        try {
+          _manifest = modified != 0 ? AssetManifest.load(file) : null;
+          _manifestModified = modified;
+          _inlineContents = new ConcurrentHashMap<String, String>();
+          
+        } catch(IOException e) {
+          // keep the last good manifest, and try again on the next check
+          log("Couldn't load the asset manifest " + file, e);
+        }
+      }
+      _nextManifestCheck = now + MANIFEST_CHECK_INTERVAL;
+    }
+    return _manifest;
+  }
+  
   /**
    * Writes the asset includes out as development references.  These includes
    * will refer to the non-optimized, original version of each asset.
@@ -144,22 +446,98 @@ public class AssetTag extends SimpleTagSupport {
    * @throws IOException
    */
   private void writeDevelopment() throws IOException {
+    JspWriter writer = getJspContext().getOut();
+    for(String include:getDevelopmentIncludes()) {
+      if(_preload) {
+        writePreload(writer, include);
+        continue;
+      }
+      writer.write(_type.equals(CSS_TYPE) ? getCssInclude(include) : getJsInclude(include));
+      writer.write("\n");
+    }
+  }
+  
+  /**
+   * Finds the files matching this tag's configured asset patterns.  Matches 
+   * are remembered for each type and name until files are added to, removed 
+   * from, or renamed within the web root, so most renders don't scan it at all.
+   * 
+   * @return the path of each matching file, relative to the directory searched
+   */
+  private List<String> getDevelopmentIncludes() {
+    ConcurrentMap<String, List<String>> cache = getDevelopmentIncludeCache();
+    String key = _type + ".asset." + _name;
+    List<String> includes = cache != null ? cache.get(key) : null;
+    if(includes != null) return includes;
     
     // find the configured asset patterns
     @SuppressWarnings("unchecked")
-    List<String> patterns = _configuration.getList(_type + ".asset." + _name);
+    List<String> patterns = _configuration.getList(key);
     
-    // find all files that match each pattern, and generate
-    // the appropriate html to include the asset on the page.
-    JspWriter writer = getJspContext().getOut();
+    // and all files that match each pattern
+    includes = new ArrayList<String>();
+    String searchDir = new File(_assetsDir).exists() ? _assetsDir : _webrootDir;
     for(String pattern:patterns) {
-      String searchDir = new File(_assetsDir).exists() ? _assetsDir : _webrootDir;
       for(String include:_searcher.search(pattern, searchDir)) {
-        include = include.substring(searchDir.length()).replaceAll("\\\\", "/");;
-        writer.write(_type.equals(CSS_TYPE) ? getCssInclude(include) : getJsInclude(include));
-        writer.write("\n");
+        includes.add(include.substring(searchDir.length()).replace('\\', '/'));
       }
     }
+    
+    includes = Collections.unmodifiableList(includes);
+    if(cache != null) cache.put(key, includes);
+    return includes;
+  }
+  
+  /**
+   * Starts watching the web root the first time it's needed.  Each change 
+   * replaces the cache with an empty one, so a search that was already under 
+   * way when files changed can't put a stale result into the new cache.
+   * 
+   * @return the cache of development includes, or null if the web root 
+   *         can't be watched, in which case every render scans it
+   */
+  private ConcurrentMap<String, List<String>> getDevelopmentIncludeCache() {
+    if(_developmentIncludes != null || _watcher != null) return _developmentIncludes;
+    
+    synchronized(AssetTag.class) {
+      if(_watcher == null) {
+        _watcher = new DirectoryWatcher(_webrootDir, new Runnable() {
+          public void run() {
+            _developmentIncludes = new ConcurrentHashMap<String, List<String>>();
+          }
+        });
+        try {
+          _watcher.start();
+          _developmentIncludes = new ConcurrentHashMap<String, List<String>>();
+          
+        } catch(IOException e) {
+          log("Couldn't watch " + _webrootDir + " for changes, so every include will search it", e);
+        }
+      }
+    }
+    return _developmentIncludes;
+  }
+  
+  /**
+   * Stops watching the web root, if it's being watched.  Called when the 
+   * web application shuts down.
+   */
+  static void stopWatching() {
+    synchronized(AssetTag.class) {
+      if(_watcher != null) _watcher.stop();
+      _watcher = null;
+      _developmentIncludes = null;
+    }
+  }
+  
+  /**
+   * Writes the given message and exception to the servlet context's log
+   * 
+   * @param message
+   * @param e
+   */
+  private void log(String message, Throwable e) {
+    ((PageContext) getJspContext()).getServletContext().log(message, e);
   }
   
   /**
@@ -179,6 +557,6 @@ public class AssetTag extends SimpleTagSupport {
    * @return
    */
   private String getJsInclude(String file) {
-    return "<script type=\"text/javascript\" src=\"" + file  + "\"></script>";
+    return "<script type=\"text/javascript\" src=\"" + file  + "\"" + getScriptAttributes() + "></script>";
   }
 }
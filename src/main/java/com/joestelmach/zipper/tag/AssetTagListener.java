@@ -0,0 +1,23 @@
+package com.joestelmach.zipper.tag;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Stops the asset tag's watch of the web root when the web application
+ * shuts down, so the watching thread doesn't keep the application's class
+ * loader alive after it's undeployed or redeployed.  The listener is
+ * declared in the tag library descriptor, so the container registers it
+ * along with the tag.
+ *
+ * @author Joe Stelmach
+ */
+public class AssetTagListener implements ServletContextListener {
+
+  public void contextInitialized(ServletContextEvent event) {
+  }
+
+  public void contextDestroyed(ServletContextEvent event) {
+    AssetTag.stopWatching();
+  }
+}
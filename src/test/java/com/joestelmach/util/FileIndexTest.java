@@ -0,0 +1,85 @@
+package com.joestelmach.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that searches find the same files a directory scan would, narrowed
+ * to the run of paths under the pattern's leading directories
+ *
+ * @author Joe Stelmach
+ */
+public class FileIndexTest {
+  @Rule
+  public TemporaryFolder _folder = new TemporaryFolder();
+
+  private FileIndex _index;
+
+  @Before
+  public void setUp() throws IOException {
+    for(String path:new String[] {"a/b/one.js", "a/b/two.js", "a/c/three.js", "a/four.css",
+        "ab/five.js", "root.js", "a/.svn/entries.js", "a/b/one.js~"}) {
+      File file = new File(_folder.getRoot(), path);
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+    }
+    _index = new FileIndex(_folder.getRoot());
+  }
+
+  @Test
+  public void testDefaultExcludes() {
+    assertEquals(6, _index.size());
+    assertEquals(Collections.<String>emptyList(), _index.search("**/.svn/**", ""));
+    assertEquals(Collections.<String>emptyList(), _index.search("**/*~", ""));
+  }
+
+  @Test
+  public void testSortedOrder() {
+    assertEquals(Arrays.asList("a/b/one.js", "a/b/two.js", "a/c/three.js", "ab/five.js", "root.js"),
+        _index.search("**/*.js", ""));
+  }
+
+  @Test
+  public void testPrefix() {
+    // a sibling that shares the directory's name as a prefix isn't matched
+    assertEquals(Arrays.asList("a/b/one.js", "a/b/two.js", "a/c/three.js", "a/four.css"),
+        _index.search("a/**", ""));
+    assertEquals(Arrays.asList("a/b/one.js", "a/b/two.js"), _index.search("a/b/*.js", ""));
+    assertEquals(Arrays.asList("ab/five.js"), _index.search("ab/*", ""));
+  }
+
+  @Test
+  public void testLiteralPattern() {
+    assertEquals(Arrays.asList("root.js"), _index.search("/root.js", ""));
+    assertEquals(Arrays.asList("a/c/three.js"), _index.search("a/c/three.js", ""));
+    assertEquals(Collections.<String>emptyList(), _index.search("a/c/missing.js", ""));
+  }
+
+  @Test
+  public void testTrailingSeparator() {
+    assertEquals(_index.search("a/**", ""), _index.search("a/", ""));
+  }
+
+  @Test
+  public void testDirectory() {
+    assertEquals(Arrays.asList("b/one.js", "b/two.js"), _index.search("b/*.js", "a"));
+    assertEquals(Arrays.asList("b/one.js", "b/two.js", "c/three.js"), _index.search("**/*.js", "a"));
+    assertEquals(Arrays.asList("five.js"), _index.search("*.js", "ab"));
+  }
+
+  @Test
+  public void testMissingRoot() {
+    FileIndex index = new FileIndex(new File(_folder.getRoot(), "missing"));
+    assertEquals(0, index.size());
+    assertEquals(Collections.<String>emptyList(), index.search("**", ""));
+  }
+}
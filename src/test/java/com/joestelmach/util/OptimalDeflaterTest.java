@@ -0,0 +1,151 @@
+package com.joestelmach.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+/**
+ * Checks that the deflater's output inflates back to its input with the
+ * JDK's own decoder
+ *
+ * @author Joe Stelmach
+ */
+public class OptimalDeflaterTest {
+  private static final int ITERATIONS = 2;
+
+  @Test
+  public void testEmpty() throws Exception {
+    assertRoundTrip(new byte[0]);
+  }
+
+  @Test
+  public void testSingleByte() throws Exception {
+    assertRoundTrip(new byte[] {'x'});
+  }
+
+  @Test
+  public void testRepetitive() throws Exception {
+    byte[] data = repeat("function foo() { return bar; }\n", 4000);
+    byte[] deflated = assertRoundTrip(data);
+    assertTrue("repetitive input should compress well", deflated.length < data.length / 20);
+  }
+
+  @Test
+  public void testRandom() throws Exception {
+    byte[] data = new byte[50000];
+    new Random(42).nextBytes(data);
+    byte[] deflated = assertRoundTrip(data);
+
+    // incompressible input is stored, so it barely grows
+    assertTrue("random input shouldn't grow much", deflated.length < data.length + data.length / 100);
+  }
+
+  @Test
+  public void testBeyondWindow() throws Exception {
+    // the same random run repeated further apart than the 32 KB window can
+    // reach, with a compressible filler in between, over more than 64 KB
+    byte[] run = new byte[1000];
+    new Random(7).nextBytes(run);
+    byte[] filler = repeat("var padding = 'abcdefghijklmnopqrstuvwxyz';\n", 1000);
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    for(int i = 0; i < 4; i++) {
+      data.write(run);
+      data.write(filler);
+    }
+    assertTrue(data.size() > 64 * 1024);
+    assertRoundTrip(data.toByteArray());
+  }
+
+  @Test
+  public void testMultipleBlocks() throws Exception {
+    // more than the deflater's 1 MB block, mixing text and random bytes
+    Random random = new Random(3);
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    byte[] noise = new byte[512];
+    while(data.size() < (1 << 20) + 100000) {
+      data.write(("line " + random.nextInt(1000) + " of some text\n").getBytes("UTF-8"));
+      if(random.nextInt(20) == 0) {
+        random.nextBytes(noise);
+        data.write(noise);
+      }
+    }
+    assertRoundTrip(data.toByteArray());
+  }
+
+  @Test
+  public void testGzip() throws Exception {
+    byte[] data = repeat("body { color: red; }\n", 500);
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    new OptimalDeflater(ITERATIONS).gzip(data, gzipped);
+    assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))));
+  }
+
+  /**
+   * Deflates the given data and checks that it inflates back to the same
+   * bytes, with nothing left over
+   *
+   * @param data
+   * @return the deflated data
+   * @throws DataFormatException
+   */
+  private byte[] assertRoundTrip(byte[] data) throws DataFormatException {
+    byte[] deflated = new OptimalDeflater(ITERATIONS).deflate(data);
+
+    Inflater inflater = new Inflater(true);
+    inflater.setInput(deflated);
+    byte[] inflated = new byte[data.length + 1];
+    int length = 0;
+    while(!inflater.finished() && length < inflated.length) {
+      int read = inflater.inflate(inflated, length, inflated.length - length);
+      if(read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+      length += read;
+    }
+    assertTrue("the stream should end with a final block", inflater.finished());
+    assertEquals(data.length, length);
+    assertEquals("nothing should follow the final block", 0, inflater.getRemaining());
+    inflater.end();
+
+    byte[] result = new byte[length];
+    System.arraycopy(inflated, 0, result, 0, length);
+    assertArrayEquals(data, result);
+    return deflated;
+  }
+
+  /**
+   * @param text
+   * @param times
+   * @return the given text repeated the given number of times
+   * @throws IOException
+   */
+  private byte[] repeat(String text, int times) throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    byte[] bytes = text.getBytes("UTF-8");
+    for(int i = 0; i < times; i++) data.write(bytes);
+    return data.toByteArray();
+  }
+
+  /**
+   * @param input
+   * @return everything left in the given stream
+   * @throws IOException
+   */
+  private byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while((read = input.read(buffer)) != -1) output.write(buffer, 0, read);
+    input.close();
+    return output.toByteArray();
+  }
+}
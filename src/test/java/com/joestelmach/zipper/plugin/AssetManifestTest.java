@@ -0,0 +1,132 @@
+package com.joestelmach.zipper.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a saved manifest loads back to the same entries, and that
+ * entries that can't be parsed fail the load
+ *
+ * @author Joe Stelmach
+ */
+public class AssetManifestTest {
+  @Rule
+  public TemporaryFolder _folder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    File file = new File(_folder.getRoot(), "assets/" + AssetManifest.FILE_NAME);
+    AssetManifest.save(file, Arrays.asList(
+        new AssetManifest.Entry("js", "main", "js/main.3f2a.js", "3f2a", 1234, Arrays.asList("shared", "main.1")),
+        new AssetManifest.Entry("js", "shared", "js/shared.js", "9c0d", 56),
+        new AssetManifest.Entry("css", "main", "css/main.css", "77e1", 0)));
+
+    AssetManifest manifest = AssetManifest.load(file);
+    AssetManifest.Entry main = manifest.get("js", "main");
+    assertEquals("js", main.getType());
+    assertEquals("main", main.getName());
+    assertEquals("js/main.3f2a.js", main.getPath());
+    assertEquals("3f2a", main.getVersion());
+    assertEquals(1234, main.getSize());
+    assertEquals(Arrays.asList("shared", "main.1"), main.getRequires());
+    assertTrue(main.isFingerprinted());
+
+    AssetManifest.Entry shared = manifest.get("js", "shared");
+    assertEquals(Collections.<String>emptyList(), shared.getRequires());
+    assertFalse(shared.isFingerprinted());
+
+    // the same name under another type is a different group
+    assertEquals("css/main.css", manifest.get("css", "main").getPath());
+    assertEquals(0, manifest.get("css", "main").getSize());
+    assertNull(manifest.get("css", "shared"));
+    assertNull(manifest.get("img", "main"));
+  }
+
+  @Test
+  public void testSaveReplaces() throws IOException {
+    File file = new File(_folder.getRoot(), AssetManifest.FILE_NAME);
+    AssetManifest.save(file, Arrays.asList(new AssetManifest.Entry("js", "old", "js/old.js", "1", 1)));
+    AssetManifest.save(file, Arrays.asList(new AssetManifest.Entry("js", "new", "js/new.js", "2", 2)));
+
+    AssetManifest manifest = AssetManifest.load(file);
+    assertNull(manifest.get("js", "old"));
+    assertEquals("2", manifest.get("js", "new").getVersion());
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+  }
+
+  @Test
+  public void testPathWithSeparator() throws IOException {
+    // the version and size are found from the end of the line
+    File file = write("js.main = js/a,b/main.js,abc,10\n");
+    AssetManifest.Entry main = AssetManifest.load(file).get("js", "main");
+    assertEquals("js/a,b/main.js", main.getPath());
+    assertEquals("abc", main.getVersion());
+    assertEquals(10, main.getSize());
+  }
+
+  @Test
+  public void testInvalidEntries() throws IOException {
+    assertInvalid("js.main = js/main.js\n");
+    assertInvalid("js.main = js/main.js,abc\n");
+    assertInvalid("js.main = js/main.js,abc,large\n");
+    assertInvalid("main = js/main.js,abc,10\n");
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingFile() throws IOException {
+    AssetManifest.load(new File(_folder.getRoot(), "missing.properties"));
+  }
+
+  @Test
+  public void testFingerprintedPath() {
+    assertEquals("js/main.abc.js", AssetManifest.getFingerprintedPath("js/main.js", "abc"));
+    assertEquals("js/main.min.abc.js", AssetManifest.getFingerprintedPath("js/main.min.js", "abc"));
+    assertEquals("v1.0/main.abc", AssetManifest.getFingerprintedPath("v1.0/main", "abc"));
+    assertEquals("main.abc", AssetManifest.getFingerprintedPath("main", "abc"));
+  }
+
+  /**
+   * @param content
+   * @return a manifest file with the given content
+   * @throws IOException
+   */
+  private File write(String content) throws IOException {
+    File file = _folder.newFile("manifest" + System.nanoTime() + ".properties");
+    OutputStream output = new FileOutputStream(file);
+    try {
+      output.write(content.getBytes("ISO-8859-1"));
+
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  /**
+   * @param content
+   * @throws IOException if the manifest can't be written
+   */
+  private void assertInvalid(String content) throws IOException {
+    try {
+      AssetManifest.load(write(content));
+      fail("expected an invalid entry: " + content);
+
+    } catch(IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid asset manifest entry"));
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package com.joestelmach.zipper.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the flattening of imported stylesheets into the stylesheet that
+ * imports them
+ *
+ * @author Joe Stelmach
+ */
+public class CSSImportFlattenerTest {
+  @Rule
+  public TemporaryFolder _folder = new TemporaryFolder();
+
+  private CSSImportFlattener _flattener;
+
+  @Before
+  public void setUp() {
+    _flattener = new CSSImportFlattener(new SystemStreamLog(), _folder.getRoot().getAbsolutePath(), null);
+  }
+
+  @Test
+  public void testNoImports() throws IOException {
+    String css = "body { color: red; }";
+    assertEquals(css, flatten("main.css", css));
+  }
+
+  @Test
+  public void testNested() throws IOException {
+    write("a.css", "@import 'b.css';\n.a {}");
+    write("b.css", "@charset \"UTF-8\";\n.b {}");
+    assertEquals("\n.b {}\n.a {}\nbody {}", flatten("main.css", "@import url(a.css);\nbody {}"));
+  }
+
+  @Test
+  public void testAbsoluteImport() throws IOException {
+    write("base.css", ".base {}");
+    assertEquals(".base {}\nbody {}", flatten("css/main.css", "@import \"/base.css\";\nbody {}"));
+  }
+
+  @Test
+  public void testCommentedImport() throws IOException {
+    String css = "/* @import 'a.css'; */\nbody {}";
+    assertEquals(css, flatten("main.css", css));
+  }
+
+  @Test
+  public void testCycle() throws IOException {
+    write("a.css", "@import 'b.css';\n.a {}");
+    write("b.css", "@import 'a.css';\n@import 'b.css';\n.b {}");
+    String flattened = flatten("a.css", read("a.css"));
+    assertEquals("\n\n.b {}\n.a {}", flattened);
+    assertFalse(flattened.contains("@import"));
+  }
+
+  @Test
+  public void testMedia() throws IOException {
+    write("print.css", "@import 'fonts.css';\np {}");
+    write("fonts.css", ".font {}");
+    assertEquals("@media print {\n.font {}\np {}\n}\nbody {}",
+        flatten("main.css", "@import url('print.css') print;\nbody {}"));
+  }
+
+  @Test
+  public void testHoisting() throws IOException {
+    write("sub/local.css", "@import 'nested.css' layer(base);\n.local {}");
+    write("sub/nested.css", ".nested {}");
+    write("grid.css", ".grid {}");
+    String css = "@charset \"UTF-8\";\n" +
+      "@import 'sub/local.css';\n" +
+      "@import url(http://example.com/fonts.css) screen;\n" +
+      "@import 'grid.css' supports(display: grid);\n" +
+      "@import 'missing.css';\n" +
+      "body {}";
+
+    assertEquals("@charset \"UTF-8\";\n" +
+        "@import url(\"sub/nested.css\") layer(base);\n" +
+        "@import url(\"http://example.com/fonts.css\") screen;\n" +
+        "@import url(\"grid.css\") supports(display: grid);\n" +
+        "@import url(\"missing.css\");\n" +
+        "\n\n.local {}\n\n\n\nbody {}", flatten("main.css", css));
+  }
+
+  @Test
+  public void testHoistedMedia() throws IOException {
+    // an import hoisted out of a stylesheet imported for a medium keeps
+    // applying to that medium only
+    write("print.css", "@import '//example.com/print.css';\np {}");
+    assertEquals("@import url(\"//example.com/print.css\") print;\n@media print {\n\np {}\n}",
+        flatten("main.css", "@import 'print.css' print;"));
+  }
+
+  @Test
+  public void testUrlRewriting() throws IOException {
+    write("css/sub/a.css",
+      ".a { background: url(../img/a.png); }\n" +
+      ".b { background: url( 'b.png?v=1#top' ); }\n" +
+      ".c { background: url(/img/c.png); }\n" +
+      ".d { background: url(data:image/png;base64,AAAA); }\n" +
+      ".e { background: url(http://example.com/e.png); }\n" +
+      ".f { filter: url(#shadow); }");
+
+    assertEquals(
+      ".a { background: url(css/img/a.png); }\n" +
+      ".b { background: url('css/sub/b.png?v=1#top'); }\n" +
+      ".c { background: url(/img/c.png); }\n" +
+      ".d { background: url(data:image/png;base64,AAAA); }\n" +
+      ".e { background: url(http://example.com/e.png); }\n" +
+      ".f { filter: url(#shadow); }",
+      flatten("main.css", "@import 'css/sub/a.css';"));
+  }
+
+  @Test
+  public void testFingerprint() throws IOException {
+    write("a.css", "@import 'b.css';\n.a {}");
+    write("b.css", "@import 'a.css';\n.b {}");
+    write("main.css", "@import 'a.css';");
+    Asset asset = new Asset(file("main.css").getPath(), null);
+    String fingerprint = _flattener.getFingerprint(asset);
+    assertTrue(fingerprint.length() > 0);
+    assertEquals(fingerprint, _flattener.getFingerprint(asset));
+
+    write("b.css", "@import 'a.css';\n.b { color: red; }");
+    assertFalse(fingerprint.equals(new CSSImportFlattener(new SystemStreamLog(),
+        _folder.getRoot().getAbsolutePath(), null).getFingerprint(asset)));
+  }
+
+  /**
+   * @param path the stylesheet's path, relative to the web root
+   * @param css the stylesheet's content
+   * @return the given css, flattened as though it were read from the given path
+   * @throws IOException
+   */
+  private String flatten(String path, String css) throws IOException {
+    return _flattener.flatten(css, file(path).getPath());
+  }
+
+  /**
+   * @param path
+   * @return the file at the given path, relative to the web root
+   */
+  private File file(String path) {
+    return new File(_folder.getRoot(), path);
+  }
+
+  /**
+   * @param path
+   * @param content
+   * @throws IOException
+   */
+  private void write(String path, String content) throws IOException {
+    File file = file(path);
+    file.getParentFile().mkdirs();
+    OutputStream output = new FileOutputStream(file);
+    try {
+      output.write(content.getBytes("UTF-8"));
+
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * @param path
+   * @return the content of the file at the given path
+   * @throws IOException
+   */
+  private String read(String path) throws IOException {
+    return new String(Files.readAllBytes(file(path).toPath()), "UTF-8");
+  }
+}
@@ -0,0 +1,286 @@
+package com.joestelmach.zipper.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the moving of shared files into a group of their own, and the
+ * splitting of groups larger than their max.size
+ *
+ * @author Joe Stelmach
+ */
+public class ZipperMojoTest {
+  private ZipperMojo _mojo;
+  private BaseConfiguration _configuration;
+  private Map<AssetGroup, List<Asset>> _groupAssets;
+  private Map<String, AssetGroup> _groups;
+
+  @Before
+  public void setUp() {
+    _configuration = new BaseConfiguration();
+    _mojo = new ZipperMojo();
+    _mojo.setConfiguration(_configuration);
+    _groupAssets = new LinkedHashMap<AssetGroup, List<Asset>>();
+    _groups = new LinkedHashMap<String, AssetGroup>();
+  }
+
+  @Test
+  public void testSharedAssets() throws Exception {
+    _configuration.setProperty(ConfigKey.SHARED_MIN_GROUPS.getKey(), "2");
+    Asset jquery = asset("jquery.js", 10);
+    Asset util = asset("util.js", 10);
+    Asset home = asset("home.js", 10);
+    Asset search = asset("search.js", 10);
+    Asset admin = asset("admin.js", 10);
+    group("home", jquery, util, home);
+    group("search", jquery, util, search);
+    group("admin", admin);
+
+    Map<AssetGroup, List<Asset>> extracted = extract();
+    assertEquals(Arrays.asList("shared", "home", "search", "admin"), names(extracted));
+    assertEquals(Arrays.asList(jquery, util), extracted.get(sharedGroup(extracted)));
+    assertEquals(Arrays.asList(home), extracted.get(_groups.get("home")));
+    assertEquals(Arrays.asList(search), extracted.get(_groups.get("search")));
+    assertEquals(Arrays.asList(admin), extracted.get(_groups.get("admin")));
+
+    assertEquals(Arrays.asList("shared"), _mojo.getGroupRequires().get("js.home"));
+    assertEquals(Arrays.asList("shared"), _mojo.getGroupRequires().get("js.search"));
+    assertNull(_mojo.getGroupRequires().get("js.admin"));
+  }
+
+  @Test
+  public void testSharedName() throws Exception {
+    _configuration.setProperty(ConfigKey.SHARED_MIN_GROUPS.getKey(), "2");
+    _configuration.setProperty(ConfigKey.SHARED_NAME.getKey(), "common");
+    Asset jquery = asset("jquery.js", 10);
+    group("home", jquery, asset("home.js", 10));
+    group("search", jquery, asset("search.js", 10));
+
+    Map<AssetGroup, List<Asset>> extracted = extract();
+    assertEquals(Arrays.asList("common", "home", "search"), names(extracted));
+    assertEquals(Arrays.asList("common"), _mojo.getGroupRequires().get("js.home"));
+  }
+
+  @Test
+  public void testTooFewGroups() throws Exception {
+    _configuration.setProperty(ConfigKey.SHARED_MIN_GROUPS.getKey(), "3");
+    Asset jquery = asset("jquery.js", 10);
+    group("home", jquery, asset("home.js", 10));
+    group("search", jquery, asset("search.js", 10));
+    assertSame(_groupAssets, extract());
+  }
+
+  @Test
+  public void testNotShared() throws Exception {
+    group("home", asset("jquery.js", 10), asset("home.js", 10));
+    group("search", asset("jquery.js", 10), asset("search.js", 10));
+    assertSame(_groupAssets, extract());
+
+    _configuration.setProperty(ConfigKey.SHARED_MIN_GROUPS.getKey(), "2");
+    assertSame(_groupAssets, extract());
+  }
+
+  @Test
+  public void testSharedAfterOwnFile() throws Exception {
+    // util.js follows one of home's own files, so moving it ahead of them
+    // would change the order home loads its files in
+    _configuration.setProperty(ConfigKey.SHARED_MIN_GROUPS.getKey(), "2");
+    Asset jquery = asset("jquery.js", 10);
+    Asset util = asset("util.js", 10);
+    Asset home = asset("home.js", 10);
+    Asset search = asset("search.js", 10);
+    group("home", jquery, home, util);
+    group("search", jquery, util, search);
+
+    Map<AssetGroup, List<Asset>> extracted = extract();
+    assertEquals(Arrays.asList(jquery), extracted.get(sharedGroup(extracted)));
+    assertEquals(Arrays.asList(home, util), extracted.get(_groups.get("home")));
+    assertEquals(Arrays.asList(util, search), extracted.get(_groups.get("search")));
+  }
+
+  @Test
+  public void testEntirelyShared() throws Exception {
+    // a group keeps its last file, so it's never left empty
+    _configuration.setProperty(ConfigKey.SHARED_MIN_GROUPS.getKey(), "2");
+    Asset jquery = asset("jquery.js", 10);
+    Asset util = asset("util.js", 10);
+    Asset search = asset("search.js", 10);
+    group("home", jquery, util);
+    group("search", jquery, util, search);
+
+    Map<AssetGroup, List<Asset>> extracted = extract();
+    assertEquals(Arrays.asList(jquery), extracted.get(sharedGroup(extracted)));
+    assertEquals(Arrays.asList(util), extracted.get(_groups.get("home")));
+    assertEquals(Arrays.asList(util, search), extracted.get(_groups.get("search")));
+  }
+
+  @Test
+  public void testSharedOrderConflict() throws Exception {
+    _configuration.setProperty(ConfigKey.SHARED_MIN_GROUPS.getKey(), "2");
+    Asset jquery = asset("jquery.js", 10);
+    Asset util = asset("util.js", 10);
+    group("home", jquery, util, asset("home.js", 10));
+    group("search", util, jquery, asset("search.js", 10));
+    assertSame(_groupAssets, extract());
+    assertEquals(0, _mojo.getGroupRequires().size());
+  }
+
+  @Test
+  public void testNoMaxSize() throws Exception {
+    group("home", asset("a.js", 100), asset("b.js", 100));
+    Map<AssetGroup, List<Asset>> split = split();
+    assertEquals(Arrays.asList("home"), names(split));
+    assertEquals(0, _mojo.getGroupRequires().size());
+  }
+
+  @Test
+  public void testSplit() throws Exception {
+    _configuration.setProperty(ConfigKey.MAX_SIZE.getKey(), "10");
+    Asset a = asset("a.js", 4);
+    Asset b = asset("b.js", 6);
+    Asset c = asset("c.js", 4);
+    Asset d = asset("d.js", 20);
+    Asset e = asset("e.js", 1);
+    group("home", a, b, c, d, e);
+    group("search", asset("search.js", 10));
+
+    // each part takes as many files as fit, and a file larger than the
+    // maximum gets a part of its own
+    Map<AssetGroup, List<Asset>> split = split();
+    assertEquals(Arrays.asList("home.1", "home.2", "home.3", "home", "search"), names(split));
+    List<List<Asset>> parts = new ArrayList<List<Asset>>(split.values());
+    assertEquals(Arrays.asList(a, b), parts.get(0));
+    assertEquals(Arrays.asList(c), parts.get(1));
+    assertEquals(Arrays.asList(d), parts.get(2));
+    assertEquals(Arrays.asList(e), parts.get(3));
+
+    assertEquals(Arrays.asList("home.1", "home.2", "home.3"), _mojo.getGroupRequires().get("js.home"));
+    assertNull(_mojo.getGroupRequires().get("js.search"));
+  }
+
+  @Test
+  public void testSplitPartsKeepGzip() throws Exception {
+    _configuration.setProperty(ConfigKey.MAX_SIZE.getKey(), "10");
+    group("home", asset("a.js", 10), asset("b.js", 10));
+    _groups.get("home").setGzip(true);
+    _groups.get("home").setGzipProfile(GzipProfile.EXHAUSTIVE);
+    _groups.get("home").setGzipMinSavings(5);
+
+    AssetGroup part = split().keySet().iterator().next();
+    assertEquals("home.1", part.getName());
+    assertTrue(part.getGzip());
+    assertEquals(GzipProfile.EXHAUSTIVE, part.getGzipProfile());
+    assertEquals(5, part.getGzipMinSavings());
+  }
+
+  @Test
+  public void testGroupMaxSize() throws Exception {
+    _configuration.setProperty(ConfigKey.MAX_SIZE.getKey(), "10");
+    _configuration.setProperty(ConfigKey.MAX_SIZE.getKey() + ".js.search", "0");
+    group("home", asset("a.js", 10), asset("b.js", 10));
+    group("search", asset("c.js", 10), asset("d.js", 10));
+    assertEquals(Arrays.asList("home.1", "home", "search"), names(split()));
+  }
+
+  @Test
+  public void testInvalidMaxSize() throws Exception {
+    _configuration.setProperty(ConfigKey.MAX_SIZE.getKey(), "large");
+    group("home", asset("a.js", 10), asset("b.js", 10));
+    assertEquals(Arrays.asList("home"), names(split()));
+  }
+
+  @Test
+  public void testSplitSharedGroup() throws Exception {
+    // parts are required after the shared group
+    _configuration.setProperty(ConfigKey.SHARED_MIN_GROUPS.getKey(), "2");
+    _configuration.setProperty(ConfigKey.MAX_SIZE.getKey(), "10");
+    Asset jquery = asset("jquery.js", 10);
+    group("home", jquery, asset("a.js", 10), asset("b.js", 10));
+    group("search", jquery, asset("search.js", 10));
+
+    _groupAssets = extract();
+    assertEquals(Arrays.asList("shared", "home.1", "home", "search"), names(split()));
+    assertEquals(Arrays.asList("shared", "home.1"), _mojo.getGroupRequires().get("js.home"));
+    assertEquals(Arrays.asList("shared"), _mojo.getGroupRequires().get("js.search"));
+  }
+
+  @Test(expected = MojoExecutionException.class)
+  public void testMissingOutput() throws Exception {
+    _configuration.setProperty(ConfigKey.MAX_SIZE.getKey(), "10");
+    group("home", new Asset("a.js", "/missing/a.js"));
+    split();
+  }
+
+  /**
+   * @param name
+   * @param size
+   * @return an asset whose processed content is the given number of bytes
+   */
+  private Asset asset(String name, int size) {
+    Asset asset = new Asset(name, null);
+    StringBuilder content = new StringBuilder();
+    for(int i = 0; i < size; i++) content.append('x');
+    asset.setContent(content.toString());
+    return asset;
+  }
+
+  /**
+   * Adds a javascript group including the given assets
+   *
+   * @param name
+   * @param assets
+   */
+  private void group(String name, Asset... assets) {
+    AssetGroup group = new AssetGroup();
+    group.setName(name);
+    _groups.put(name, group);
+    _groupAssets.put(group, new ArrayList<Asset>(Arrays.asList(assets)));
+  }
+
+  /**
+   * @return the groups, with their shared files extracted
+   */
+  private Map<AssetGroup, List<Asset>> extract() {
+    return _mojo.extractSharedAssets(_groupAssets, ConfigKey.JS_ASSET_PREFIX);
+  }
+
+  /**
+   * @return the groups, split at their maximum sizes
+   * @throws Exception
+   */
+  private Map<AssetGroup, List<Asset>> split() throws Exception {
+    return _mojo.splitGroups(_groupAssets, ConfigKey.JS_ASSET_PREFIX);
+  }
+
+  /**
+   * @param groupAssets
+   * @return the names of the given groups, in order
+   */
+  private List<String> names(Map<AssetGroup, List<Asset>> groupAssets) {
+    List<String> names = new ArrayList<String>();
+    for(AssetGroup group:groupAssets.keySet()) names.add(group.getName());
+    return names;
+  }
+
+  /**
+   * @param groupAssets
+   * @return the first of the given groups, which is the shared group once
+   *         shared files have been extracted
+   */
+  private AssetGroup sharedGroup(Map<AssetGroup, List<Asset>> groupAssets) {
+    return groupAssets.keySet().iterator().next();
+  }
+}